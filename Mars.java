@@ -36,6 +36,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
     public class Mars {
        public static void main(String[] args) {
+         if (args.length > 0 && args[0].toLowerCase().equals("batch")) {
+            new mars.MarsBatch(args);
+            System.exit(mars.Globals.exitCode);
+         }
          new mars.MarsLaunch(args);
       }
    } 
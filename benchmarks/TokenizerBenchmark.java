@@ -0,0 +1,102 @@
+   import mars.*;
+   import mars.assembler.*;
+   import java.io.*;
+   import java.util.*;
+
+/**
+ * Measures how long Tokenizer.tokenizeLine() takes to tokenize a large source file, one
+ * line at a time as the editor and assembler do.  Run from the MARS directory as
+ * <pre>
+ *   javac -cp . benchmarks/TokenizerBenchmark.java
+ *   java -cp .:benchmarks TokenizerBenchmark [&lt;file.asm&gt; [&lt;runs&gt;]]
+ * </pre>
+ * Without a file, a source of LINES lines is generated, mixing labels, instructions with
+ * register, immediate and label operands, pseudo-instructions, directives, strings and
+ * comments in the proportions of typical course programs.  The file is read into memory
+ * once, so only tokenizing is timed.  The first runs, which warm up the JIT compiler, are
+ * not counted.  Compile and run it against two versions of the tree to compare them.
+ */
+
+    public class TokenizerBenchmark {
+      private static final int LINES = 100000;
+      private static final int WARMUP_RUNS = 3;
+      private static final String[] SAMPLE_LINES = {
+         "main:",
+         "        addi    $t0, $zero, 10          # loop counter",
+         "        lw      $a0, 4($sp)",
+         "        sw      $ra, -8($fp)",
+         "loop:   add     $t1, $t1, $t0",
+         "        sll     $t2, $t1, 2",
+         "        la      $a1, array",
+         "        li      $v0, 0x7fff",
+         "        bne     $t0, $zero, loop",
+         "        mul.d   $f2, $f4, $f6",
+         "        jal     print_int",
+         "        .word   1, 2, 3, -4, 0xff",
+         "        .asciiz \"Result: \\n\"",
+         "        .float  3.14159, -2.5e3",
+         "        # a comment line with words, commas and $signs",
+         "        move    $s0, $v0",
+         "        syscall",
+         "",
+      };
+
+       public static void main(String[] args) throws Exception {
+         int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+         Globals.initialize(false);
+         String[] lines = (args.length > 0) ? readLines(args[0]) : generateLines();
+         String description = (args.length > 0) ? args[0] : "generated source";
+         long tokens = 0;
+         long[] nanos = new long[runs];
+         for (int run = 0; run < WARMUP_RUNS + runs; run++) {
+            Tokenizer tokenizer = new Tokenizer();
+            ErrorList errors = new ErrorList();
+            long count = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lines.length; i++) {
+               count += tokenizer.tokenizeLine(i + 1, lines[i], errors).size();
+            }
+            long time = System.nanoTime() - start;
+            if (run >= WARMUP_RUNS) {
+               nanos[run - WARMUP_RUNS] = time;
+            }
+            tokens = count;
+         }
+         Arrays.sort(nanos);
+         System.out.println(description + ": " + lines.length + " lines, " + tokens + " tokens, "
+            + runs + " timed runs");
+         System.out.println("median " + format(nanos[runs / 2]) + " (min " + format(nanos[0])
+            + ", max " + format(nanos[runs - 1]) + "), "
+            + String.format("%.0f", (double) nanos[runs / 2] / tokens) + " ns per token");
+      }
+
+      // Repeat the sample lines, numbering labels so that every one is distinct.
+       private static String[] generateLines() {
+         String[] lines = new String[LINES];
+         for (int i = 0; i < LINES; i++) {
+            String line = SAMPLE_LINES[i % SAMPLE_LINES.length];
+            int copy = i / SAMPLE_LINES.length;
+            lines[i] = line.replaceAll("\\b(loop|main|array|print_int)\\b", "$1_" + copy);
+         }
+         return lines;
+      }
+
+       private static String[] readLines(String filename) throws IOException {
+         ArrayList lines = new ArrayList();
+         BufferedReader in = new BufferedReader(new FileReader(filename));
+         try {
+            String line;
+            while ((line = in.readLine()) != null) {
+               lines.add(line);
+            }
+         }
+         finally {
+            in.close();
+         }
+         return (String[]) lines.toArray(new String[lines.size()]);
+      }
+
+       private static String format(long nanos) {
+         return String.format("%.3f s", nanos / 1e9);
+      }
+   }
@@ -0,0 +1,108 @@
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.simulator.*;
+   import java.io.*;
+   import java.util.*;
+   import java.util.concurrent.Callable;
+
+/**
+ * Measures simulation speed, in instructions per second, with turbo mode off and on
+ * (see Simulator.setTurboMode()).  Run from the MARS directory as
+ * <pre>
+ *   javac -cp . benchmarks/TurboBenchmark.java
+ *   java -cp .:benchmarks TurboBenchmark [&lt;program.asm&gt; [&lt;runs&gt;]]
+ * </pre>
+ * The program (by default benchmarks/turbo.asm) is assembled once.  Each run then
+ * simulates it from a fresh copy of the assembled machine (see SimulationContext), so
+ * only simulation is timed.  Runs alternate between the two modes so that drift in
+ * machine load affects both alike, and the first runs of each mode, which warm up the
+ * JIT compiler, are not counted.  The output of every run must match that of the first.
+ * Instructions are counted by the turbo run loop; the program must be deterministic.
+ */
+
+    public class TurboBenchmark {
+      private static final int WARMUP_RUNS = 3;
+
+       public static void main(String[] args) throws Exception {
+         String filename = (args.length > 0) ? args[0] : "benchmarks" + File.separator + "turbo.asm";
+         int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+         Globals.initialize(false);
+         final MIPSprogram program = new MIPSprogram();
+         final ArrayList files = new ArrayList();
+         files.add(filename);
+         final String leadFilename = filename;
+         SimulationContext assembled = new SimulationContext();
+         final int startAddress = ((Integer) assembled.execute(
+               new Callable() {
+                  public Object call() throws Exception {
+                     program.assemble(program.prepareFilesForAssembly(files, leadFilename, null), true, false);
+                     RegisterFile.initializeProgramCounter(false);
+                     return new Integer(RegisterFile.getProgramCounter());
+                  }
+               })).intValue();
+
+         String expectedOutput = null;
+         long instructions = 0;
+         double[][] rates = new double[2][runs];
+         for (int run = 0; run < WARMUP_RUNS + runs; run++) {
+            for (int mode = 0; mode < 2; mode++) {
+               boolean turbo = (mode == 1);
+               ByteArrayOutputStream output = new ByteArrayOutputStream();
+               long nanos = simulate(program, assembled, startAddress, turbo, output);
+               if (expectedOutput == null) {
+                  expectedOutput = output.toString();
+               }
+               else if (!expectedOutput.equals(output.toString())) {
+                  throw new IllegalStateException("output of run " + run + " differs: " + output);
+               }
+               if (turbo) {
+                  instructions = Simulator.getInstance().getInstructionsExecuted();
+               }
+               if (run >= WARMUP_RUNS) { // instructions already counted by a warm-up run
+                  rates[mode][run - WARMUP_RUNS] = instructions / (nanos / 1e9);
+               }
+            }
+         }
+
+         System.out.println(filename + ": " + instructions + " instructions, " + runs + " timed runs per mode");
+         double[] medians = new double[2];
+         for (int mode = 0; mode < 2; mode++) {
+            Arrays.sort(rates[mode]);
+            medians[mode] = rates[mode][runs / 2];
+            System.out.println(((mode == 1) ? "turbo on:  " : "turbo off: ")
+               + format(medians[mode]) + " instructions/s median (min "
+               + format(rates[mode][0]) + ", max " + format(rates[mode][runs - 1]) + ")");
+         }
+         System.out.println("speedup:   " + String.format("%.2f", medians[1] / medians[0]) + "x (medians)");
+      }
+
+      // Simulate the program once from a copy of the assembled machine, with standard
+   	// output going to the given stream.  Returns the time taken, in nanoseconds.
+       private static long simulate(final MIPSprogram program, SimulationContext assembled,
+                                    final int startAddress, boolean turbo, ByteArrayOutputStream output)
+                                    throws Exception {
+         SimulationContext context = new SimulationContext(assembled);
+         Simulator.getInstance().setTurboMode(turbo);
+         PrintStream savedOut = System.out;
+         System.setOut(new PrintStream(output, true));
+         try {
+            Long nanos = (Long) context.execute(
+                  new Callable() {
+                     public Object call() throws Exception {
+                        RegisterFile.initializeProgramCounter(startAddress);
+                        long start = System.nanoTime();
+                        program.simulate(-1);
+                        return new Long(System.nanoTime() - start);
+                     }
+                  });
+            return nanos.longValue();
+         }
+         finally {
+            System.setOut(savedOut);
+         }
+      }
+
+       private static String format(double rate) {
+         return String.format("%.1fM", rate / 1e6);
+      }
+   }
@@ -0,0 +1,79 @@
+# Driver program for TurboBenchmark: a bubble sort of 1000 pseudo-random words,
+# a recursive Fibonacci and a byte-wise checksum, about 5 million instructions
+# in all.  Prints the results so runs can be checked against each other.
+        .data
+array:  .space 4000
+        .text
+main:   la   $s0, array
+        li   $s1, 1000
+        li   $t0, 12345             # linear congruential generator seed
+        move $t1, $s0
+        move $t2, $s1
+fill:   mul  $t0, $t0, 1103515245
+        addiu $t0, $t0, 12345
+        sw   $t0, 0($t1)
+        addi $t1, $t1, 4
+        addi $t2, $t2, -1
+        bgtz $t2, fill
+
+        move $s2, $s1               # bubble sort, signed ascending
+outer:  addi $s2, $s2, -1
+        blez $s2, sorted
+        move $t1, $s0
+        move $t2, $zero
+inner:  lw   $t3, 0($t1)
+        lw   $t4, 4($t1)
+        ble  $t3, $t4, noswap
+        sw   $t4, 0($t1)
+        sw   $t3, 4($t1)
+noswap: addi $t1, $t1, 4
+        addi $t2, $t2, 1
+        blt  $t2, $s2, inner
+        j    outer
+
+sorted: li   $a0, 20
+        jal  fib
+        move $s3, $v0
+
+        move $t1, $s0               # checksum of the sorted bytes
+        sll  $t2, $s1, 2
+        addu $t2, $t1, $t2
+        li   $t5, 0
+sum:    lbu  $t3, 0($t1)
+        sll  $t4, $t5, 5
+        subu $t5, $t4, $t5
+        addu $t5, $t5, $t3
+        addi $t1, $t1, 1
+        bne  $t1, $t2, sum
+
+        move $a0, $t5
+        li   $v0, 1
+        syscall
+        li   $a0, ' '
+        li   $v0, 11
+        syscall
+        move $a0, $s3
+        li   $v0, 1
+        syscall
+        li   $v0, 10
+        syscall
+
+# int fib(int n): n < 2 ? n : fib(n-1) + fib(n-2)
+fib:    slti $t0, $a0, 2
+        beqz $t0, recurse
+        move $v0, $a0
+        jr   $ra
+recurse: addi $sp, $sp, -12
+        sw   $ra, 0($sp)
+        sw   $a0, 4($sp)
+        addi $a0, $a0, -1
+        jal  fib
+        sw   $v0, 8($sp)
+        lw   $a0, 4($sp)
+        addi $a0, $a0, -2
+        jal  fib
+        lw   $t0, 8($sp)
+        addu $v0, $v0, $t0
+        lw   $ra, 0($sp)
+        addi $sp, $sp, 12
+        jr   $ra
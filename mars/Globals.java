@@ -83,6 +83,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int maximumErrorMessages = getErrorLimit();
     /** Maximum number of back-step operations to buffer */
       public static final int maximumBacksteps = getBackstepLimit();
+    /** Instructions between back-stepping snapshots; 0 to record an undo action for every write instead */
+      public static final int backstepSnapshotInterval = getBackstepSnapshotInterval();
+    /** Storage for data and stack segments: "heap", "direct" or "mapped" (see Memory.setBacking) */
+      public static final String memoryBacking = getMemoryBacking();
+    /** Directory of saved assemblies (see mars.assembler.AssemblyCache); empty if they are not saved */
+      public static final String assemblyCacheDirectory = getAssemblyCacheDirectory();
    	/** MARS copyright years */
       public static final String copyrightYears = getCopyrightYears();
    	/** MARS copyright holders */
@@ -145,6 +151,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        private static int getBackstepLimit() {
          return getIntegerProperty(configPropertiesFile, "BackstepLimit", 1000);
       } 
+   
+   	// Read back-stepping snapshot interval (see mars.simulator.ReplayHistory) from properties file.
+       private static int getBackstepSnapshotInterval() {
+         return getIntegerProperty(configPropertiesFile, "BackstepSnapshotInterval", 0);
+      } 
+   
+   	// Read memory backing storage name from properties file.
+       private static String getMemoryBacking() {
+         String backing = getPropertyEntry(configPropertiesFile, "MemoryBacking");
+         return (backing == null) ? "heap" : backing.trim();
+      } 
+   
+   	// Read assembly cache directory name from properties file.
+       private static String getAssemblyCacheDirectory() {
+         String directory = getPropertyEntry(configPropertiesFile, "AssemblyCache");
+         return (directory == null) ? "" : directory.trim();
+      } 
 		
    	// Read ASCII default display character for non-printing characters, from properties file.
        public static String getAsciiNonPrint() {
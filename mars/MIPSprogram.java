@@ -6,6 +6,7 @@
    import mars.mips.hardware.*;
 	
    import java.util.*;
+   import java.util.concurrent.*;
    import java.io.*;
    import java.awt.event.*;
    import javax.swing.*;
@@ -240,8 +241,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     **/
    
        public void tokenize() throws ProcessingException {
+         tokenize(new SourceCache());
+      }
+   
+   // Tokenizes, taking lines and included files from the given cache.
+       private void tokenize(SourceCache sources) throws ProcessingException {
          this.tokenizer = new Tokenizer();
-         this.tokenList = tokenizer.tokenize(this);
+         this.tokenList = tokenizer.tokenize(this, sources);
          this.localSymbolTable = new SymbolTable(this.filename); // prepare for assembly
          return;
       }
@@ -249,6 +255,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    /**
     * Prepares the given list of files for assembly.  This involves
     * reading and tokenizing all the source files.  There may be only one.
+    * Several files are read and tokenized in parallel, since each is tokenized
+    * on its own; if any fail, the exception is that of the first failing file in
+    * list order, as if they had been done one at a time.  Files included by
+    * several of them are read and lexed only once.
     * @param filenames  ArrayList containing the source file name(s) in no particular order
     * @param leadFilename String containing name of source file that needs to go first and 
     * will be represented by "this" MIPSprogram object.
@@ -262,17 +272,51 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     **/
    
        public ArrayList prepareFilesForAssembly(ArrayList filenames, String leadFilename, String exceptionHandler) throws ProcessingException {
+         return prepareFilesForAssembly(filenames, leadFilename, exceptionHandler, new SourceCache());
+      }
+   
+   /**
+    * Prepares the given list of files for assembly, as above, taking their lines and
+    * included files from a cache kept from earlier assemblies.  Only lines not already
+    * in the cache are lexed.
+    * @param filenames  ArrayList containing the source file name(s) in no particular order
+    * @param leadFilename String containing name of source file that needs to go first and 
+    * will be represented by "this" MIPSprogram object.
+    * @param exceptionHandler String containing name of source file containing exception
+    * handler, or null or empty String if there is none.
+    * @param sources cache of source files, updated with the files read
+    * @return ArrayList containing one MIPSprogram object for each file to assemble.
+    * @throws ProcessingException Will throw exception if errors occured while reading or tokenizing.
+    **/
+   
+       public ArrayList prepareFilesForAssembly(ArrayList filenames, String leadFilename, String exceptionHandler,
+              SourceCache sources) throws ProcessingException {
          ArrayList MIPSprogramsToAssemble = new ArrayList();
          int leadFilePosition = 0;
          if (exceptionHandler != null && exceptionHandler.length() > 0) {
             filenames.add(0, exceptionHandler);
             leadFilePosition = 1;
          }
+         MIPSprogram[] preparees = new MIPSprogram[filenames.size()];
+         int leadFileCount = 0;
          for (int i=0; i<filenames.size(); i++) {
             String filename = (String) filenames.get(i);  
-            MIPSprogram preparee = (filename.equals(leadFilename)) ? this : new MIPSprogram();
-            preparee.readSource(filename);
-            preparee.tokenize();
+            preparees[i] = (filename.equals(leadFilename)) ? this : new MIPSprogram();
+            if (preparees[i] == this) 
+               leadFileCount++;
+         }
+         // If the lead file is listed more than once, "this" must not be tokenized twice at once.
+         if (preparees.length > 1 && leadFileCount <= 1) {
+            readAndTokenize(preparees, filenames, sources);
+         } 
+         else {
+            for (int i=0; i<preparees.length; i++) {
+               preparees[i].readSource((String) filenames.get(i));
+               preparees[i].tokenize(sources);
+            }
+         }
+         for (int i=0; i<preparees.length; i++) {
+            MIPSprogram preparee = preparees[i];
          	// I want "this" MIPSprogram to be the first in the list...except for exception handler
             if (preparee == this && MIPSprogramsToAssemble.size()>0) {
                MIPSprogramsToAssemble.add(leadFilePosition,preparee);
@@ -284,6 +328,49 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return MIPSprogramsToAssemble;
       }
    
+      // Reads and tokenizes each program from its file on the fork-join pool.  Tokenizing only
+   	// reads the instruction set and register names, which are not changed while assembling.
+       private static void readAndTokenize(MIPSprogram[] preparees, ArrayList filenames, final SourceCache sources) 
+              throws ProcessingException {
+         final ProcessingException[] failures = new ProcessingException[preparees.length];
+         ArrayList tasks = new ArrayList(preparees.length);
+         for (int i=0; i<preparees.length; i++) {
+            final MIPSprogram preparee = preparees[i];
+            final String filename = (String) filenames.get(i);
+            final int index = i;
+            tasks.add(
+                  new Callable() {
+                     public Object call() {
+                        try {
+                           preparee.readSource(filename);
+                           preparee.tokenize(sources);
+                        } 
+                            catch (ProcessingException e) {
+                              failures[index] = e;
+                           }
+                        return null;
+                     }
+                  });
+         }
+         List results = ForkJoinPool.commonPool().invokeAll(tasks);
+         for (int i=0; i<results.size(); i++) {
+            try {
+               ((Future) results.get(i)).get();
+            } 
+                catch (ExecutionException e) {
+                  throw new RuntimeException(e.getCause());
+               }
+                catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  ErrorList errors = new ErrorList();
+                  errors.add(new ErrorMessage((MIPSprogram)null,0,0,"interrupted while reading source files"));
+                  throw new ProcessingException(errors);
+               }
+            if (failures[i] != null) 
+               throw failures[i];
+         }
+      }
+   
    /**
     * Assembles the MIPS source program. All files comprising the program must have 
     * already been tokenized.  Assembler warnings are not considered errors.
@@ -0,0 +1,448 @@
+   package mars;
+   import mars.mips.hardware.*;
+   import mars.simulator.*;
+   import java.io.*;
+   import java.util.*;
+
+/**
+ * Batch front end for running many MIPS programs against many inputs, typically
+ * for grading.  Started from the command line as
+ * <pre>
+ *   java Mars batch &lt;manifest&gt; [workers &lt;n&gt;] [steps &lt;n&gt;]
+ * </pre>
+ * Each non-blank line of the manifest that does not start with # describes one case:
+ * <pre>
+ *   &lt;program.asm&gt; [&lt;stdin file&gt; | -] [&lt;expected stdout file&gt; | -]
+ * </pre>
+ * Relative file names are relative to the directory of the manifest.  Each program is
+ * assembled once; every case of that program then starts from a copy of the
+ * post-assembly memory image in its own SimulationContext and is run in turbo mode.
+ * <p>
+ * Results are written to standard output as a JSON array with one object per case
+ * giving its status (pass, fail, error, step-limit or assemble-error), number of
+ * instructions executed, wall time in milliseconds, MARS exit code, and error message if
+ * any.  A case with no expected output passes if the program terminates normally.
+ * Anything else MARS prints, such as warnings while loading custom languages, goes to
+ * standard error.
+ * <p>
+ * Simulations in one JVM run one at a time (see SimulationContext), so with more than
+ * one worker the cases are divided into that many runs of consecutive manifest lines,
+ * each run in turn by a worker JVM.  A worker assembles each program once for all of its
+ * cases, and writes its results to a temporary file that this JVM merges.  The output of
+ * workers is copied to standard error.  If a worker exits with an error or leaves out
+ * results for any of its cases, the batch terminates with no results.
+ * <p>
+ * The exit code of MARS is 0 if results were written, whatever their status, and 1 if not.
+ */
+
+    public class MarsBatch {
+      private static final String WORKER_SWITCH = "worker"; // internal: run one share of the manifest
+      private static final String RESULTS_SWITCH = "results"; // internal: file for a worker's results
+      private File manifest;
+      private int workers;
+      private int maxSteps;
+      private int workerIndex; // -1 unless running as a worker
+      private File resultsFile; // where a worker writes its results
+      private PrintStream out;  // results; System.out is standard error while the batch runs
+
+   	/**
+   	 * Run a batch as described by the command arguments.
+   	 * @param args command arguments, the first of which is "batch"
+   	 */
+       public MarsBatch(String[] args) {
+         out = System.out;
+         workers = 1;
+         maxSteps = -1;
+         workerIndex = -1;
+         if (!parseCommandArgs(args)) {
+            out.println("Usage:  Mars batch <manifest> [workers <n>] [steps <n>]");
+            Globals.exitCode = 1;
+            return;
+         }
+         PrintStream standardOutput = System.out;
+         System.setOut(System.err);
+         try {
+            ArrayList cases = readManifest();
+            if (workerIndex >= 0) {
+               out = new PrintStream(new FileOutputStream(resultsFile), true, "UTF-8");
+               runCases(cases);
+               out.close();
+            }
+            else if (workers > 1) {
+               runWorkers(cases);
+            }
+            else {
+               runCases(cases);
+            }
+            Globals.exitCode = 0; // otherwise that of the last case run
+         }
+             catch (IOException e) {
+               System.err.println("Batch terminated: "+e.getMessage());
+               Globals.exitCode = 1;
+            }
+         finally {
+            System.setOut(standardOutput);
+         }
+      }
+
+       private boolean parseCommandArgs(String[] args) {
+         for (int i=1; i<args.length; i++) {
+            try {
+               if (args[i].toLowerCase().equals("workers") && i+1 < args.length) {
+                  workers = Math.max(1, Integer.parseInt(args[++i]));
+               }
+               else if (args[i].toLowerCase().equals("steps") && i+1 < args.length) {
+                  maxSteps = Integer.parseInt(args[++i]);
+               }
+               else if (args[i].equals(WORKER_SWITCH) && i+1 < args.length) {
+                  workerIndex = Integer.parseInt(args[++i]);
+               }
+               else if (args[i].equals(RESULTS_SWITCH) && i+1 < args.length) {
+                  resultsFile = new File(args[++i]);
+               }
+               else if (manifest == null) {
+                  manifest = new File(args[i]).getAbsoluteFile();
+               }
+               else {
+                  return false;
+               }
+            }
+                catch (NumberFormatException e) {
+                  return false;
+               }
+         }
+         return manifest != null && (workerIndex < 0 || (workerIndex < workers && resultsFile != null));
+      }
+
+      // Read the manifest.  Returns list of Case in manifest order.
+       private ArrayList readManifest() throws IOException {
+         ArrayList cases = new ArrayList();
+         File dir = manifest.getParentFile();
+         BufferedReader in = new BufferedReader(new FileReader(manifest));
+         try {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+               lineNumber++;
+               line = line.trim();
+               if (line.length() == 0 || line.startsWith("#")) {
+                  continue;
+               }
+               String[] fields = line.split("\\s+");
+               if (fields.length > 3) {
+                  throw new IOException(manifest+" line "+lineNumber+": too many fields");
+               }
+               cases.add(new Case(cases.size(), resolve(dir, fields[0]),
+                  (fields.length > 1) ? resolve(dir, fields[1]) : null,
+                  (fields.length > 2) ? resolve(dir, fields[2]) : null));
+            }
+         }
+         finally {
+            in.close();
+         }
+         return cases;
+      }
+
+       private static File resolve(File dir, String name) {
+         if (name.equals("-")) {
+            return null;
+         }
+         File file = new File(name);
+         return (file.isAbsolute()) ? file : new File(dir, name);
+      }
+
+      // Group cases by program, in order of first appearance.
+       private static LinkedHashMap groupByProgram(ArrayList cases) {
+         LinkedHashMap groups = new LinkedHashMap();
+         for (int i=0; i<cases.size(); i++) {
+            Case c = (Case) cases.get(i);
+            ArrayList group = (ArrayList) groups.get(c.program);
+            if (group == null) {
+               group = new ArrayList();
+               groups.put(c.program, group);
+            }
+            group.add(c);
+         }
+         return groups;
+      }
+
+      // Index of the first case run by the given worker.  Worker i runs cases
+   	// firstCase(i) up to firstCase(i+1), so every worker computes the same division
+   	// without communication, and consecutive cases of one program mostly share a worker.
+       private int firstCase(int worker, int caseCount) {
+         return (int) ((long) caseCount * worker / workers);
+      }
+
+      //////////////////////////////////////////////////////////////////////
+      // Run cases in this JVM, writing one JSON result per line to the results
+   	// file (worker) or a JSON array in manifest order (single JVM).
+
+       private void runCases(ArrayList cases) {
+         Globals.initialize(false);
+         System.setProperty("java.awt.headless", "true");
+         Simulator.getInstance().setTurboMode(true);
+         String[] results = new String[cases.size()];
+         ArrayList share = cases;
+         if (workerIndex >= 0) {
+            share = new ArrayList(cases.subList(firstCase(workerIndex, cases.size()),
+                                                firstCase(workerIndex+1, cases.size())));
+         }
+         Iterator it = groupByProgram(share).values().iterator();
+         while (it.hasNext()) {
+            runProgram((ArrayList) it.next(), results);
+         }
+         if (workerIndex >= 0) {
+            for (int i=0; i<results.length; i++) {
+               if (results[i] != null) {
+                  out.println(results[i]);
+               }
+            }
+         }
+         else {
+            printResults(results);
+         }
+      }
+
+      // Assemble the program once and run each of its cases from a copy of the assembled image.
+       private void runProgram(ArrayList group, String[] results) {
+         final File program = ((Case) group.get(0)).program;
+         final MIPSprogram code = new MIPSprogram();
+         SimulationContext assembled = new SimulationContext();
+         String assembleError = null;
+         int startAddress = 0;
+         try {
+            startAddress = ((Integer) assembled.execute(
+                  new java.util.concurrent.Callable() {
+                     public Object call() throws ProcessingException {
+                        ArrayList files = new ArrayList();
+                        files.add(program.getPath());
+                        code.assemble(code.prepareFilesForAssembly(files, program.getPath(), null), true, false);
+                        RegisterFile.initializeProgramCounter(false);
+                        return new Integer(RegisterFile.getProgramCounter());
+                     }
+                  })).intValue();
+         }
+             catch (ProcessingException e) {
+               assembleError = e.errors().generateErrorReport();
+            }
+             catch (Exception e) {
+               assembleError = e.toString();
+            }
+         Globals.exitCode = 0;
+         for (int i=0; i<group.size(); i++) {
+            Case c = (Case) group.get(i);
+            if (assembleError != null) {
+               results[c.index] = c.result("assemble-error", 0, 0, assembleError);
+            }
+            else {
+               results[c.index] = runCase(c, code, assembled, startAddress);
+            }
+         }
+      }
+
+      // Run one case in a fresh context copied from the assembled one.  Standard input and
+   	// output are redirected for the duration of the run.
+       private String runCase(Case c, final MIPSprogram code, SimulationContext assembled, final int startAddress) {
+         ByteArrayOutputStream output = new ByteArrayOutputStream();
+         InputStream savedIn = System.in;
+         PrintStream savedOut = System.out;
+         String status;
+         String message = null;
+         long startTime = System.currentTimeMillis();
+         try {
+            System.setIn((c.input == null) ? (InputStream) new ByteArrayInputStream(new byte[0])
+                                           : new BufferedInputStream(new FileInputStream(c.input)));
+            System.setOut(new PrintStream(output, true));
+            Globals.exitCode = 0;
+            SimulationContext context = new SimulationContext(assembled);
+            Boolean done = (Boolean) context.execute(
+                  new java.util.concurrent.Callable() {
+                     public Object call() throws ProcessingException {
+                        RegisterFile.initializeProgramCounter(startAddress);
+                        return new Boolean(code.simulate(maxSteps));
+                     }
+                  });
+            if (!done.booleanValue()) {
+               status = "step-limit";
+            }
+            else if (c.expected == null || sameContents(output.toByteArray(), c.expected)) {
+               status = "pass";
+            }
+            else {
+               status = "fail";
+            }
+         }
+             catch (ProcessingException e) {
+               status = "error";
+               message = e.errors().generateErrorReport();
+            }
+             catch (Exception e) {
+               status = "error";
+               message = e.toString();
+            }
+         finally {
+            System.out.flush();
+            System.setOut(savedOut);
+            if (System.in != savedIn) {
+               try { System.in.close(); }
+                   catch (IOException e) {}
+               System.setIn(savedIn);
+            }
+         }
+         long time = System.currentTimeMillis() - startTime;
+         return c.result(status, Simulator.getInstance().getInstructionsExecuted(), time, message);
+      }
+
+       private static boolean sameContents(byte[] actual, File expected) throws IOException {
+         if (expected.length() != actual.length) {
+            return false;
+         }
+         DataInputStream in = new DataInputStream(new FileInputStream(expected));
+         try {
+            byte[] contents = new byte[actual.length];
+            in.readFully(contents);
+            return Arrays.equals(contents, actual);
+         }
+         finally {
+            in.close();
+         }
+      }
+
+      //////////////////////////////////////////////////////////////////////
+      // Run the cases in worker JVMs and merge their results in manifest order.
+
+       private void runWorkers(ArrayList cases) throws IOException {
+         String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+         Process[] processes = new Process[workers];
+         File[] resultsFiles = new File[workers];
+         Thread[] copiers = new Thread[workers];
+         for (int i=0; i<workers; i++) {
+            resultsFiles[i] = File.createTempFile("marsbatch", ".json");
+            resultsFiles[i].deleteOnExit();
+            String[] command = {java, "-cp", System.getProperty("java.class.path"), "Mars", "batch",
+               manifest.getPath(), "workers", Integer.toString(workers), "steps", Integer.toString(maxSteps),
+               WORKER_SWITCH, Integer.toString(i), RESULTS_SWITCH, resultsFiles[i].getPath()};
+            ProcessBuilder builder = new ProcessBuilder(command);
+            builder.redirectErrorStream(true);
+            processes[i] = builder.start();
+            processes[i].getOutputStream().close();
+            // Copy the worker's output so it cannot block on a full pipe.
+            final InputStream in = processes[i].getInputStream();
+            copiers[i] =
+               new Thread() {
+                  public void run() {
+                     byte[] buffer = new byte[8192];
+                     try {
+                        int count;
+                        while ((count = in.read(buffer)) > 0) {
+                           System.err.write(buffer, 0, count);
+                        }
+                     }
+                         catch (IOException e) {}
+                     System.err.flush();
+                  }
+               };
+            copiers[i].start();
+         }
+         int[] exitValues = new int[workers];
+         for (int i=0; i<workers; i++) {
+            try {
+               copiers[i].join();
+               exitValues[i] = processes[i].waitFor();
+            }
+                catch (InterruptedException e) {
+                  processes[i].destroy();
+                  exitValues[i] = -1;
+               }
+         }
+         String[] results = new String[cases.size()];
+         for (int i=0; i<workers; i++) {
+            if (exitValues[i] != 0) {
+               throw new IOException("batch worker "+i+" failed with exit code "+exitValues[i]);
+            }
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(resultsFiles[i]), "UTF-8"));
+            try {
+               String line;
+               while ((line = in.readLine()) != null) {
+                  // Each result line starts with {"case": <index>,
+                  int start = line.indexOf(':') + 1;
+                  int end = line.indexOf(',');
+                  try {
+                     results[Integer.parseInt(line.substring(start, end).trim())] = line;
+                  }
+                      catch (RuntimeException e) {
+                        throw new IOException("unexpected output from batch worker: "+line);
+                     }
+               }
+            }
+            finally {
+               in.close();
+               resultsFiles[i].delete();
+            }
+         }
+         for (int i=0; i<results.length; i++) {
+            if (results[i] == null) {
+               throw new IOException("no result from batch worker for case "+i);
+            }
+         }
+         printResults(results);
+      }
+
+       private void printResults(String[] results) {
+         out.println("[");
+         for (int i=0; i<results.length; i++) {
+            out.println("  "+results[i]+((i < results.length-1) ? "," : ""));
+         }
+         out.println("]");
+      }
+
+      // Encode string as a JSON string literal.
+       private static String quote(String s) {
+         if (s == null) {
+            return "null";
+         }
+         StringBuffer buf = new StringBuffer(s.length()+2);
+         buf.append('"');
+         for (int i=0; i<s.length(); i++) {
+            char ch = s.charAt(i);
+            switch (ch) {
+               case '"'  : buf.append("\\\""); break;
+               case '\\' : buf.append("\\\\"); break;
+               case '\n' : buf.append("\\n"); break;
+               case '\r' : buf.append("\\r"); break;
+               case '\t' : buf.append("\\t"); break;
+               default   :
+                  if (ch < 0x20) {
+                     buf.append("\\u").append(Integer.toHexString(0x10000 + ch).substring(1));
+                  }
+                  else {
+                     buf.append(ch);
+                  }
+            }
+         }
+         buf.append('"');
+         return buf.toString();
+      }
+
+      // One line of the manifest.
+       private static class Case {
+         private int index;
+         private File program, input, expected;
+
+          private Case(int index, File program, File input, File expected) {
+            this.index = index;
+            this.program = program;
+            this.input = input;
+            this.expected = expected;
+         }
+
+         // JSON object for the result of this case.
+          private String result(String status, long instructions, long millis, String message) {
+            return "{\"case\": "+index+", \"program\": "+quote(program.getPath())+
+               ", \"input\": "+quote((input == null) ? null : input.getPath())+
+               ", \"status\": "+quote(status)+", \"instructions\": "+instructions+
+               ", \"timeMillis\": "+millis+", \"exitCode\": "+Globals.exitCode+
+               ", \"message\": "+quote(message)+"}";
+         }
+      }
+   }
@@ -4,6 +4,7 @@
    import mars.mips.dump.*;
    import mars.mips.hardware.*;
    import mars.simulator.*;
+   import mars.assembler.AssemblyCache;
    import java.io.*;
    import java.util.*;
    import java.awt.*;
@@ -52,10 +53,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       Usage:  Mars  [options] filename<br>
       Valid options (not case sensitive, separate by spaces) are:<br>
             a  -- assemble only, do not simulate<br>
+           ac  -- save assembled programs in a directory, and load a program from there instead of<br>
+                  assembling it again if it has not changed.  Option has 1 argument, e.g.<br>
+                  <tt>ac &lt;directory&gt;</tt>.  Default is set in Config.properties.<br>
            ad  -- both a and d<br>
    	  ae<n>  -- terminate MARS with integer exit code <n> if an assemble error occurs.<br>
    	  ascii  -- display memory or register contents interpreted as ASCII
    		   b  -- brief - do not display register/memory address along with contents<br>
+         ckpt  -- save machine state to a checkpoint file at end of run.  Option has 1 argument, e.g.<br>
+                  <tt>ckpt &lt;file&gt;</tt>.  Use with a step limit to stop long simulations.<br>
    		   d  -- print debugging statements<br>
            da  -- both a and d<br>
            db  -- MIPS delayed branching is enabled.<br>
@@ -66,13 +72,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   segments are <tt>.text</tt> and <tt>.data</tt>.  Current supported dump formats <br>
                   are <tt>Binary</tt>, <tt>HexText</tt>, <tt>BinaryText</tt>.<br>
             h  -- display help.  Use by itself and with no filename</br>
+         heat  -- count reads, writes and instruction fetches of each 4K memory page and write them<br>
+                  as CSV at end of run.  Option has 1 argument, e.g. <tt>heat &lt;file&gt;</tt>; use <tt>-</tt><br>
+                  for standard output.  Works with <tt>turbo</tt>.<br>
           hex  -- display memory or register contents in hexadecimal (default)<br>
            ic  -- display count of MIPS basic instructions 'executed'");
+       resume  -- restore machine state from a checkpoint file, then continue running the program.<br>
+                  Option has 1 argument, e.g. <tt>resume &lt;file&gt;</tt>.  Give the same program files.<br>
+           mb  -- set memory backing for data and stack segments.  Option has 1 argument,<br>
+                  <tt>heap</tt>, <tt>direct</tt> or <tt>mapped</tt>.  The last two hold up to 256 MB each<br>
+                  outside the Java heap.  Default is set in Config.properties.<br>
            mc  -- set memory configuration.  Option has 1 argument, e.g.<br>
                   <tt>mc &lt;config$gt;</tt>, where &lt;config$gt; is <tt>Default</tt><br>
                   for the MARS default 32-bit address space, <tt>CompactDataAtZero</tt> for<br>
-                  a 32KB address space with data segment at address 0, or <tt>CompactTextAtZero</tt><br>
-                  for a 32KB address space with text segment at address 0.<br>
+                  a 32KB address space with data segment at address 0, <tt>CompactTextAtZero</tt><br>
+                  for a 32KB address space with text segment at address 0, or <tt>Sparse</tt><br>
+                  for the default layout with every address outside the text segments usable.<br>
            me  -- display MARS messages to standard err instead of standard out. Can separate via redirection.</br>
            nc  -- do not display copyright notice (for cleaner redirected/piped output).</br>
    		  np  -- No Pseudo-instructions allowed ("ne" will work also).<br>
@@ -80,6 +95,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  se<n>  -- terminate MARS with integer exit code <n> if a simulation (run) error occurs.<br>
            sm  -- Start execution at Main - Execution will start at program statement globally labeled main.<br>
           smc  -- Self Modifying Code - Program can write and branch to either text or data segment<br>
+        turbo  -- simulate as fast as possible: no per-instruction locking, observer notices or back-step bookkeeping<br>
            we  -- assembler Warnings will be considered Errors<br>
           <n>  -- where <n> is an integer maximum count of steps to simulate.<br>
                   If 0, negative or not specified, there is no maximum.<br>
@@ -108,6 +124,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private boolean startAtMain; // Whether to start execution at statement labeled 'main' 
       private boolean countInstructions; // Whether to count and report number of instructions executed 
       private boolean selfModifyingCode; // Whether to allow self-modifying code (e.g. write to text segment)
+      private boolean turbo; // Whether to simulate in turbo mode (see Simulator.setTurboMode)
+      private String checkpointFile; // If not null, save machine state to this file at end of run
+      private String resumeFile; // If not null, restore machine state from this file before running
+      private String pageAccessFile; // If not null, write page access counts to this file ("-" for out)
       private static final String rangeSeparator = "-";
       private static final int splashDuration = 2000; // time in MS to show splash screen
       private static final int memoryWordsPerLine = 4; // display 4 memory words, tab separated, per line
@@ -119,7 +139,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private ArrayList filenameList;
       private MIPSprogram code;
       private int maxSteps;
-      private int instructionCount;
       private PrintStream out; // stream for display of command line output
       private ArrayList dumpTriples = null; // each element holds 3 arguments for dump option
       private ArrayList programArgumentList; // optional program args for MIPS program (becomes argc, argv)
@@ -145,7 +164,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             startAtMain = false;
             countInstructions = false;
 				selfModifyingCode = false;
-            instructionCount = 0;
+            turbo = false;
+            checkpointFile = null;
+            resumeFile = null;
+            pageAccessFile = null;
             assembleErrorExitCode = 0;
             simulateErrorExitCode = 0;
             registerDisplayList = new ArrayList();
@@ -311,6 +333,58 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                }
                continue;
             } 
+            if (args[i].toLowerCase().equals("ckpt") || args[i].toLowerCase().equals("resume")) {
+               if (args.length <= (i+1)) {
+                  out.println("Command line argument "+args[i]+" requires a file name.");
+                  argsOK = false;
+               } 
+               else if (args[i].toLowerCase().equals("ckpt")) {
+                  checkpointFile = args[++i];
+               } 
+               else {
+                  resumeFile = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("heat")) {
+               if (args.length <= (i+1)) {
+                  out.println("Command line argument heat requires a file name, or - for standard output.");
+                  argsOK = false;
+               } 
+               else {
+                  pageAccessFile = args[++i];
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("ac")) {
+               if (args.length <= (i+1)) {
+                  out.println("Command line argument ac requires a directory name.");
+                  argsOK = false;
+               } 
+               else {
+                  AssemblyCache.setDirectory(args[++i]);
+               }
+               continue;
+            } 
+            if (args[i].toLowerCase().equals("mb")) {
+               if (args.length <= (i+1)) {
+                  out.println("Command line argument mb requires a memory backing.");
+                  argsOK = false;
+               } 
+               else {
+                  String backingName = args[++i];
+                  int backing = Memory.getBacking(backingName);
+                  if (backing == Memory.HEAP_BACKING && !backingName.equalsIgnoreCase("heap")) {
+                     out.println("Invalid memory backing: "+backingName);
+                     argsOK = false;
+                  } 
+                  else {
+                     Memory.setBacking(backing);
+                     Globals.memory.clear();
+                  }
+               }
+               continue;
+            }
             if (args[i].toLowerCase().equals("mc")) {
                String configName = args[++i];
                MemoryConfiguration config = MemoryConfigurations.getConfigurationByName(configName);
@@ -403,6 +477,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                countInstructions = true;
                continue;
             }
+            if (args[i].toLowerCase().equals("turbo")) {
+               turbo = true;
+               continue;
+            }
          
          
             if (args[i].indexOf("$") == 0) {
@@ -506,19 +584,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                out.println(warnings.generateWarningReport());
             }
             RegisterFile.initializeProgramCounter(startAtMain); // DPS 3/9/09
+            // Nothing can step back from the command line, so record no back-steps.  This
+            // also lets the simulator execute hot basic blocks as a unit.
+            code.getBackStepper().setEnabled(false);
             if (simulate) {
-               // store program args (if any) in MIPS memory
-               new ProgramArgumentList(programArgumentList).storeProgramArguments();
-            	// establish observer if specified  
-               establishObserver();
+               if (resumeFile != null) {
+                  // continue from saved machine state; program args are already in memory
+                  SimulationContext.getDefault().restoreCheckpoint(new File(resumeFile));
+               } 
+               else {
+                  // store program args (if any) in MIPS memory
+                  new ProgramArgumentList(programArgumentList).storeProgramArguments();
+               }
                if (Globals.debug) {
                   out.println("--------  SIMULATION BEGINS  -----------");
                }
                programRan = true;
+               // enabled only now so program loading is not counted
+               Globals.memory.setPageAccessCounting(pageAccessFile != null);
+               Simulator.getInstance().setTurboMode(turbo);
                boolean done = code.simulate(maxSteps);
                if (!done) {
                   out.println("\nProgram terminated when maximum step limit "+maxSteps+" reached.");
                }
+               if (checkpointFile != null) {
+                  SimulationContext.getDefault().saveCheckpoint(new File(checkpointFile));
+               }
             }
             if (Globals.debug) {
                out.println("\n--------  ALL PROCESSING COMPLETE  -----------");
@@ -529,9 +620,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                out.println(e.errors().generateErrorAndWarningReport());
                out.println("Processing terminated due to errors.");
             } 
+            catch (IOException e) {
+               Globals.exitCode = simulateErrorExitCode;
+               out.println("Checkpoint error: "+e.getMessage());
+               out.println("Processing terminated due to errors.");
+            } 
+         if (programRan && pageAccessFile != null) {
+            writePageAccessCounts();
+         }
          return programRan;
       }
    
+   	//////////////////////////////////////////////////////////////////////
+      // Writes the page access counts of the run as CSV.  See "heat" option.
+   	
+      private void writePageAccessCounts() {
+         PageAccessCounts counts = Globals.memory.getPageAccessCounts();
+         if (pageAccessFile.equals("-")) {
+            out.println();
+            counts.writeCsv(out);
+            return;
+         }
+         try {
+            PrintStream file = new PrintStream(new FileOutputStream(pageAccessFile));
+            counts.writeCsv(file);
+            file.close();
+         } 
+            catch (IOException e) {
+               out.println("Error writing page access counts to "+pageAccessFile+": "+e.getMessage());
+            }
+      }
+   
    
    	//////////////////////////////////////////////////////////////////////
       // Check for memory address subrange.  Has to be two integers separated
@@ -558,45 +677,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return memoryRange;
       }
    
-      /////////////////////////////////////////////////////////////////
-   	// Required for counting instructions executed, if that option is specified.
-   	// DPS 19 July 2012
-      private void establishObserver() { 
-         if (countInstructions) {
-            Observer instructionCounter = 
-               new Observer() {
-                  private int lastAddress = 0;
-                  public void update(Observable o, Object obj) { 
-                     if (obj instanceof AccessNotice) {
-                        AccessNotice notice = (AccessNotice) obj;
-                        if (!notice.accessIsFromMIPS()) 
-                           return;
-                        if (notice.getAccessType() != AccessNotice.READ) 
-                           return;
-                        MemoryAccessNotice m = (MemoryAccessNotice) notice;
-                        int a = m.getAddress();
-                        if (a == lastAddress) 
-                           return;
-                        lastAddress = a;
-                        instructionCount++;				  
-                     }
-                  }
-               };
-            try {
-               Globals.memory.addObserver(instructionCounter, Memory.textBaseAddress, Memory.textLimitAddress);
-            } 
-               catch (AddressErrorException aee) {
-                  out.println("Internal error: MarsLaunch uses incorrect text segment address for instruction observer");
-               }
-         }		
-      }
-   	     		   	
    	//////////////////////////////////////////////////////////////////////
    	// Displays any specified runtime properties. Initially just instruction count 
    	// DPS 19 July 2012  	
       private void displayMiscellaneousPostMortem() {
          if (countInstructions) {
-            out.println("\n"+instructionCount);
+            out.println("\n"+Simulator.getInstance().getInstructionsExecuted());
          }
       }
    
@@ -789,9 +875,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("Usage:  Mars  [options] filename [additional filenames]");
          out.println("  Valid options (not case sensitive, separate by spaces) are:");
          out.println("      a  -- assemble only, do not simulate");
+         out.println("     ac <directory>  -- save assembled programs in <directory>, and load a program");
+         out.println("            from there instead of assembling it again if it has not changed.");
          out.println("  ae<n>  -- terminate MARS with integer exit code <n> if an assemble error occurs.");
          out.println("  ascii  -- display memory or register contents interpreted as ASCII codes.");
          out.println("      b  -- brief - do not display register/memory address along with contents");
+         out.println("   ckpt <file>  -- save complete machine state to checkpoint file at end of run.");
+         out.println("            Use with a step limit <n> to stop a long simulation and 'resume' it later.");
          out.println("      d  -- display MARS debugging statements");
          out.println("     db  -- MIPS delayed branching is enabled");
          out.println("    dec  -- display memory or register contents in decimal.");
@@ -802,13 +892,22 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("            <segment> = "+segments);
          out.println("            <format> = "+formats);
          out.println("      h  -- display this help.  Use by itself with no filename.");
+         out.println("   heat <file>  -- count reads, writes and instruction fetches of each 4K memory");
+         out.println("            page and write them as CSV to <file> (- for standard output) at end");
+         out.println("            of run.  Cheap enough to use with turbo.");
          out.println("    hex  -- display memory or register contents in hexadecimal (default)");
          out.println("     ic  -- display count of MIPS basic instructions 'executed'");
+         out.println("  resume <file>  -- restore machine state from checkpoint file written by 'ckpt',");
+         out.println("            then continue running.  Give the same program files as when it was saved.");
+         out.println("     mb <backing>  -- set storage for data and stack segments: heap (Java heap),");
+         out.println("            direct (outside the Java heap) or mapped (temporary file mapped into");
+         out.println("            memory).  direct and mapped allow up to 256 MB per segment.");
          out.println("     mc <config>  -- set memory configuration.  Argument <config> is");
          out.println("            case-sensitive and possible values are: Default for the default");
          out.println("            32-bit address space, CompactDataAtZero for a 32KB memory with");
-         out.println("            data segment at address 0, or CompactTextAtZero for a 32KB");
-         out.println("            memory with text segment at address 0.");
+         out.println("            data segment at address 0, CompactTextAtZero for a 32KB");
+         out.println("            memory with text segment at address 0, or Sparse for the default");
+         out.println("            layout with every address outside the text segments usable.");
          out.println("     me  -- display MARS messages to standard err instead of standard out. ");
          out.println("            Can separate messages from program output using redirection");
          out.println("     nc  -- do not display copyright notice (for cleaner redirected/piped output).");
@@ -817,6 +916,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("  se<n>  -- terminate MARS with integer exit code <n> if a simulation (run) error occurs.");
          out.println("     sm  -- start execution at statement with global label main, if defined");
          out.println("    smc  -- Self Modifying Code - Program can write and branch to either text or data segment");
+         out.println("  turbo  -- simulate as fast as possible: no per-instruction locking, observer");
+         out.println("            notices or back-step bookkeeping.  Tools are not notified of");
+         out.println("            instruction fetches; 'ic' still reports the instruction count.");
          out.println("    <n>  -- where <n> is an integer maximum count of steps to simulate.");
          out.println("            If 0, negative or not specified, there is no maximum.");
          out.println(" $<reg>  -- where <reg> is number or name (e.g. 5, t3, f10) of register whose ");
@@ -831,6 +933,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          out.println("            option must be placed AFTER ALL FILE NAMES, because everything");
          out.println("            that follows it is interpreted as a program argument to be");
          out.println("            made available to the MIPS program at runtime.");
+         out.println("To run many programs against many inputs and report results as JSON, use");
+         out.println("   Mars batch <manifest> [workers <n>] [steps <n>]");
+         out.println("See mars.MarsBatch for the manifest format.");
          out.println("If more than one filename is listed, the first is assumed to be the main");
          out.println("unless the global statement label 'main' is defined in one of the files.");
          out.println("Exception handler not automatically assembled.  Add it to the file list.");
@@ -4,6 +4,7 @@
    import mars.mips.hardware.*;
    import mars.util.*;
    import java.util.*;
+   import java.io.*;
 
 /*
 Copyright (c) 2003-2013,  Pete Sanderson and Kenneth Vollmar
@@ -37,6 +38,13 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  * Represents one assembly/machine statement.  This represents the "bare machine" level.
  * Pseudo-instructions have already been processed at this point and each assembly 
  * statement generated by them is one of these.
+ * <p>
+ * Once a program is assembled its statements only need the instruction, operands and
+ * binary code to execute.  releaseAssemblyData() drops the token lists and binary string 
+ * used while assembling, which are re-created from the source and basic statement if
+ * requested later, and the basic statement is kept in a compact form that the display
+ * strings are generated from.  Statements built from binary code only (self-modifying code,
+ * checkpoints) generate their basic statement from the binary code when it is displayed.
  * 
  * @author Pete Sanderson and Jason Bumgarner 
  * @version August 2003
@@ -47,7 +55,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private MIPSprogram sourceMIPSprogram;
       private String source, basicAssemblyStatement, machineStatement;
       private TokenList originalTokenList, strippedTokenList;
-      private BasicStatementList basicStatementList;
+      private BasicStatementList basicStatementList; // null if built from binary code
       private int[] operands;
       private int numOperands;
       private Instruction instruction;
@@ -55,7 +63,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private int sourceLine;
       private int binaryStatement;
       private boolean altered;
+      private boolean released; // true after releaseAssemblyData()
       private static final String invalidOperator = "<INVALID>";
+      private static final int[] noOperands = new int[0];
     
     //////////////////////////////////////////////////////////////////////////////////
     /**
@@ -88,6 +98,66 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       }
    
    
+    //////////////////////////////////////////////////////////////////////////////////
+    /**
+     * Constructor for ProgramStatement used to read an assembled statement written by
+     * writeAssembled(), as by the assembly cache (see mars.assembler.AssemblyCache).
+     * @param in Source of the statement data.
+     * @param sourceMIPSprogram The MIPSprogram object that contains this statement.
+     * @param inst The Instruction object for this statement's operator.
+     * @throws IOException If the data cannot be read.
+     **/
+       public ProgramStatement(ChannelInput in, MIPSprogram sourceMIPSprogram, Instruction inst) throws IOException {
+         this.sourceMIPSprogram = sourceMIPSprogram;
+         this.instruction = inst;
+         this.source = in.readString();
+         this.sourceLine = in.readInt();
+         this.textAddress = in.readInt();
+         this.binaryStatement = in.readInt();
+         this.operands = in.readInts();
+         this.numOperands = operands.length;
+         if (numOperands == 0) {
+            this.operands = noOperands;
+         }
+         this.basicAssemblyStatement = in.readString();
+         String text = in.readString();
+         if (text != null) {
+            this.basicStatementList = new BasicStatementList();
+            basicStatementList.text = text;
+            basicStatementList.numbers = in.readInts();
+            basicStatementList.count = basicStatementList.numbers.length;
+            basicStatementList.addresses = in.readInt();
+            basicStatementList.trim();
+         }
+         this.altered = false;
+         this.released = true;
+      }
+   
+    /**
+     * Writes this statement, once assembled, for the constructor that reads it back.
+     * Its MIPSprogram and Instruction are not written.
+     * @param out Destination of the statement data.
+     * @throws IOException If the data cannot be written.
+     **/
+       public void writeAssembled(ChannelOutput out) throws IOException {
+         out.writeString(source);
+         out.writeInt(sourceLine);
+         out.writeInt(textAddress);
+         out.writeInt(binaryStatement);
+         out.writeInt(numOperands);
+         out.writeInts(operands, 0, numOperands);
+         out.writeString(basicAssemblyStatement);
+         if (basicStatementList == null) {
+            out.writeString(null);
+         }
+         else {
+            out.writeString(basicStatementList.text);
+            out.writeInt(basicStatementList.count);
+            out.writeInts(basicStatementList.numbers, 0, basicStatementList.count);
+            out.writeInt(basicStatementList.addresses);
+         }
+      }
+   
     //////////////////////////////////////////////////////////////////////////////////
     /**
      * Constructor for ProgramStatement used only for writing a binary machine 
@@ -143,7 +213,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             this.numOperands = numOps;
          }
          this.altered = false;
-         this.basicStatementList = buildBasicStatementListFromBinaryCode(binaryStatement, instr, operands, numOperands);
+         this.basicStatementList = null; // generated when displayed
       }
    	
    
@@ -157,7 +227,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void buildBasicStatementFromBasicInstruction(ErrorList errors) {
          Token token = strippedTokenList.get(0);
          String basicStatementElement = token.getValue()+" ";;
-         String basic = basicStatementElement;
          basicStatementList.addString(basicStatementElement); // the operator
          TokenTypes tokenType, nextTokenType;
          String tokenValue;
@@ -169,7 +238,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             tokenValue = token.getValue();
             if (tokenType == TokenTypes.REGISTER_NUMBER) {
                basicStatementElement = tokenValue;
-               basic += basicStatementElement;
                basicStatementList.addString(basicStatementElement);
                try {
                   registerNumber = RegisterFile.getUserRegister(tokenValue).getNumber();
@@ -184,7 +252,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             else if (tokenType == TokenTypes.REGISTER_NAME) {
                registerNumber = RegisterFile.getNumber(tokenValue);
                basicStatementElement = "$" + registerNumber;
-               basic += basicStatementElement;
                basicStatementList.addString(basicStatementElement);
                if (registerNumber < 0) {
                     // should never happen; should be caught before now...
@@ -196,7 +263,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             else if (tokenType == TokenTypes.FP_REGISTER_NAME) {
                registerNumber = Coprocessor1.getRegisterNumber(tokenValue);
                basicStatementElement = "$f" + registerNumber;
-               basic += basicStatementElement;
                basicStatementList.addString(basicStatementElement);
                if (registerNumber < 0) {
                     // should never happen; should be caught before now...
@@ -240,7 +306,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   }
                }
             	 //////////////////////////////////////////////////////////////////////
-               basic += address;
                if (absoluteAddress) { // record as address if absolute, value if relative
                   basicStatementList.addAddress(address);
                } 
@@ -295,14 +360,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             *        }
             **************************  END DPS 3-July-2008 COMMENTS *******************************/
             
-               basic += tempNumeric;
                basicStatementList.addValue(tempNumeric);  
                this.operands[this.numOperands++] = tempNumeric;
                 ///// End modification 1/7/05 KENV   ///////////////////////////////////////////
             } 
             else {
                basicStatementElement = tokenValue;
-               basic += basicStatementElement;
                basicStatementList.addString(basicStatementElement);
             }
             // add separator if not at end of token list AND neither current nor 
@@ -313,12 +376,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                    nextTokenType != TokenTypes.LEFT_PAREN && nextTokenType != TokenTypes.RIGHT_PAREN)
                {
                   basicStatementElement = ",";
-                  basic += basicStatementElement;
                   basicStatementList.addString(basicStatementElement);
                }
             }
          }
-         this.basicAssemblyStatement = basic;
+         basicStatementList.trim();
       } //buildBasicStatementFromBasicInstruction()
     
     
@@ -382,10 +444,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
         // a crude attempt at string formatting.  Where's C when you need it?
          String blanks = "                               ";
          String result = "["+this.textAddress+"]";
-         if (this.basicAssemblyStatement != null) {
-            int firstSpace = this.basicAssemblyStatement.indexOf(" ");
-            result += blanks.substring(0, 16-result.length()) + this.basicAssemblyStatement.substring(0,firstSpace);
-            result += blanks.substring(0, 24-result.length()) + this.basicAssemblyStatement.substring(firstSpace+1);;
+         String basicAssemblyStatement = getBasicAssemblyStatement();
+         String machineStatement = getMachineStatement();
+         if (basicAssemblyStatement != null) {
+            int firstSpace = basicAssemblyStatement.indexOf(" ");
+            result += blanks.substring(0, 16-result.length()) + basicAssemblyStatement.substring(0,firstSpace);
+            result += blanks.substring(0, 24-result.length()) + basicAssemblyStatement.substring(firstSpace+1);;
          } 
          else {
             result += blanks.substring(0, 16 - result.length()) + "0x" + Integer.toString(this.binaryStatement, 16);
@@ -396,15 +460,33 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             // result += operands[i] + " ";
                result += Integer.toString(operands[i], 16) + " ";
          }
-         if (this.machineStatement != null) {
-            result += "["+Binary.binaryStringToHexString(this.machineStatement)+"]";
-            result += "  "+this.machineStatement.substring(0,6)+"|" + this.machineStatement.substring(6,11)+"|"+
-               this.machineStatement.substring(11,16)+"|" + this.machineStatement.substring(16,21)+"|"+
-               this.machineStatement.substring(21,26)+"|" + this.machineStatement.substring(26,32);
+         if (machineStatement != null) {
+            result += "["+Binary.binaryStringToHexString(machineStatement)+"]";
+            result += "  "+machineStatement.substring(0,6)+"|" + machineStatement.substring(6,11)+"|"+
+               machineStatement.substring(11,16)+"|" + machineStatement.substring(16,21)+"|"+
+               machineStatement.substring(21,26)+"|" + machineStatement.substring(26,32);
          }
          return result;
       } // toString()
    
+    /**
+     * Releases the data only needed while assembling this statement, once its binary machine
+     * code has been built: the token lists and the binary string, which are re-created if 
+     * requested afterwards, and unused operand array space.  Called by the assembler for each
+     * statement of an assembled program, since it may be kept in memory for a long time.
+     **/
+     
+       public void releaseAssemblyData() {
+         originalTokenList = strippedTokenList = null;
+         machineStatement = null;
+         if (operands != null && operands.length != numOperands) {
+            int[] used = (numOperands == 0) ? noOperands : new int[numOperands];
+            System.arraycopy(operands, 0, used, 0, numOperands);
+            operands = used;
+         }
+         released = true;
+      }
+   
     /**
      * Assigns given String to be Basic Assembly statement equivalent to this source line.
      * @param statement A String containing equivalent Basic Assembly statement.
@@ -488,7 +570,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      **/
      
        public String getBasicAssemblyStatement() {
-         return basicAssemblyStatement;
+         if (basicAssemblyStatement != null || basicStatementList == null) {
+            return basicAssemblyStatement;
+         }
+         return basicStatementList.toBasicString();
       }
     
     /**
@@ -499,6 +584,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      * @return The Basic Assembly statement.
      **/   
        public String getPrintableBasicAssemblyStatement() {
+         if (basicStatementList == null) {
+            BasicInstruction instr = Globals.instructionSet.findByBinaryCode(binaryStatement);
+            return buildBasicStatementListFromBinaryCode(binaryStatement, instr, operands, numOperands).toString();
+         }
          return basicStatementList.toString();
       }
    	 
@@ -508,6 +597,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
      **/
      
        public String getMachineStatement() {
+         if (machineStatement == null && released) {
+            return Binary.intToBinaryString(binaryStatement);
+         }
          return machineStatement;
       }
     
@@ -519,18 +611,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return binaryStatement;
       }
     /**
-     * Produces token list generated from original source statement.
+     * Produces token list generated from original source statement.  After releaseAssemblyData()
+     * it is re-created by tokenizing the source statement.
      * @return The TokenList of Token objects generated from original source.
      **/
        public TokenList getOriginalTokenList() {
+         if (originalTokenList == null && released) {
+            originalTokenList = (source.length() == 0) ? getStrippedTokenList() 
+                               : new Tokenizer(sourceMIPSprogram).tokenizeLine(sourceMIPSprogram, sourceLine, source, false);
+         }
          return originalTokenList;
       }
     /**
-     * Produces token list stripped of all but operator and operand tokens.
+     * Produces token list stripped of all but operator and operand tokens.  After
+     * releaseAssemblyData() it is re-created by tokenizing the basic assembly statement.
      * @return The TokenList of Token objects generated by stripping original list of all
      * except operator and operand tokens.
      **/
        public TokenList getStrippedTokenList() {
+         if (strippedTokenList == null && released) {
+            strippedTokenList = new Tokenizer(sourceMIPSprogram).tokenizeLine(sourceMIPSprogram, sourceLine, getBasicAssemblyStatement(), false);
+         }
          return strippedTokenList;
       }
     /**
@@ -666,65 +767,90 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 //  are relative to the PC.
    	 //
    	 //  DPS 29-July-2010
+   	 //
+   	 //  Stored compactly since every assembled statement keeps one:
+   	 //  the strings are concatenated into one text, with a NUMBER
+   	 //  character marking where each address or value goes, and
+   	 //  equal texts are shared between statements.
    	 
-       private class BasicStatementList {
+       private static class BasicStatementList {
+         private static final char NUMBER = '\0';
       
-         private ArrayList list;
+         private String text;
+         private int[] numbers;
+         private int count;
+         private int addresses; // bit i set if number i is an address
       
           BasicStatementList() {
-            list = new ArrayList();
+            text = "";
+            numbers = noOperands;
          }
       
           void addString(String string) {
-            list.add(new ListElement(0, string, 0));
+            text += string;
          }
       
           void addAddress(int address) {
-            list.add(new ListElement(1, null, address));
+            addresses |= 1 << count;
+            addNumber(address);
          }
       
           void addValue(int value) {
-            list.add(new ListElement(2, null, value));
+            addNumber(value);
+         }
+      
+          private void addNumber(int number) {
+            if (count == numbers.length) {
+               int[] newNumbers = new int[count + 4];
+               System.arraycopy(numbers, 0, newNumbers, 0, count);
+               numbers = newNumbers;
+            }
+            numbers[count++] = number;
+            text += NUMBER;
+         }
+      
+         // Drops unused space, once the list is complete.
+          void trim() {
+            text = text.intern();
+            if (numbers.length != count) {
+               int[] newNumbers = (count == 0) ? noOperands : new int[count];
+               System.arraycopy(numbers, 0, newNumbers, 0, count);
+               numbers = newNumbers;
+            }
          }
       
           public String toString() {
             int addressBase =  (Globals.getSettings().getBooleanSetting(Settings.DISPLAY_ADDRESSES_IN_HEX)) ? mars.venus.NumberDisplayBaseChooser.HEXADECIMAL : mars.venus.NumberDisplayBaseChooser.DECIMAL;
             int valueBase =  (Globals.getSettings().getBooleanSetting(Settings.DISPLAY_VALUES_IN_HEX)) ? mars.venus.NumberDisplayBaseChooser.HEXADECIMAL : mars.venus.NumberDisplayBaseChooser.DECIMAL;
-         	
+            return render(addressBase, valueBase);
+         }
+      
+         // The basic assembly statement, with all numbers in decimal.
+          String toBasicString() {
+            int decimal = mars.venus.NumberDisplayBaseChooser.DECIMAL;
+            return render(decimal, decimal);
+         }
+      
+          private String render(int addressBase, int valueBase) {
             StringBuffer result = new StringBuffer();
-            for (int i=0; i<list.size(); i++) {
-               ListElement e = (ListElement) list.get(i);
-               switch (e.type) {
-                  case 0 :  
-                     result.append(e.sValue);
-                     break;
-                  case 1 :  
-                     result.append(mars.venus.NumberDisplayBaseChooser.formatNumber(e.iValue, addressBase));
-                     break;
-                  case 2 :  
-                     if (valueBase == mars.venus.NumberDisplayBaseChooser.HEXADECIMAL) {
-                        result.append(mars.util.Binary.intToHexString(e.iValue)); // 13-July-2011, was: intToHalfHexString()
-                     } 
-                     else {
-                        result.append(mars.venus.NumberDisplayBaseChooser.formatNumber(e.iValue, valueBase));
-                     }
-                  default:  
-                     break;
+            int number = 0;
+            for (int i=0; i<text.length(); i++) {
+               char c = text.charAt(i);
+               if (c != NUMBER) {
+                  result.append(c);
+               }
+               else if ((addresses & (1 << number)) != 0) {
+                  result.append(mars.venus.NumberDisplayBaseChooser.formatNumber(numbers[number++], addressBase));
                } 
+               else if (valueBase == mars.venus.NumberDisplayBaseChooser.HEXADECIMAL) {
+                  result.append(mars.util.Binary.intToHexString(numbers[number++])); // 13-July-2011, was: intToHalfHexString()
+               } 
+               else {
+                  result.append(mars.venus.NumberDisplayBaseChooser.formatNumber(numbers[number++], valueBase));
+               }
             }
             return result.toString();
          }
-      	
-          private class ListElement {
-            int type;
-            String sValue;
-            int iValue;
-             ListElement(int type, String sValue, int iValue) {
-               this.type = type;
-               this.sValue = sValue;
-               this.iValue = iValue;
-            }
-         }
       }
    
    }
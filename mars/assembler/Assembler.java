@@ -191,10 +191,20 @@
          externAddress = Memory.externBaseAddress;
          currentFileDataSegmentForwardReferences = new DataSegmentForwardReferences();
          accumulatedDataSegmentForwardReferences = new DataSegmentForwardReferences();
+         this.errors = new ErrorList(); 
+      // An unchanged program may have been assembled before.
+         AssemblyCache cache = AssemblyCache.forPrograms(tokenizedProgramFiles,
+            extendedAssemblerEnabled, warningsAreErrors);
+         if (cache != null) {
+            this.machineList = cache.load(this.errors);
+            if (this.machineList != null) {
+               SystemIO.resetFiles();
+               return this.machineList;
+            }
+         }
          Globals.symbolTable.clear();
          Globals.memory.clear();
          this.machineList = new ArrayList();
-         this.errors = new ErrorList(); 
          if (Globals.debug)
             System.out.println("Assembler first pass begins:");
       // PROCESS THE FIRST ASSEMBLY PASS FOR ALL SOURCE FILES BEFORE PROCEEDING
@@ -324,22 +334,17 @@
                      basicAssembly, errors, false);
                
                // ////////////////////////////////////////////////////////////////////////////
-               // If we are using compact memory config and there is a compact expansion, use it
-                  ArrayList templateList;
-                  if (compactTranslationCanBeApplied(statement)) {
-                     templateList = inst.getCompactBasicIntructionTemplateList();
-                  } 
-                  else {
-                     templateList = inst.getBasicIntructionTemplateList();
-                  }
+               // If we are using compact memory config and there is a compact expansion, use it.
+               // The instruction remembers its translations, so only statements it has not
+               // translated before (e.g. since the last edit) are substituted again.
+                  String[] instructions = inst.translate(this.fileCurrentlyBeingAssembled,
+                     theTokenList, compactTranslationCanBeApplied(statement));
                
                // subsequent ProgramStatement constructor needs the correct text segment address.
                   textAddress.set(statement.getAddress());
                // Will generate one basic instruction for each template in the list.
-                  for (int instrNumber = 0; instrNumber < templateList.size(); instrNumber++) {
-                     String instruction = ExtendedInstruction.makeTemplateSubstitutions(
-                        this.fileCurrentlyBeingAssembled,
-                        (String) templateList.get(instrNumber), theTokenList);
+                  for (int instrNumber = 0; instrNumber < instructions.length; instrNumber++) {
+                     String instruction = instructions[instrNumber];
                   // 23 Jan 2008 by DPS. Template substitution may result in no instruction.
                   // If this is the case, skip remainder of loop iteration. This should only
                   // happen if template substitution was for "nop" instruction but delayed branching
@@ -412,6 +417,21 @@
          if (errors.errorsOccurred() || errors.warningsOccurred() && warningsAreErrors) {
             throw new ProcessingException(errors);
          }
+      // The assembled statements stay in memory as long as the program does, so drop
+      // what was only needed to assemble them.  Statements of pseudo-instructions are
+      // still in each file's parsed list.
+         for (int i = 0; i < this.machineList.size(); i++) {
+            ((ProgramStatement) this.machineList.get(i)).releaseAssemblyData();
+         }
+         if (cache != null) {
+            cache.save(this.machineList, errors);
+         }
+         for (int fileIndex = 0; fileIndex < tokenizedProgramFiles.size(); fileIndex++) {
+            ArrayList parsedList = ((MIPSprogram) tokenizedProgramFiles.get(fileIndex)).getParsedList();
+            for (int i = 0; i < parsedList.size(); i++) {
+               ((ProgramStatement) parsedList.get(i)).releaseAssemblyData();
+            }
+         }
          return this.machineList;
       } // assemble()
    
@@ -1202,6 +1222,8 @@
             else {
                String quote = token.getValue();
                char theChar;
+               byte[] bytes = new byte[quote.length()]; // room for the characters and null
+               int length = 0;
                for (int j = 1; j < quote.length() - 1; j++) {
                   theChar = quote.charAt(j);
                   if (theChar == '\\') {
@@ -1241,28 +1263,21 @@
                      // codes...
                      }
                   }
-                  try {
-                     Globals.memory.set(this.dataAddress.get(), (int) theChar,
-                        DataTypes.CHAR_SIZE);
-                  } 
-                     catch (AddressErrorException e) {
-                        errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
-                           .getSourceLine(), token.getStartPos(), "\""
-                           + this.dataAddress.get() + "\" is not a valid data segment address"));
-                     }
-                  this.dataAddress.increment(DataTypes.CHAR_SIZE);
+                  bytes[length++] = (byte) theChar;
                }
                if (direct == Directives.ASCIIZ) {
-                  try {
-                     Globals.memory.set(this.dataAddress.get(), 0, DataTypes.CHAR_SIZE);
-                  } 
-                     catch (AddressErrorException e) {
-                        errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
-                           .getSourceLine(), token.getStartPos(), "\""
-                           + this.dataAddress.get() + "\" is not a valid data segment address"));
-                     }
-                  this.dataAddress.increment(DataTypes.CHAR_SIZE);
+                  bytes[length++] = 0;
                }
+               // The whole string is stored with one call; an invalid address is reported once.
+               try {
+                  Globals.memory.writeBytes(this.dataAddress.get(), bytes, 0, length);
+               } 
+                  catch (AddressErrorException e) {
+                     errors.add(new ErrorMessage(token.getSourceMIPSprogram(), token
+                        .getSourceLine(), token.getStartPos(), "\""
+                        + e.getAddress() + "\" is not a valid data segment address"));
+                  }
+               this.dataAddress.increment(length * DataTypes.CHAR_SIZE);
             }
          }
       } // storeStrings()
@@ -0,0 +1,386 @@
+   package mars.assembler;
+   import mars.*;
+   import mars.util.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import java.io.*;
+   import java.security.*;
+   import java.util.*;
+
+/**
+ * Directory of assembled programs, so that assembling an unchanged program again can
+ * load the result instead of redoing it.  The Assembler uses it while a directory is set
+ * (see setDirectory(); the default is given by the AssemblyCache property), which saves
+ * time when the same programs are assembled over and over, for instance when a set of
+ * submissions is run against several test suites.
+ * <p>
+ * Each file holds one assembly: its warnings, the global and local symbol tables, the
+ * machine statements and the initial memory contents in the checkpoint format of Memory.
+ * It is named by a hash of everything the result depends on: the source lines of the
+ * files assembled (included files too, as the tokenizer has merged them in), their names,
+ * the instruction set, which includes any enabled CustomAssembly instructions, the memory
+ * configuration, and the settings used by the assembler.  A file is only used if its
+ * hash matches, so changing any of these simply makes a new file.  Only assemblies without
+ * errors are saved, and old files are never removed; delete the directory to clear it.
+ */
+
+    public class AssemblyCache {
+      private static final long MAGIC = 0x4D41525341534D01L; // "MARSASM" and format version 1
+      private static final String SUFFIX = ".asmcache";
+
+      private static File directory = getDirectory(Globals.assemblyCacheDirectory);
+
+      private final ArrayList programs;
+      private final String key;
+      private final File file;
+
+       private AssemblyCache(ArrayList programs, String key) {
+         this.programs = programs;
+         this.key = key;
+         this.file = new File(directory, key + SUFFIX);
+      }
+
+   	/**
+   	 * Set the directory of the cache, used by assemblies from then on.
+   	 * @param name name of the directory, created when first needed; null or empty
+   	 * to stop caching
+   	 */
+       public static void setDirectory(String name) {
+         directory = getDirectory(name);
+      }
+
+   	/**
+   	 * Returns the directory of the cache.
+   	 * @return the directory, or null if assemblies are not cached
+   	 */
+       public static File getDirectory() {
+         return directory;
+      }
+
+       private static File getDirectory(String name) {
+         return (name == null || name.trim().length() == 0) ? null : new File(name.trim());
+      }
+
+   	/**
+   	 * Returns the cache entry for assembling the given programs with the current instruction
+   	 * set, memory configuration and settings.
+   	 * @param programs the tokenized programs, in the order they are to be assembled
+   	 * @param extendedAssemblerEnabled true if pseudo-instructions are permitted
+   	 * @param warningsAreErrors true if warnings make the assembly fail
+   	 * @return the entry, or null if assemblies are not cached
+   	 */
+       static AssemblyCache forPrograms(ArrayList programs, boolean extendedAssemblerEnabled,
+              boolean warningsAreErrors) {
+         if (directory == null) {
+            return null;
+         }
+         KeyDigest digest;
+         try {
+            digest = new KeyDigest();
+         }
+             catch (NoSuchAlgorithmException e) {
+               return null;
+            }
+         digest.update((int) (MAGIC >> 32));
+         digest.update((int) MAGIC);
+         digest.update(Globals.version);
+         digest.update(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+         digest.update(Globals.getSettings().getDelayedBranchingEnabled() ? 1 : 0);
+         digest.update(Globals.getSettings().getBareMachineEnabled() ? 1 : 0);
+         digest.update(extendedAssemblerEnabled ? 1 : 0);
+         digest.update(warningsAreErrors ? 1 : 0);
+         ArrayList instructions = Globals.instructionSet.getInstructionList();
+         digest.update(instructions.size());
+         for (int i = 0; i < instructions.size(); i++) {
+            Instruction instruction = (Instruction) instructions.get(i);
+            digest.update(instruction.getName());
+            digest.update(instruction.getExampleFormat());
+            if (instruction instanceof BasicInstruction) {
+               digest.update(((BasicInstruction) instruction).getOperationMask());
+            }
+            else {
+               digest.update(((ExtendedInstruction) instruction).getBasicIntructionTemplateList());
+               digest.update(((ExtendedInstruction) instruction).getCompactBasicIntructionTemplateList());
+            }
+         }
+         digest.update(programs.size());
+         for (int i = 0; i < programs.size(); i++) {
+            MIPSprogram program = (MIPSprogram) programs.get(i);
+            digest.update(program.getFilename());
+            ArrayList<SourceLine> lines = program.getSourceLineList();
+            digest.update(lines.size());
+            // Where each line comes from only needs hashing where it does not simply
+         	// follow the one before, as at the start and end of an included file.
+            SourceLine previous = null;
+            for (int j = 0; j < lines.size(); j++) {
+               SourceLine line = lines.get(j);
+               if (previous != null && line.getMIPSprogram() == previous.getMIPSprogram()
+                     && line.getLineNumber() == previous.getLineNumber() + 1) {
+                  digest.update(0);
+               }
+               else {
+                  digest.update(1);
+                  digest.update(line.getFilename());
+                  digest.update(line.getLineNumber());
+               }
+               digest.update(line.getSource());
+               previous = line;
+            }
+         }
+         return new AssemblyCache(programs, digest.toHexString());
+      }
+
+      // SHA-256 digest of ints and strings, buffered since source lines are hashed one at a
+   	// time.  Strings are hashed with their length so that the boundaries between them count.
+       private static class KeyDigest {
+         private final MessageDigest digest;
+         private final byte[] buffer = new byte[8192];
+         private int count;
+
+          KeyDigest() throws NoSuchAlgorithmException {
+            digest = MessageDigest.getInstance("SHA-256");
+         }
+
+          void update(int value) {
+            if (count + 4 > buffer.length) {
+               flush();
+            }
+            buffer[count++] = (byte) (value >> 24);
+            buffer[count++] = (byte) (value >> 16);
+            buffer[count++] = (byte) (value >> 8);
+            buffer[count++] = (byte) value;
+         }
+
+          void update(String value) {
+            if (value == null) {
+               update(-1);
+               return;
+            }
+            byte[] bytes;
+            try {
+               bytes = value.getBytes("UTF-8");
+            }
+                catch (UnsupportedEncodingException e) {
+                  throw new IllegalStateException(e.getMessage());
+               }
+            update(bytes.length);
+            if (count + bytes.length > buffer.length) {
+               flush();
+            }
+            if (bytes.length > buffer.length) {
+               digest.update(bytes);
+            }
+            else {
+               System.arraycopy(bytes, 0, buffer, count, bytes.length);
+               count += bytes.length;
+            }
+         }
+
+          void update(ArrayList values) {
+            if (values == null) {
+               update(-1);
+               return;
+            }
+            update(values.size());
+            for (int i = 0; i < values.size(); i++) {
+               update((String) values.get(i));
+            }
+         }
+
+          private void flush() {
+            digest.update(buffer, 0, count);
+            count = 0;
+         }
+
+          String toHexString() {
+            flush();
+            byte[] hash = digest.digest();
+            StringBuffer hex = new StringBuffer();
+            for (int i = 0; i < hash.length; i++) {
+               hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+            }
+            return hex.toString();
+         }
+      }
+
+   	/**
+   	 * Loads the assembly saved for these programs, if there is one: memory gets its
+   	 * statements and data, and the global and local symbol tables its symbols.
+   	 * @param warnings list to which the warnings of the assembly are added
+   	 * @return the machine statements in address order, or null if none were saved or
+   	 * they cannot be read.  Memory may then have been changed.
+   	 */
+       ArrayList load(ErrorList warnings) {
+         if (!file.isFile()) {
+            return null;
+         }
+         ArrayList instructions = Globals.instructionSet.getInstructionList();
+         FileInputStream stream = null;
+         try {
+            stream = new FileInputStream(file);
+            ChannelInput in = new ChannelInput(stream.getChannel());
+            if (in.readLong() != MAGIC || !key.equals(in.readString())) {
+               return null;
+            }
+            ArrayList messages = new ArrayList();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+               messages.add(new ErrorMessage(ErrorMessage.WARNING, in.readString(), in.readInt(),
+                  in.readInt(), in.readString(), in.readString()));
+            }
+            ArrayList globalSymbols = readSymbols(in);
+            ArrayList[] localSymbols = new ArrayList[programs.size()];
+            for (int i = 0; i < localSymbols.length; i++) {
+               localSymbols[i] = readSymbols(in);
+            }
+            count = in.readInt();
+            ArrayList machineList = new ArrayList(count);
+            for (int i = 0; i < count; i++) {
+               int program = in.readInt();
+               int instruction = in.readInt();
+               if (program < 0 || program >= programs.size() || instruction < 0 || instruction >= instructions.size()) {
+                  return null;
+               }
+               machineList.add(new ProgramStatement(in, (MIPSprogram) programs.get(program),
+                  (Instruction) instructions.get(instruction)));
+            }
+            // Memory keeps the statements already in the text segment when reading the
+         	// checkpoint, so store these first and it will not decode the binary code again.
+            Globals.memory.clear();
+            for (int i = 0; i < machineList.size(); i++) {
+               ProgramStatement statement = (ProgramStatement) machineList.get(i);
+               Globals.memory.setStatement(statement.getAddress(), statement);
+            }
+            Globals.memory.readCheckpoint(in);
+            Globals.symbolTable.clear();
+            addSymbols(Globals.symbolTable, globalSymbols);
+            for (int i = 0; i < localSymbols.length; i++) {
+               SymbolTable table = ((MIPSprogram) programs.get(i)).getLocalSymbolTable();
+               table.clear();
+               addSymbols(table, localSymbols[i]);
+            }
+            for (int i = 0; i < messages.size(); i++) {
+               warnings.add((ErrorMessage) messages.get(i));
+            }
+            return machineList;
+         }
+             catch (IOException e) {
+               return null;
+            }
+             catch (AddressErrorException e) {
+               return null;
+            }
+         finally {
+            close(stream);
+         }
+      }
+
+   	/**
+   	 * Saves an assembly of these programs.  It is not an error if the assembly cannot
+   	 * be saved; the directory is created if needed.
+   	 * @param machineList the machine statements in address order
+   	 * @param warnings the warnings of the assembly, which had no errors
+   	 */
+       void save(ArrayList machineList, ErrorList warnings) {
+         HashMap programIndex = new HashMap();
+         for (int i = 0; i < programs.size(); i++) {
+            programIndex.put(programs.get(i), new Integer(i));
+         }
+         HashMap instructionIndex = new HashMap();
+         ArrayList instructions = Globals.instructionSet.getInstructionList();
+         for (int i = 0; i < instructions.size(); i++) {
+            instructionIndex.put(instructions.get(i), new Integer(i));
+         }
+         File temporary = null;
+         FileOutputStream stream = null;
+         try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+               return;
+            }
+            // Written under another name first, so that an assembly running at the
+         	// same time never reads a partial file.
+            temporary = File.createTempFile("mars", ".tmp", directory);
+            stream = new FileOutputStream(temporary);
+            ChannelOutput out = new ChannelOutput(stream.getChannel());
+            out.writeLong(MAGIC);
+            out.writeString(key);
+            ArrayList messages = warnings.getErrorMessages();
+            out.writeInt(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+               ErrorMessage message = (ErrorMessage) messages.get(i);
+               out.writeString(message.getFilename());
+               out.writeInt(message.getLine());
+               out.writeInt(message.getPosition());
+               out.writeString(message.getMessage());
+               out.writeString(message.getMacroExpansionHistory());
+            }
+            writeSymbols(out, Globals.symbolTable);
+            for (int i = 0; i < programs.size(); i++) {
+               writeSymbols(out, ((MIPSprogram) programs.get(i)).getLocalSymbolTable());
+            }
+            out.writeInt(machineList.size());
+            for (int i = 0; i < machineList.size(); i++) {
+               ProgramStatement statement = (ProgramStatement) machineList.get(i);
+               Integer program = (Integer) programIndex.get(statement.getSourceMIPSprogram());
+               Integer instruction = (Integer) instructionIndex.get(statement.getInstruction());
+               if (program == null || instruction == null) {
+                  return;
+               }
+               out.writeInt(program.intValue());
+               out.writeInt(instruction.intValue());
+               statement.writeAssembled(out);
+            }
+            Globals.memory.writeCheckpoint(out);
+            out.flush();
+            stream.close();
+            stream = null;
+            if (temporary.renameTo(file) || (file.delete() && temporary.renameTo(file))) {
+               temporary = null;
+            }
+         }
+             catch (IOException e) {
+            }
+         finally {
+            close(stream);
+            if (temporary != null) {
+               temporary.delete();
+            }
+         }
+      }
+
+       private static void writeSymbols(ChannelOutput out, SymbolTable table) throws IOException {
+         ArrayList symbols = table.getAllSymbols();
+         out.writeInt(symbols.size());
+         for (int i = 0; i < symbols.size(); i++) {
+            Symbol symbol = (Symbol) symbols.get(i);
+            out.writeString(symbol.getName());
+            out.writeInt(symbol.getAddress());
+            out.writeInt(symbol.getType() == Symbol.DATA_SYMBOL ? 1 : 0);
+         }
+      }
+
+       private static ArrayList readSymbols(ChannelInput in) throws IOException {
+         int count = in.readInt();
+         ArrayList symbols = new ArrayList(count);
+         for (int i = 0; i < count; i++) {
+            symbols.add(new Symbol(in.readString(), in.readInt(), in.readInt() == 1));
+         }
+         return symbols;
+      }
+
+       private static void addSymbols(SymbolTable table, ArrayList symbols) {
+         for (int i = 0; i < symbols.size(); i++) {
+            table.addSymbol((Symbol) symbols.get(i));
+         }
+      }
+
+       private static void close(Closeable stream) {
+         if (stream != null) {
+            try {
+               stream.close();
+            }
+                catch (IOException e) {
+               }
+         }
+      }
+   }
@@ -0,0 +1,169 @@
+   package mars.assembler;
+   import mars.*;
+   import java.io.*;
+   import java.util.*;
+
+/**
+ * Source files read and lexed for assembly, so that a line is lexed only once as long as
+ * it does not change.  MIPSprogram.prepareFilesForAssembly() uses one cache for all the
+ * files it tokenizes, so a macro library included by many of them is read from disk and
+ * lexed only once per assembly.  The IDE keeps a cache from one assembly to the next, so
+ * that after an edit only the lines changed since the last assembly are lexed again.
+ * Files are identified by canonical path.  An included file that has changed (modification
+ * time or length) since it was cached is read again, and the files being assembled are
+ * compared line by line with the cached ones.  Either way, lines whose text is found in
+ * the cached version of the file take its tokens.
+ * <p>
+ * Lines are lexed without .eqv substitution, which depends on the including program, and
+ * the resulting tokens serve as prototypes that the Tokenizer copies for each use.
+ * Lines with lexical errors have no prototype, so that each program lexes them itself and
+ * reports the errors.  Lexing tells operators from other identifiers by looking them up in
+ * the instruction set, so entries lexed before it last changed (see
+ * InstructionSet.getGeneration()) are not used.  A cache may be used by several threads at once.
+ */
+
+    public class SourceCache {
+      private final HashMap<String,Entry> entries = new HashMap<String,Entry>();
+
+   	/**
+   	 * Create an empty cache.
+   	 */
+       public SourceCache() {
+      }
+
+   	/**
+   	 * Returns a file to be included, reading and lexing it unless it is already cached.
+   	 * The same file reached under a different name gets a program of that name but
+   	 * shares the prototype tokens.
+   	 * @param filename name of the file, as resolved from the .include directive
+   	 * @return the file's program and prototype tokens
+   	 * @throws ProcessingException if the file cannot be read
+   	 */
+       synchronized Included get(String filename) throws ProcessingException {
+         File file = new File(filename);
+         String path = getPath(file);
+         long modified = file.lastModified();
+         long length = file.length();
+         Entry entry = lookup(path);
+         Entry previous = entry;
+         if (entry != null && (entry.modified != modified || entry.length != length)) {
+            entry = null;
+         }
+         Included included = (entry == null) ? null : entry.names.get(filename);
+         if (included != null) {
+            return included;
+         }
+         MIPSprogram program = new MIPSprogram();
+         program.readSource(filename);
+         if (entry == null || !entry.source.equals(program.getSourceList())) {
+            entry = new Entry(modified, length, program.getSourceList(), previous);
+            entries.put(path, entry);
+         }
+         included = new Included(program, entry.lines);
+         entry.names.put(filename, included);
+         return included;
+      }
+
+   	/**
+   	 * Returns the prototype tokens of the lines of a file being assembled, lexing only
+   	 * the lines not found in the cached version of the file.  Lexing is done outside the
+   	 * lock, so that threads tokenizing different files do not wait for each other.
+   	 * @param filename name of the file
+   	 * @param source the lines of the file, as read for assembly
+   	 * @return for each line the prototype tokens, or null if the line has lexical errors
+   	 */
+       TokenList[] getLines(String filename, ArrayList source) {
+         File file = new File(filename);
+         String path = getPath(file);
+         Entry previous;
+         synchronized (this) {
+            previous = lookup(path);
+         }
+         if (previous != null && previous.source.equals(source)) {
+            return previous.lines;
+         }
+         Entry entry = new Entry(file.lastModified(), file.length(), source, previous);
+         synchronized (this) {
+            entries.put(path, entry);
+         }
+         return entry.lines;
+      }
+
+      // The entry for the given path, unless it was lexed with another instruction set.
+   	// Called holding the lock.
+       private Entry lookup(String path) {
+         Entry entry = entries.get(path);
+         if (entry != null && entry.generation != Globals.instructionSet.getGeneration()) {
+            entries.remove(path);
+            entry = null;
+         }
+         return entry;
+      }
+
+       private static String getPath(File file) {
+         try {
+            return file.getCanonicalPath();
+         }
+             catch (IOException e) {
+               return file.getAbsolutePath();
+            }
+      }
+
+   	/**
+   	 * A file as included under one name: the program read from it, and for each of its
+   	 * lines the prototype tokens, or null if the line has lexical errors.
+   	 */
+       static final class Included {
+         final MIPSprogram program;
+         final TokenList[] lines;
+
+          Included(MIPSprogram program, TokenList[] lines) {
+            this.program = program;
+            this.lines = lines;
+         }
+      }
+
+      // One cached file, with the names under which it has been included.
+       private static final class Entry {
+         final int generation; // of the instruction set used for lexing
+         final long modified;
+         final long length;
+         final ArrayList source;
+         final TokenList[] lines;
+         final HashMap<String,Included> names = new HashMap<String,Included>();
+
+         // Lexes the lines of the file, except those also found in its previous version.
+          Entry(long modified, long length, ArrayList source, Entry previous) {
+            this.generation = Globals.instructionSet.getGeneration();
+            this.modified = modified;
+            this.length = length;
+            this.source = source;
+            lines = new TokenList[source.size()];
+            HashMap<String,TokenList> unchanged = new HashMap<String,TokenList>();
+            if (previous != null) {
+               for (int i=0; i<previous.lines.length; i++) {
+                  if (previous.lines[i] != null) {
+                     unchanged.put((String) previous.source.get(i), previous.lines[i]);
+                  }
+               }
+            }
+            Tokenizer tokenizer = new Tokenizer();
+            for (int i=0; i<lines.length; i++) {
+               String line = (String) source.get(i);
+               TokenList tokens = unchanged.get(line);
+               if (tokens != null) {
+                  lines[i] = tokens;
+                  continue;
+               }
+               tokens = tokenizer.tokenizeLine(null, i+1, line, false);
+               lines[i] = tokens;
+               for (int j=0; j<tokens.size(); j++) {
+                  if (tokens.get(j).getType() == TokenTypes.ERROR) {
+                     lines[i] = null;
+                     break;
+                  }
+               }
+            }
+         }
+      }
+   }
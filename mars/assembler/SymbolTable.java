@@ -40,6 +40,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static String startLabel = "main";
       private String filename;
       private ArrayList table;
+      // Indexes of the table: symbol by name, and symbols by address.  Each address
+   	// maps to a list of its symbols in table order.
+      private HashMap names;
+      private HashMap addresses;
    	// Note -1 is legal 32 bit address (0xFFFFFFFF) but it is the high address in 
    	// kernel address space so highly unlikely that any symbol will have this as 
    	// its associated address!
@@ -53,6 +57,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public SymbolTable(String filename) {
          this.filename = filename;
          this.table = new ArrayList();
+         this.names = new HashMap();
+         this.addresses = new HashMap();
       }    
    	/**
    	  *  Adds a Symbol object into the array of Symbols.
@@ -69,12 +75,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          } 
          else {
             Symbol s= new Symbol(label, address, b);
-            table.add(s);
+            addSymbol(s);
             if (Globals.debug) System.out.println("The symbol " + label + " with address " + address + " has been added to the "+this.filename+" symbol table.");
          }
       }
    
    
+   	/**
+   	  *  Adds a Symbol object whose name is not yet in the table, such as one
+   	  *  restored by the AssemblyCache.
+   	  *   @param s The Symbol.
+   	  **/
+   	
+       void addSymbol(Symbol s) {
+         table.add(s);
+         names.put(s.getName(), s);
+         addToAddress(s, s.getAddress());
+      }
+   
    	/**
    	  *   Removes a symbol from the Symbol table.  If not found, it does nothing.
    	  *   This will rarely happen (only when variable is declared .globl after already
@@ -84,12 +102,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
        public void removeSymbol(Token token) {
          String label = token.getValue();
-         for (int i=0; i < table.size(); i++) {
-            if (((Symbol)(table.get(i))).getName().equals(label)){
-               table.remove(i);
-               if (Globals.debug) System.out.println("The symbol " + label + " has been removed from the "+this.filename+" symbol table.");
-               break;
-            }
+         Symbol s = (Symbol) names.remove(label);
+         if (s != null) {
+            table.remove(s);
+            removeFromAddress(s, s.getAddress());
+            if (Globals.debug) System.out.println("The symbol " + label + " has been removed from the "+this.filename+" symbol table.");
          }
          return; 
       }
@@ -101,12 +118,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  *   @return The memory address of the label given, or NOT_FOUND if not found in symbol table.
    	  **/
        public int getAddress(String s){
-         for(int i=0; i < table.size(); i++){
-            if (((Symbol)(table.get(i))).getName().equals(s)){
-               return((Symbol) table.get(i)).getAddress();
-            }
-         }
-         return NOT_FOUND;
+         Symbol symbol = (Symbol) names.get(s);
+         return (symbol == null) ? NOT_FOUND : symbol.getAddress();
       }
       
    	/**
@@ -129,12 +142,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        **/
        
        public Symbol getSymbol(String s){
-         for(int i=0; i < table.size(); i++){
-            if (((Symbol)(table.get(i))).getName().equals(s)){
-               return (Symbol) table.get(i);
-            }
-         }
-         return null;
+         return (Symbol) names.get(s);
       }
    
       /**
@@ -151,12 +159,19 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
              catch (NumberFormatException e) {
                return null;
             }
-         for(int i=0; i < table.size(); i++){
-            if (((Symbol)(table.get(i))).getAddress() == address){
-               return (Symbol) table.get(i);
-            }
-         }
-         return null;
+         return getSymbolGivenAddress(address);
+      }      
+   
+      /**
+       * Produce Symbol object from symbol table that has the given address.  If several
+       * symbols have it, returns the one added first.
+       * @param address the address
+       * @return Symbol object having requested address, null if address not found in symbol table.
+       **/
+       
+       public Symbol getSymbolGivenAddress(int address){
+         ArrayList symbols = (ArrayList) addresses.get(new Integer(address));
+         return (symbols == null) ? null : (Symbol) symbols.get(0);
       }      
    
       /**
@@ -231,6 +246,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 
        public void clear(){
          table= new ArrayList();
+         names = new HashMap();
+         addresses = new HashMap();
       }
    	
    /**
@@ -240,17 +257,60 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     * @param originalAddress Address associated with 0 or more symtab entries.
     * @param replacementAddress Any entry that has originalAddress will have its 
     * address updated to this value.  Does nothing if none do.
+    * Addresses of symbols in a table must only be changed through this method, so
+    * that the table can keep them indexed by address.
     */
    
        public void fixSymbolTableAddress(int originalAddress, int replacementAddress) {
-         Symbol label = getSymbolGivenAddress(Integer.toString(originalAddress));
-         while (label != null) {
-            label.setAddress(replacementAddress);
-            label = getSymbolGivenAddress(Integer.toString(originalAddress));
+         if (originalAddress == replacementAddress) {
+            return;
+         }
+         ArrayList labels = (ArrayList) addresses.remove(new Integer(originalAddress));
+         if (labels == null) {
+            return;
+         }
+         for (int i = 0; i < labels.size(); i++) {
+            ((Symbol) labels.get(i)).setAddress(replacementAddress);
+         }
+         ArrayList existing = (ArrayList) addresses.get(new Integer(replacementAddress));
+         if (existing == null) {
+            addresses.put(new Integer(replacementAddress), labels);
+         } 
+         else {
+            // Both lists must be merged back into table order, so rebuild from the table.
+            existing.clear();
+            for (int i = 0; i < table.size(); i++) {
+               Symbol s = (Symbol) table.get(i);
+               if (s.getAddress() == replacementAddress) {
+                  existing.add(s);
+               }
+            }
          }
          return;
       }
    
+       private void addToAddress(Symbol symbol, int address) {
+         Integer key = new Integer(address);
+         ArrayList symbols = (ArrayList) addresses.get(key);
+         if (symbols == null) {
+            symbols = new ArrayList(1);
+            addresses.put(key, symbols);
+         }
+         symbols.add(symbol);
+      }
+   
+       private void removeFromAddress(Symbol symbol, int address) {
+         Integer key = new Integer(address);
+         ArrayList symbols = (ArrayList) addresses.get(key);
+         if (symbols != null) {
+            symbols.remove(symbol);
+            if (symbols.isEmpty()) {
+               addresses.remove(key);
+            }
+         }
+      }
+   
+   
      /**
       *  Fetches the text segment label (symbol) which, if declared global, indicates
    	*  the starting address for execution.
@@ -52,6 +52,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private ErrorList errors;
       private MIPSprogram sourceMIPSprogram;
       private HashMap<String,String> equivalents; // DPS 11-July-2012
+      private char[] tokenBuffer = new char[0]; // reused by tokenizeLine(), grown as needed
    	// The 8 escaped characters are: single quote, double quote, backslash, newline (linefeed),
    	// tab, backspace, return, form feed.  The characters and their corresponding decimal codes:
       private static final String escapedCharacters = "'\"\\ntbrf0";
@@ -84,26 +85,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     **/
    
        public ArrayList tokenize(MIPSprogram p) throws ProcessingException {
+         return tokenize(p, new SourceCache());
+      }
+   
+   /**
+    * Will tokenize a complete MIPS program, taking the tokens of its lines and files named
+    * in .include directives from the given cache, so that files included by several programs
+    * are read and lexed only once, and lines unchanged since the cache last saw them are
+    * not lexed again.
+    *
+    * @param p The MIPSprogram to be tokenized.
+    * @param sources cache of source files, shared by the programs being assembled together.
+    * @return An ArrayList representing the tokenized program.  Each list member is a TokenList
+    * that represents a tokenized source statement from the MIPS program.
+    **/
+   
+       public ArrayList tokenize(MIPSprogram p, SourceCache sources) throws ProcessingException {
          sourceMIPSprogram = p;
          equivalents = new HashMap<String,String>(); // DPS 11-July-2012
          ArrayList tokenList = new ArrayList();
-         //ArrayList source = p.getSourceList();
-         ArrayList<SourceLine> source = processIncludes(p, new HashMap<String,String>()); // DPS 9-Jan-2013
+         ArrayList sourceList = p.getSourceList();
+         ArrayList<SourceLine> source = new ArrayList<SourceLine>(sourceList.size());
+         // Set now so that error messages give the original file and line of each expanded line.
          p.setSourceLineList(source);
-         TokenList currentLineTokens;
-         String sourceLine;
-         for (int i=0; i<source.size(); i++) {
-            sourceLine = source.get(i).getSource(); 
-            currentLineTokens = this.tokenizeLine(i+1, sourceLine);
-            tokenList.add(currentLineTokens); 
-            // DPS 03-Jan-2013. Related to 11-July-2012. If source code substitution was made
-         	// based on .eqv directive during tokenizing, the processed line, a String, is 
-         	// not the same object as the original line.  Thus I can use != instead of !equals()
-         	// This IF statement will replace original source with source modified by .eqv substitution.
-         	// Not needed by assembler, but looks better in the Text Segment Display.
-            if (sourceLine.length() > 0 && sourceLine != currentLineTokens.getProcessedLine()) {
-               source.set(i,new SourceLine(currentLineTokens.getProcessedLine(),source.get(i).getMIPSprogram(), source.get(i).getLineNumber())); 
-            } 
+         ArrayList substituted = new ArrayList();
+         TokenList[] prototypes = (p.getFilename() == null) ? null : sources.getLines(p.getFilename(), sourceList);
+         tokenizeSource(p, sourceList, prototypes, sources, new HashMap<String,String>(), source, tokenList, substituted); // DPS 9-Jan-2013
+         p.setSourceLineList(source);
+         // DPS 03-Jan-2013. Related to 11-July-2012. If source code substitution was made
+      	// based on .eqv directive during tokenizing, the processed line, a String, is 
+      	// not the same object as the original line.  The source line list gets the 
+      	// modified source.  Not needed by assembler, but looks better in the Text Segment Display.
+         for (int j=0; j<substituted.size(); j++) {
+            int i = ((Integer) substituted.get(j)).intValue();
+            source.set(i,new SourceLine(((TokenList) tokenList.get(i)).getProcessedLine(),source.get(i).getMIPSprogram(), source.get(i).getLineNumber())); 
          }
          if (errors.errorsOccurred()) {
             throw new ProcessingException(errors);
@@ -113,58 +128,82 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
    
      
-   // pre-pre-processing pass through source code to process any ".include" directives.
-   // When one is encountered, the contents of the included file are inserted at that 
-   // point.  If no .include statements, the return value is a new array list but
-   // with the same lines of source code.  Uses recursion to correctly process included
-   // files that themselves have .include.  Plus it will detect and report recursive
-   // includes both direct and indirect.
+   // Tokenizes the lines of one source file, appending a SourceLine and TokenList for each
+   // to source and tokenList.  When an ".include" directive is encountered, the lines of the
+   // included file take its place.  Each line is lexed once: the tokens are checked for
+   // .include first, then .eqv substitution is applied to them.  Lines are copied from
+   // the prototypes in the source cache when available.  Uses recursion to
+   // correctly process included files that themselves have .include.  Plus it will detect
+   // and report recursive includes both direct and indirect.
    // DPS 11-Jan-2013
-       private ArrayList<SourceLine> processIncludes(MIPSprogram program, Map<String,String> inclFiles) throws ProcessingException {
-         ArrayList source = program.getSourceList();
-         ArrayList<SourceLine> result = new ArrayList<SourceLine>(source.size());
-         for (int i=0; i<source.size(); i++) {
-            String line = (String) source.get(i);
-            TokenList tl = tokenizeLine(program, i+1, line, false);
-            boolean hasInclude = false;
-            for (int ii=0; ii<tl.size(); ii++) {
-               if (tl.get(ii).getValue().equalsIgnoreCase(Directives.INCLUDE.getName()) 
-                      && (tl.size() > ii+1) 
-                      && tl.get(ii+1).getType() == TokenTypes.QUOTED_STRING) {
-                  String filename = tl.get(ii+1).getValue();
-                  filename = filename.substring(1, filename.length()-1); // get rid of quotes
-                  // Handle either absolute or relative pathname for .include file
-                  if (!new File(filename).isAbsolute()) {
-                     filename = new File(program.getFilename()).getParent()+File.separator+filename;
-                  }
-                  if (inclFiles.containsKey(filename)) {
-                     // This is a recursive include.  Generate error message and return immediately.
-                     Token t = tl.get(ii+1);
-                     errors.add(new ErrorMessage(program, t.getSourceLine(),t.getStartPos(), 
-                        "Recursive include of file "+filename));
+       private void tokenizeSource(MIPSprogram program, ArrayList lines, TokenList[] prototypes, SourceCache sources,
+       Map<String,String> inclFiles, ArrayList<SourceLine> source, ArrayList tokenList, ArrayList substituted) throws ProcessingException {
+         for (int i=0; i<lines.size(); i++) {
+            String line = (String) lines.get(i);
+            int lineNum = source.size()+1;
+            source.add(new SourceLine(line, program, i+1));
+            TokenList tl = (prototypes != null && prototypes[i] != null) 
+                              ? copyTokens(prototypes[i], lineNum)
+                              : tokenizeLine(sourceMIPSprogram, lineNum, line, false);
+            int position = includedFilenamePosition(tl);
+            if (position >= 0) {
+               Token t = tl.get(position);
+               String filename = t.getValue();
+               filename = filename.substring(1, filename.length()-1); // get rid of quotes
+               // Handle either absolute or relative pathname for .include file
+               if (!new File(filename).isAbsolute()) {
+                  filename = new File(program.getFilename()).getParent()+File.separator+filename;
+               }
+               if (inclFiles.containsKey(filename)) {
+                  // This is a recursive include.  Generate error message and return immediately.
+                  errors.add(new ErrorMessage(sourceMIPSprogram, lineNum, t.getStartPos(), 
+                     "Recursive include of file "+filename));
+                  throw new ProcessingException(errors);
+               }
+               inclFiles.put(filename, filename);
+               SourceCache.Included incl;
+               try {
+                  incl = sources.get(filename);
+               }
+                   catch (ProcessingException p) {
+                     errors.add(new ErrorMessage(sourceMIPSprogram, lineNum, t.getStartPos(), 
+                        "Error reading include file "+filename));	
                      throw new ProcessingException(errors);
                   }
-                  inclFiles.put(filename, filename);
-                  MIPSprogram incl = new MIPSprogram();
-                  try {
-                     incl.readSource(filename);
-                  }
-                      catch (ProcessingException p) {
-                        Token t = tl.get(ii+1);
-                        errors.add(new ErrorMessage(program, t.getSourceLine(),t.getStartPos(), 
-                           "Error reading include file "+filename));	
-                        throw new ProcessingException(errors);
-                     }
-                  ArrayList<SourceLine> allLines = processIncludes(incl, inclFiles);
-                  result.addAll(allLines);
-                  hasInclude = true;
-                  break;                  	
-               } 
+               source.remove(source.size()-1);
+               tokenizeSource(incl.program, incl.program.getSourceList(), incl.lines, sources, inclFiles, source, tokenList, substituted);
+               continue;
             }
-            if (!hasInclude){
-               result.add(new SourceLine(line, program, i+1));//line);
+            if (line.length() > 0) {
+               tl = processEqv(sourceMIPSprogram, lineNum, line, tl); // DPS 11-July-2012
+               if (line != tl.getProcessedLine()) {
+                  substituted.add(new Integer(lineNum-1));
+               }
+            }
+            tokenList.add(tl);
+         }
+      }
+   
+   // Returns the position in the token list of the file name of an ".include" directive,
+   // or -1 if the line is not one.
+       private static int includedFilenamePosition(TokenList tl) {
+         for (int ii=0; ii<tl.size(); ii++) {
+            if (tl.get(ii).getValue().equalsIgnoreCase(Directives.INCLUDE.getName()) 
+                   && (tl.size() > ii+1) 
+                   && tl.get(ii+1).getType() == TokenTypes.QUOTED_STRING) {
+               return ii+1;
             }
          }
+         return -1;
+      }
+   
+   // Copies prototype tokens from the source cache for the given line of the program being tokenized.
+       private TokenList copyTokens(TokenList prototype, int lineNum) {
+         TokenList result = new TokenList();
+         for (int i=0; i<prototype.size(); i++) {
+            Token t = prototype.get(i);
+            result.add(new Token(t.getType(), t.getValue(), sourceMIPSprogram, lineNum, t.getStartPos()));
+         }
          return result;
       }
    	
@@ -284,7 +323,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          char c;
          char[] line = theLine.toCharArray();
          int linePos = 0;
-         char[] token = new char[line.length];
+         if (tokenBuffer.length < line.length) {
+            tokenBuffer = new char[Math.max(line.length, 2 * tokenBuffer.length)];
+         }
+         char[] token = tokenBuffer;
          int tokenPos = 0;
          int tokenStartPos = 1;
          boolean insideQuotedString = false;  
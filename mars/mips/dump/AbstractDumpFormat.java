@@ -1,5 +1,6 @@
    package mars.mips.dump;
 
+   import mars.Globals;
    import mars.mips.hardware.*;
    import java.io.*;
 /*
@@ -41,6 +42,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
     public abstract class AbstractDumpFormat implements DumpFormat {
    
+      /** Number of words a format reads from memory at a time, see readWords(). */
+      protected static final int WORDS_PER_READ = 1024;
+   
       private String name, commandDescriptor, description,  extension;
    	
    	/**
@@ -115,4 +119,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public abstract void dumpMemoryRange(File file, int firstAddress, int lastAddress)
 		    throws AddressErrorException, IOException;
    
+   /**
+   *  Read the next words of the range being dumped, for formats that write one word
+   *  at a time.  Words are read as by Memory.getRawWordOrNull(), a block at a time,
+   *  stopping at the end of the range or at the first word it would return null for.
+   *
+   *  @param address address of the first word to read.  Must be on word boundary.
+   *  @param lastAddress last (highest) memory address to dump.
+   *  @param words array to hold the words read.
+   *  @return number of words read; 0 once the end of the range or a null word is reached.
+   *  @throws AddressErrorException if address is invalid or not on a word boundary.
+   */
+       protected static int readWords(int address, int lastAddress, int[] words)
+		    throws AddressErrorException {
+         if (address > lastAddress) {
+            return 0;
+         }
+         long remaining = ((long) lastAddress - address) / Memory.WORD_LENGTH_BYTES + 1;
+         return Globals.memory.getRawWords(address, words, 0, (int) Math.min(words.length, remaining));
+      }
+   
    }
\ No newline at end of file
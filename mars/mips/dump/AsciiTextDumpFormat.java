@@ -77,11 +77,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          PrintStream out = new PrintStream(new FileOutputStream(file));
          String string = null;
          try {
-            for (int address = firstAddress; address <= lastAddress; address += Memory.WORD_LENGTH_BYTES) {
-               Integer temp = Globals.memory.getRawWordOrNull(address);
-               if (temp == null) 
-                  break;
-               out.println(Binary.intToAscii(temp.intValue()));
+            int[] words = new int[WORDS_PER_READ];
+            for (int address = firstAddress, count; (count = readWords(address, lastAddress, words)) > 0; 
+                     address += count * Memory.WORD_LENGTH_BYTES) {
+               for (int i = 0; i < count; i++) {
+                  out.println(Binary.intToAscii(words[i]));
+               }
             }
          } 
          finally { 
@@ -51,9 +51,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
    
    /**
-   *  Write MIPS memory contents in pure binary format.  One byte at a time
-	*  using PrintStream's write() method.  Adapted by Pete Sanderson from
-	*  code written by Greg Gibeling.
+   *  Write MIPS memory contents in pure binary format, each word as 4 bytes
+	*  in little-endian order.  Originally adapted by Pete Sanderson from
+	*  code written by Greg Gibeling; now done by Memory.transferTo() so that
+	*  off-heap memory can be written without copying.
 	*
    *  @param  file  File in which to store MIPS memory contents.  
    *  @param firstAddress first (lowest) memory address to dump.  In bytes but
@@ -65,16 +66,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    */
        public void dumpMemoryRange(File file, int firstAddress, int lastAddress) 
         throws AddressErrorException, IOException {
-         PrintStream out = new PrintStream(new FileOutputStream(file));
+         FileOutputStream out = new FileOutputStream(file);
          try {
-            for (int address = firstAddress; address <= lastAddress; address += Memory.WORD_LENGTH_BYTES) {
-               Integer temp = Globals.memory.getRawWordOrNull(address);
-               if (temp == null) 
-                  break;
-               int word = temp.intValue();
-               for (int i = 0; i < 4; i++) 
-                  out.write((word >>> (i << 3)) & 0xFF);
-            }
+            Globals.memory.transferTo(firstAddress, lastAddress, out.getChannel());
          } 
          finally { 
             out.close(); 
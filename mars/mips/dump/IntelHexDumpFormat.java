@@ -36,33 +36,36 @@
             PrintStream out = new PrintStream(new FileOutputStream(file));
             String string = null;
             try {
-               for (int address = firstAddress; address <= lastAddress; address += Memory.WORD_LENGTH_BYTES) {
-                  Integer temp = Globals.memory.getRawWordOrNull(address);
-                  if (temp == null) 
-                     break;
-                  string = Integer.toHexString(temp.intValue());
-                  while (string.length() < 8) {
-                     string = '0' + string;
+               int[] words = new int[WORDS_PER_READ];
+               for (int first = firstAddress, count; (count = readWords(first, lastAddress, words)) > 0; 
+                        first += count * Memory.WORD_LENGTH_BYTES) {
+                  for (int i = 0; i < count; i++) {
+                     int address = first + i * Memory.WORD_LENGTH_BYTES;
+                     int temp = words[i];
+                     string = Integer.toHexString(temp);
+                     while (string.length() < 8) {
+                        string = '0' + string;
+                     }
+                     String addr = Integer.toHexString(address-firstAddress);
+                     while (addr.length() < 4) {
+                        addr = '0' + addr;
+                     }
+                     String chksum;
+                     int tmp_chksum = 0;
+                     tmp_chksum += 4;
+                     tmp_chksum += 0xFF & (address-firstAddress);
+                     tmp_chksum += 0xFF & ((address-firstAddress)>>8);
+                     tmp_chksum += 0xFF & temp;
+                     tmp_chksum += 0xFF & (temp>>8);
+                     tmp_chksum += 0xFF & (temp>>16);
+                     tmp_chksum += 0xFF & (temp>>24);
+                     tmp_chksum = tmp_chksum % 256;
+                     tmp_chksum = ~tmp_chksum + 1;
+                     chksum = Integer.toHexString(0xFF & tmp_chksum);
+                     if(chksum.length()==1) chksum = '0' + chksum;
+                     String finalstr = ":04"+addr+"00"+string+chksum;
+                     out.println(finalstr.toUpperCase());
                   }
-                  String addr = Integer.toHexString(address-firstAddress);
-                  while (addr.length() < 4) {
-                     addr = '0' + addr;
-                  }
-                  String chksum;
-                  int tmp_chksum = 0;
-                  tmp_chksum += 4;
-                  tmp_chksum += 0xFF & (address-firstAddress);
-                  tmp_chksum += 0xFF & ((address-firstAddress)>>8);
-                  tmp_chksum += 0xFF & temp.intValue();
-                  tmp_chksum += 0xFF & (temp.intValue()>>8);
-                  tmp_chksum += 0xFF & (temp.intValue()>>16);
-                  tmp_chksum += 0xFF & (temp.intValue()>>24);
-                  tmp_chksum = tmp_chksum % 256;
-                  tmp_chksum = ~tmp_chksum + 1;
-                  chksum = Integer.toHexString(0xFF & tmp_chksum);
-                  if(chksum.length()==1) chksum = '0' + chksum;
-                  String finalstr = ":04"+addr+"00"+string+chksum;
-                  out.println(finalstr.toUpperCase());
                }
                out.println(":00000001FF");
             } 
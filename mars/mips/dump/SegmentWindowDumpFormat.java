@@ -90,21 +90,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             int offset = 0;
             String string="";
             try {
-               for (int address = firstAddress; address <= lastAddress; address += Memory.WORD_LENGTH_BYTES) {
-                  if (offset % 8 == 0) {
-                     string = ((hexAddresses) ? Binary.intToHexString(address) : Binary.unsignedIntToIntString(address))  + "    ";
-                  }
-                  offset++;
-                  Integer temp = Globals.memory.getRawWordOrNull(address);
-                  if (temp == null) 
-                     break;
-                  string += ((hexValues) 
-                             ? Binary.intToHexString(temp.intValue()) 
-                     		  : ("           "+temp).substring(temp.toString().length()) 
-                     		 ) + " ";
-                  if (offset % 8 == 0) {
-                     out.println(string);
-                     string = "";
+               int[] words = new int[WORDS_PER_READ];
+               for (int first = firstAddress, count; (count = readWords(first, lastAddress, words)) > 0; 
+                        first += count * Memory.WORD_LENGTH_BYTES) {
+                  for (int i = 0; i < count; i++) {
+                     int address = first + i * Memory.WORD_LENGTH_BYTES;
+                     if (offset % 8 == 0) {
+                        string = ((hexAddresses) ? Binary.intToHexString(address) : Binary.unsignedIntToIntString(address))  + "    ";
+                     }
+                     offset++;
+                     String temp = Integer.toString(words[i]);
+                     string += ((hexValues) 
+                                ? Binary.intToHexString(words[i]) 
+                        		  : ("           "+temp).substring(temp.length()) 
+                        		 ) + " ";
+                     if (offset % 8 == 0) {
+                        out.println(string);
+                        string = "";
+                     }
                   }
                }
             } 
@@ -49,14 +49,20 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 		// bit 1 (exception level) not set, bit 0 (interrupt enable) set.
 		public static final int DEFAULT_STATUS_VALUE = 0x0000FF11;
 		
-      private static Register [] registers = 
-          { new Register("$8 (vaddr)", 8, 0),  
-            new Register("$12 (status)", 12, DEFAULT_STATUS_VALUE),
-         	new Register("$13 (cause)", 13, 0),  
-         	new Register("$14 (epc)", 14, 0)
-           };
+      private static Register [] registers = createRegisters();
         												  
    	 
+      // Register objects for the coprocessor registers, at reset values.
+       private static Register[] createRegisters() {
+         Register[] registers = 
+             { new Register("$8 (vaddr)", 8, 0),  
+               new Register("$12 (status)", 12, DEFAULT_STATUS_VALUE),
+            	new Register("$13 (cause)", 13, 0),  
+            	new Register("$14 (epc)", 14, 0)
+              };
+         return registers;
+      }
+   
    	/**
    	  *  Method for displaying the register values for debugging.
    	  **/	 
@@ -211,5 +217,58 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             registers[i].deleteObserver(observer);
          }
       }
-
+   
+   	/**
+   	 *  Returns the registers currently in use, for saving by a SimulationContext.
+   	 *  @return State holding the current register objects (not copies).
+   	 */
+       public static State getState() {
+         return new State(registers);
+      }
+   
+   	/**
+   	 *  Installs a set of registers, replacing those currently in use.  Used when
+   	 *  switching between SimulationContexts.
+   	 *  @param state State previously obtained from getState() or created with new State().
+   	 */
+       public static void setState(State state) {
+         registers = state.registers;
+      }
+   
+   	/**
+   	 *  The set of Coprocessor 0 registers.  A new State has all registers at their reset values.
+   	 */
+       public static final class State {
+         private Register[] registers;
+      
+          public State() {
+            this(createRegisters());
+         }
+      
+          private State(Register[] registers) {
+            this.registers = registers;
+         }
+      
+      	/**
+      	 *  Returns the values of the registers in this State, in the order they are listed.
+      	 *  @return array of register values
+      	 */
+          public int[] getValues() {
+            int[] values = new int[registers.length];
+            for (int i = 0; i < registers.length; i++) {
+               values[i] = registers[i].getValueNoNotify();
+            }
+            return values;
+         }
+      
+      	/**
+      	 *  Sets the registers in this State to values previously returned by getValues().
+      	 *  @param values array of register values
+      	 */
+          public void setValues(int[] values) {
+            for (int i = 0; i < registers.length; i++) {
+               registers[i].setValue(values[i]);
+            }
+         }
+      }
    }
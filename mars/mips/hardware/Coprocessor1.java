@@ -48,28 +48,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 // storing into registers, and reassembled upon retrieval.
 
     public  class Coprocessor1 {
-      private static Register [] registers = 
-          { new Register("$f0", 0, 0),  new Register("$f1", 1, 0),
-         	new Register("$f2", 2, 0),  new Register("$f3", 3, 0),
-         	new Register("$f4", 4, 0),  new Register("$f5", 5, 0),
-         	new Register("$f6", 6, 0),  new Register("$f7", 7, 0),
-         	new Register("$f8", 8, 0),  new Register("$f9", 9, 0),
-         	new Register("$f10", 10, 0),new Register("$f11", 11, 0), 
-         	new Register("$f12", 12, 0),new Register("$f13", 13, 0),
-         	new Register("$f14", 14, 0),new Register("$f15", 15, 0),
-         	new Register("$f16", 16, 0),new Register("$f17", 17, 0),
-         	new Register("$f18", 18, 0),new Register("$f19", 19, 0),
-         	new Register("$f20", 20, 0),new Register("$f21", 21, 0),
-         	new Register("$f22", 22, 0),new Register("$f23", 23, 0),
-         	new Register("$f24", 24, 0),new Register("$f25", 25, 0),
-         	new Register("$f26", 26, 0),new Register("$f27", 27, 0),
-         	new Register("$f28", 28, 0),new Register("$f29", 29, 0),
-         	new Register("$f30", 30, 0),new Register("$f31", 31, 0)
-           };
+      private static Register [] registers = createRegisters();
    	// The 8 condition flags will be stored in bits 0-7 for flags 0-7.
       private static Register condition = new Register("cf",32, 0);	 
       private static int numConditionFlags = 8;
    	
+      // Register objects for the coprocessor registers, at reset values.
+       private static Register[] createRegisters() {
+         Register[] registers = 
+             { new Register("$f0", 0, 0),  new Register("$f1", 1, 0),
+            	new Register("$f2", 2, 0),  new Register("$f3", 3, 0),
+            	new Register("$f4", 4, 0),  new Register("$f5", 5, 0),
+            	new Register("$f6", 6, 0),  new Register("$f7", 7, 0),
+            	new Register("$f8", 8, 0),  new Register("$f9", 9, 0),
+            	new Register("$f10", 10, 0),new Register("$f11", 11, 0), 
+            	new Register("$f12", 12, 0),new Register("$f13", 13, 0),
+            	new Register("$f14", 14, 0),new Register("$f15", 15, 0),
+            	new Register("$f16", 16, 0),new Register("$f17", 17, 0),
+            	new Register("$f18", 18, 0),new Register("$f19", 19, 0),
+            	new Register("$f20", 20, 0),new Register("$f21", 21, 0),
+            	new Register("$f22", 22, 0),new Register("$f23", 23, 0),
+            	new Register("$f24", 24, 0),new Register("$f25", 25, 0),
+            	new Register("$f26", 26, 0),new Register("$f27", 27, 0),
+            	new Register("$f28", 28, 0),new Register("$f29", 29, 0),
+            	new Register("$f30", 30, 0),new Register("$f31", 31, 0)
+              };
+         return registers;
+      }
+   
    	/**
    	  *  Method for displaying the register values for debugging.
    	  **/	 
@@ -522,4 +528,66 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static int getConditionFlagCount() {
          return numConditionFlags;        
       }	
+   
+   
+   	/**
+   	 *  Returns the registers currently in use, for saving by a SimulationContext.
+   	 *  @return State holding the current register objects (not copies).
+   	 */
+       public static State getState() {
+         return new State(registers, condition);
+      }
+   
+   	/**
+   	 *  Installs a set of registers, replacing those currently in use.  Used when
+   	 *  switching between SimulationContexts.
+   	 *  @param state State previously obtained from getState() or created with new State().
+   	 */
+       public static void setState(State state) {
+         registers = state.registers;
+         condition = state.condition;
+      }
+   
+   	/**
+   	 *  The set of Coprocessor 1 registers and condition flags.  A new State has all
+   	 *  registers and flags at their reset values.
+   	 */
+       public static final class State {
+         private Register[] registers;
+         private Register condition;
+      
+          public State() {
+            this(createRegisters(), new Register("cf", 32, 0));
+         }
+      
+          private State(Register[] registers, Register condition) {
+            this.registers = registers;
+            this.condition = condition;
+         }
+      
+      	/**
+      	 *  Returns the values of the registers in this State in number order,
+      	 *  followed by the condition flags.
+      	 *  @return array of register values
+      	 */
+          public int[] getValues() {
+            int[] values = new int[registers.length + 1];
+            for (int i = 0; i < registers.length; i++) {
+               values[i] = registers[i].getValueNoNotify();
+            }
+            values[registers.length] = condition.getValueNoNotify();
+            return values;
+         }
+      
+      	/**
+      	 *  Sets the registers in this State to values previously returned by getValues().
+      	 *  @param values array of register values
+      	 */
+          public void setValues(int[] values) {
+            for (int i = 0; i < registers.length; i++) {
+               registers[i].setValue(values[i]);
+            }
+            condition.setValue(values[registers.length]);
+         }
+      }
    }
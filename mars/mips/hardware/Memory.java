@@ -4,6 +4,9 @@
    import mars.simulator.*;
    import mars.mips.instructions.*;
    import java.util.*;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
 	
 	/*
 Copyright (c) 2003-2009,  Pete Sanderson and Kenneth Vollmar
@@ -88,6 +91,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final boolean BIG_ENDIAN = false;
    	/** Current setting for endian (default LITTLE_ENDIAN) **/
       private static boolean byteOrder = LITTLE_ENDIAN;
+   	/** Backing storage constant: data and stack segments are arrays in the Java heap. */
+      public static final int HEAP_BACKING = 0;
+   	/** Backing storage constant: data and stack segments are direct buffers outside the Java heap. */
+      public static final int DIRECT_BACKING = 1;
+   	/** Backing storage constant: data and stack segments are mapped from a temporary file. */
+      public static final int MAPPED_BACKING = 2;
+      private static final String[] backingNames = { "heap", "direct", "mapped" };
+   	/** Current backing storage for data and stack segments, from the MemoryBacking property. */
+      private static int backing = getBacking(Globals.memoryBacking);
    	
       public static int heapAddress;
    
@@ -102,8 +114,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     // key for insertion into the tree would be based on Comparable using both low 
     // and high end of address range, but retrieval from the tree has to be based
     // on target address being ANYWHERE IN THE RANGE (not an exact key match).
+    //
+    // Instead the collection is indexed by ObserverIndex, rebuilt whenever observers
+    // are added or removed: a bitmap with one bit per 4K page tells whether any range 
+    // includes the page, and each 4M region has the list of ranges overlapping it.
+    // An access to an unobserved page costs one bit test.
       
       Collection observables = getNewMemoryObserversCollection();
+      private volatile ObserverIndex observerIndex = null; // null if no observers
    
     // The data segment is allocated in blocks of 1024 ints (4096 bytes).  Each block is
     // referenced by a "block table" entry, and the table has 1024 entries.  The capacity
@@ -133,6 +151,49 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static final int BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
       private int[][] dataBlockTable;
       private int[][] kernelDataBlockTable;
+   
+    // With DIRECT_BACKING or MAPPED_BACKING, the data segment (including the heap) and the
+    // stack are held in OffHeapSegments instead of dataBlockTable and stackBlockTable, which
+    // then stay empty.  The table helpers check for this and use the segment.  Since the
+    // segments are not in the Java heap they can be much larger: 256 MB each.
+   
+      private static final int OFF_HEAP_BLOCK_TABLE_LENGTH = 65536;
+      private OffHeapSegment dataSegment, stackSegment; // null with HEAP_BACKING
+   
+    // A sparse memory configuration (see MemoryConfiguration.isSparse()) backs the whole
+    // 4 GB address space, apart from the text segments which still hold ProgramStatements.
+    // Every other address is stored in a two-level table: the top 10 bits of the address
+    // select a region table, which is a block table just like dataBlockTable (1024 blocks
+    // of 4K bytes), the next 10 bits a block and the rest a word in it.  Region tables and
+    // blocks are allocated when first written, so memory use is proportional to the pages
+    // touched.  Region tables are numbered from SPARSE_TABLE_NUMBER for dirtyBlocks.
+   
+      private static final int REGION_SHIFT = 22; // 4M bytes per region
+      private static final int REGION_MASK = (1 << REGION_SHIFT) - 1;
+      private static final int SPARSE_TABLE_NUMBER = 4;
+      private int[][][] sparseTables; // null unless the configuration is sparse
+      
+      // Counts of accesses to each page, null unless enabled by setPageAccessCounting().
+      private PageAccessCounts pageAccessCounts;
+      private static boolean sparseConfiguration = false;
+   
+    // Segment containing each 4K page of the address space, so that accessors find the 
+    // segment of an address with one table lookup instead of testing each segment's range
+    // in turn.  A page that a segment boundary falls inside is marked MIXED_PAGE and its
+    // addresses are classified one at a time.  Rebuilt by setConfiguration().
+   
+      private static final byte NO_SEGMENT = 0;
+      private static final byte DATA_SEGMENT = 1;
+      private static final byte STACK_SEGMENT = 2;
+      private static final byte TEXT_SEGMENT = 3;
+      private static final byte MEMORY_MAP_SEGMENT = 4;
+      private static final byte KERNEL_DATA_SEGMENT = 5;
+      private static final byte KERNEL_TEXT_SEGMENT = 6;
+      private static final byte SPARSE_SEGMENT = 7;
+      private static final byte MIXED_PAGE = 8;
+      private static final int PAGE_SHIFT = 12;
+      private static byte[] pageSegments;
+      private static long[] pageSegmentsBoundaries; // boundaries pageSegments was built for
     
     // The stack is modeled similarly to the data segment.  It cannot share the same
     // data structure because the stack base address is very large.  To store it in the
@@ -174,6 +235,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static final int TEXT_BLOCK_TABLE_LENGTH = 1024; // Each entry of table points to a block.
       private ProgramStatement[][] textBlockTable;
       private ProgramStatement[][] kernelTextBlockTable;
+   
+    // Decoded copy of the user text segment used by the simulator's run loop.  It
+    // must be kept consistent with textBlockTable, so every statement stored into
+    // the text segment invalidates the corresponding entry.
+   
+      private DecodedInstructionCache decodedInstructions = new DecodedInstructionCache();
+   
+    // Copy-on-write support for snapshot() and copy().  Each data block has one word more
+    // than BLOCK_LENGTH_WORDS; the extra word holds the generation of the Memory allowed to
+    // write it.  Taking a snapshot or copy gives this Memory a new generation, so every
+    // existing block becomes shared and is copied the first time it is written afterwards.
+    // Text tables are shared as a whole and copied at the first text write, which is rare.
+    // Blocks replaced since the last snapshot or restore are listed in dirtyBlocks (table
+    // number in the high half, block number in the low half) so that restoring that
+    // snapshot only has to put back the blocks actually touched.
+   
+      private static int lastGeneration = 0;
+      private int generation;
+      private boolean textShared;
+      private Snapshot lastSnapshot;
+      private int[] dirtyBlocks = new int[64];
+      private int dirtyCount;
     
     // Set "top" address boundary to go with each "base" address.  This determines permissable
     // address range for user program.  Currently limit is 4MB, or 1024 * 1024 * 4 bytes based
@@ -206,6 +289,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          initialize();
       }
    
+    /*
+     * Private constructor for a copy of another Memory, see copy().
+     **/
+       private Memory(Memory original) {
+         textBlockTable = original.textBlockTable.clone();
+         dataBlockTable = original.dataBlockTable.clone();
+         kernelTextBlockTable = original.kernelTextBlockTable.clone();
+         kernelDataBlockTable = original.kernelDataBlockTable.clone();
+         stackBlockTable = original.stackBlockTable.clone();
+         memoryMapBlockTable = original.memoryMapBlockTable.clone();
+         sparseTables = copySparseTables(original.sparseTables);
+         if (original.dataSegment != null) {
+            dataSegment = original.dataSegment.copy();
+            stackSegment = original.stackSegment.copy();
+         }
+         generation = nextGeneration();
+         textShared = true;
+         original.generation = nextGeneration(); // blocks are now shared by both
+         original.textShared = true;
+      }
+   
      /**
       * Returns the unique Memory instance, which becomes in essence global.
    	*/
@@ -213,6 +317,433 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static Memory getInstance() {
          return uniqueMemoryInstance;
       }
+   
+     /**
+      * Returns a new, empty Memory separate from the unique instance.  Each 
+   	* SimulationContext other than the default one owns such a Memory.
+   	*/
+   	
+       public static Memory createInstance() {
+         return new Memory();
+      }
+   
+     /**
+      * Returns a new Memory with the same contents as this one.  Blocks are shared by
+   	* the two until one of them writes a block, which then gets its own copy, so
+   	* this is cheap regardless of memory size, except that data and stack segments
+   	* held off the Java heap are copied immediately.  Observers are not copied.
+   	* Used to start several runs from the memory image of one assembled program.
+   	* @return copy of this Memory
+   	*/
+   	
+       public synchronized Memory copy() {
+         return new Memory(this);
+      }
+   
+     /**
+      * Takes a snapshot of the contents of this Memory.  No data is copied: blocks are
+   	* shared between the snapshot and this Memory until written, and only the blocks
+   	* written are copied.  Heap address, registers and other machine state are not
+   	* included; SimulationContext takes snapshots that include them.  Data and stack
+   	* segments held off the Java heap are copied, at a cost proportional to their size.
+   	* @return Snapshot that can be given to restore()
+   	*/
+   	
+       public synchronized Snapshot snapshot() {
+         Snapshot snapshot = new Snapshot(this);
+         generation = nextGeneration();
+         textShared = true;
+         lastSnapshot = snapshot;
+         dirtyCount = 0;
+         return snapshot;
+      }
+   
+     /**
+      * Restores the contents of this Memory to those at the time the given snapshot was
+   	* taken.  The snapshot remains valid and may be restored again.  Restoring the snapshot
+   	* most recently taken or restored costs time proportional to the number of blocks
+   	* written since; any other snapshot costs a copy of the block tables.  Observers are
+   	* not notified.
+   	* @param snapshot Snapshot previously taken of this Memory
+   	*/
+   	
+       public synchronized void restore(Snapshot snapshot) {
+         if (snapshot.memory != this) {
+            throw new IllegalArgumentException("snapshot was taken of a different Memory");
+         }
+         if (snapshot == lastSnapshot) {
+            for (int i = 0; i < dirtyCount; i++) {
+               int table = dirtyBlocks[i] >>> 16;
+               int block = dirtyBlocks[i] & 0xFFFF;
+               int[][] snapshotTable = snapshot.tableNumbered(table);
+               if (snapshotTable == null) {
+                  // sparse region created since the snapshot
+                  sparseTables[table - SPARSE_TABLE_NUMBER] = null;
+               } 
+               else {
+                  tableNumbered(table)[block] = snapshotTable[block];
+               }
+            }
+         } 
+         else {
+            dataBlockTable = snapshot.dataBlockTable.clone();
+            kernelDataBlockTable = snapshot.kernelDataBlockTable.clone();
+            stackBlockTable = snapshot.stackBlockTable.clone();
+            memoryMapBlockTable = snapshot.memoryMapBlockTable.clone();
+            sparseTables = copySparseTables(snapshot.sparseTables);
+         }
+         releaseSegments();
+         if (snapshot.dataSegment != null) {
+            dataSegment = snapshot.dataSegment.copy();
+            stackSegment = snapshot.stackSegment.copy();
+         }
+         if (snapshot != lastSnapshot || !textShared) {
+            textBlockTable = snapshot.textBlockTable.clone();
+            kernelTextBlockTable = snapshot.kernelTextBlockTable.clone();
+            decodedInstructions.clear();
+         }
+         generation = nextGeneration();
+         textShared = true;
+         lastSnapshot = snapshot;
+         dirtyCount = 0;
+      }
+   
+     /**
+      * The contents of a Memory at the time of a call to snapshot().
+   	*/
+       public static final class Snapshot {
+         private Memory memory;
+         private int[][] dataBlockTable, kernelDataBlockTable, stackBlockTable, memoryMapBlockTable;
+         private ProgramStatement[][] textBlockTable, kernelTextBlockTable;
+         private int[][][] sparseTables;
+         private OffHeapSegment dataSegment, stackSegment;
+      
+          private Snapshot(Memory memory) {
+            this.memory = memory;
+            if (memory.dataSegment != null) {
+               dataSegment = memory.dataSegment.copy();
+               stackSegment = memory.stackSegment.copy();
+            }
+            dataBlockTable = memory.dataBlockTable.clone();
+            kernelDataBlockTable = memory.kernelDataBlockTable.clone();
+            stackBlockTable = memory.stackBlockTable.clone();
+            memoryMapBlockTable = memory.memoryMapBlockTable.clone();
+            sparseTables = copySparseTables(memory.sparseTables);
+            textBlockTable = memory.textBlockTable.clone();
+            kernelTextBlockTable = memory.kernelTextBlockTable.clone();
+         }
+      
+          private int[][] tableNumbered(int table) {
+            switch (table) {
+               case 0 : 
+                  return dataBlockTable;
+               case 1 : 
+                  return kernelDataBlockTable;
+               case 2 : 
+                  return stackBlockTable;
+               case 3 : 
+                  return memoryMapBlockTable;
+               default : 
+                  return sparseTables[table - SPARSE_TABLE_NUMBER];
+            }
+         }
+      }
+   
+      // Generations are unique across all Memory objects so blocks shared by a copy are
+   	// not writable by either one.
+       private static synchronized int nextGeneration() {
+         return ++lastGeneration;
+      }
+   
+      // Table numbers used in dirtyBlocks.
+       private int[][] tableNumbered(int table) {
+         switch (table) {
+            case 0 : 
+               return dataBlockTable;
+            case 1 : 
+               return kernelDataBlockTable;
+            case 2 : 
+               return stackBlockTable;
+            case 3 : 
+               return memoryMapBlockTable;
+            default : 
+               return sparseTables[table - SPARSE_TABLE_NUMBER];
+         }
+      }
+   
+       private int tableNumber(int[][] blockTable) {
+         if (blockTable == dataBlockTable) 
+            return 0;
+         if (blockTable == kernelDataBlockTable) 
+            return 1;
+         if (blockTable == stackBlockTable) 
+            return 2;
+         if (blockTable == memoryMapBlockTable) 
+            return 3;
+         for (int region = 0; region < sparseTables.length; region++) {
+            if (blockTable == sparseTables[region]) 
+               return SPARSE_TABLE_NUMBER + region;
+         }
+         throw new IllegalArgumentException("not a block table of this Memory");
+      }
+   
+      // Copies the region array and each region table, sharing the blocks.
+       private static int[][][] copySparseTables(int[][][] tables) {
+         if (tables == null) {
+            return null;
+         }
+         int[][][] copy = new int[tables.length][][];
+         for (int region = 0; region < tables.length; region++) {
+            if (tables[region] != null) {
+               copy[region] = tables[region].clone();
+            }
+         }
+         return copy;
+      }
+   
+      // Returns the given block ready to be written: allocated if it does not exist yet,
+   	// or copied if it is shared with a snapshot or copy.  The table accessors are not
+   	// synchronized; a block that is already writable is used as is, and only allocating
+   	// or copying a block takes the lock.  The new block is filled in completely before it
+   	// is published in the table, so a reader on another thread (a tool, the GUI) sees
+   	// either the old block or the complete new one.
+       private int[] writableBlock(int[][] blockTable, int block) {
+         int[] words = blockTable[block];
+         if (words != null && words[BLOCK_LENGTH_WORDS] == generation) {
+            return words;
+         }
+         return newWritableBlock(blockTable, block);
+      }
+   
+       private synchronized int[] newWritableBlock(int[][] blockTable, int block) {
+         int[] words = blockTable[block];
+         if (words != null && words[BLOCK_LENGTH_WORDS] == generation) {
+            return words; // another thread got here first
+         }
+         int[] newWords = new int[BLOCK_LENGTH_WORDS + 1];
+         if (words != null) {
+            System.arraycopy(words, 0, newWords, 0, BLOCK_LENGTH_WORDS);
+         }
+         newWords[BLOCK_LENGTH_WORDS] = generation;
+         blockTable[block] = newWords;
+         if (dirtyCount == dirtyBlocks.length) {
+            int[] newDirtyBlocks = new int[dirtyCount * 2];
+            System.arraycopy(dirtyBlocks, 0, newDirtyBlocks, 0, dirtyCount);
+            dirtyBlocks = newDirtyBlocks;
+         }
+         dirtyBlocks[dirtyCount++] = (tableNumber(blockTable) << 16) | block;
+         return newWords;
+      }
+   
+     /**
+      * Writes the contents of this Memory to a checkpoint.  Only allocated blocks are
+   	* written.  Text segment statements are written as binary machine code.
+   	* @param out destination of the checkpoint data
+   	* @throws IOException if the data cannot be written
+   	*/
+   	
+       public synchronized void writeCheckpoint(ChannelOutput out) throws IOException {
+         out.writeString(MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier());
+         if (dataSegment != null) {
+            dataSegment.writeCheckpoint(out);
+            writeTable(out, kernelDataBlockTable);
+            stackSegment.writeCheckpoint(out);
+         } 
+         else {
+            writeTable(out, dataBlockTable);
+            writeTable(out, kernelDataBlockTable);
+            writeTable(out, stackBlockTable);
+         }
+         writeTable(out, memoryMapBlockTable);
+         writeTable(out, textBlockTable);
+         writeTable(out, kernelTextBlockTable);
+         if (sparseTables != null) {
+            int count = 0;
+            for (int region = 0; region < sparseTables.length; region++) {
+               if (sparseTables[region] != null) 
+                  count++;
+            }
+            out.writeInt(count);
+            for (int region = 0; region < sparseTables.length; region++) {
+               if (sparseTables[region] != null) {
+                  out.writeInt(region);
+                  writeTable(out, sparseTables[region]);
+               }
+            }
+         }
+      }
+   
+     /**
+      * Replaces the contents of this Memory with those read from a checkpoint written by
+   	* writeCheckpoint().  Where the text segment already holds a statement with the same
+   	* binary code, as it does when the same program has been assembled, that statement is
+   	* kept so its source code remains available.  Observers are not notified.
+   	* @param in source of the checkpoint data
+   	* @throws IOException if the data cannot be read, is invalid, or was written using a
+   	* different memory configuration
+   	*/
+   	
+       public synchronized void readCheckpoint(ChannelInput in) throws IOException {
+         String configuration = in.readString();
+         if (!MemoryConfigurations.getCurrentConfiguration().getConfigurationIdentifier().equals(configuration)) {
+            throw new IOException("checkpoint was saved using memory configuration " + configuration);
+         }
+         generation = nextGeneration();
+         OffHeapSegment newDataSegment = null, newStackSegment = null;
+         int[][] newDataBlockTable, newKernelDataBlockTable, newStackBlockTable;
+         if (dataSegment != null) {
+            newDataSegment = newSegment();
+            newDataSegment.readCheckpoint(in);
+            newDataBlockTable = new int[BLOCK_TABLE_LENGTH][];
+            newKernelDataBlockTable = readTable(in, BLOCK_TABLE_LENGTH);
+            newStackSegment = newSegment();
+            newStackSegment.readCheckpoint(in);
+            newStackBlockTable = new int[BLOCK_TABLE_LENGTH][];
+         } 
+         else {
+            newDataBlockTable = readTable(in, BLOCK_TABLE_LENGTH);
+            newKernelDataBlockTable = readTable(in, BLOCK_TABLE_LENGTH);
+            newStackBlockTable = readTable(in, BLOCK_TABLE_LENGTH);
+         }
+         int[][] newMemoryMapBlockTable = readTable(in, MMIO_TABLE_LENGTH);
+         ProgramStatement[][] newTextBlockTable = readTable(in, textBlockTable, textBaseAddress);
+         ProgramStatement[][] newKernelTextBlockTable = readTable(in, kernelTextBlockTable, kernelTextBaseAddress);
+         int[][][] newSparseTables = null;
+         if (sparseTables != null) {
+            newSparseTables = new int[sparseTables.length][][];
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+               int region = in.readInt();
+               if (region < 0 || region >= newSparseTables.length) {
+                  throw new IOException("invalid memory region " + region + " in checkpoint");
+               }
+               newSparseTables[region] = readTable(in, BLOCK_TABLE_LENGTH);
+            }
+         }
+         if (dataSegment != null) {
+            releaseSegments();
+            dataSegment = newDataSegment;
+            stackSegment = newStackSegment;
+         }
+         dataBlockTable = newDataBlockTable;
+         kernelDataBlockTable = newKernelDataBlockTable;
+         stackBlockTable = newStackBlockTable;
+         memoryMapBlockTable = newMemoryMapBlockTable;
+         textBlockTable = newTextBlockTable;
+         kernelTextBlockTable = newKernelTextBlockTable;
+         sparseTables = newSparseTables;
+         textShared = false;
+         lastSnapshot = null;
+         dirtyCount = 0;
+         decodedInstructions.clear();
+      }
+   
+      // Checkpoint format of a data block table: number of allocated blocks, then the
+   	// index and words of each.
+       private static void writeTable(ChannelOutput out, int[][] blockTable) throws IOException {
+         int count = 0;
+         for (int i = 0; i < blockTable.length; i++) {
+            if (blockTable[i] != null) 
+               count++;
+         }
+         out.writeInt(count);
+         for (int i = 0; i < blockTable.length; i++) {
+            if (blockTable[i] != null) {
+               out.writeInt(i);
+               out.writeInts(blockTable[i], 0, BLOCK_LENGTH_WORDS);
+            }
+         }
+      }
+   
+       private int[][] readTable(ChannelInput in, int length) throws IOException {
+         int[][] blockTable = new int[length][];
+         int count = in.readInt();
+         for (int i = 0; i < count; i++) {
+            int block = in.readInt();
+            if (block < 0 || block >= length) {
+               throw new IOException("invalid memory block " + block + " in checkpoint");
+            }
+            blockTable[block] = new int[BLOCK_LENGTH_WORDS + 1];
+            in.readInts(blockTable[block], 0, BLOCK_LENGTH_WORDS);
+            blockTable[block][BLOCK_LENGTH_WORDS] = generation;
+         }
+         return blockTable;
+      }
+   
+      // Checkpoint format of a text block table: number of allocated blocks, then for
+   	// each its index, a bit map of the words holding a statement, and the binary
+   	// code of those statements.
+       private static void writeTable(ChannelOutput out, ProgramStatement[][] blockTable) throws IOException {
+         int count = 0;
+         for (int i = 0; i < blockTable.length; i++) {
+            if (blockTable[i] != null) 
+               count++;
+         }
+         out.writeInt(count);
+         int[] present = new int[TEXT_BLOCK_LENGTH_WORDS / 32];
+         int[] binary = new int[TEXT_BLOCK_LENGTH_WORDS];
+         for (int i = 0; i < blockTable.length; i++) {
+            if (blockTable[i] == null) 
+               continue;
+            Arrays.fill(present, 0);
+            int words = 0;
+            for (int offset = 0; offset < TEXT_BLOCK_LENGTH_WORDS; offset++) {
+               if (blockTable[i][offset] != null) {
+                  present[offset >> 5] |= 1 << (offset & 31);
+                  binary[words++] = blockTable[i][offset].getBinaryStatement();
+               }
+            }
+            out.writeInt(i);
+            out.writeInts(present, 0, present.length);
+            out.writeInts(binary, 0, words);
+         }
+      }
+   
+       private static ProgramStatement[][] readTable(ChannelInput in, ProgramStatement[][] current, int baseAddress) throws IOException {
+         ProgramStatement[][] blockTable = new ProgramStatement[TEXT_BLOCK_TABLE_LENGTH][];
+         int count = in.readInt();
+         int[] present = new int[TEXT_BLOCK_LENGTH_WORDS / 32];
+         int[] binary = new int[TEXT_BLOCK_LENGTH_WORDS];
+         for (int i = 0; i < count; i++) {
+            int block = in.readInt();
+            if (block < 0 || block >= TEXT_BLOCK_TABLE_LENGTH) {
+               throw new IOException("invalid text block " + block + " in checkpoint");
+            }
+            in.readInts(present, 0, present.length);
+            int words = 0;
+            for (int j = 0; j < present.length; j++) {
+               words += Integer.bitCount(present[j]);
+            }
+            in.readInts(binary, 0, words);
+            blockTable[block] = new ProgramStatement[TEXT_BLOCK_LENGTH_WORDS];
+            int word = 0;
+            for (int offset = 0; offset < TEXT_BLOCK_LENGTH_WORDS; offset++) {
+               if ((present[offset >> 5] & (1 << (offset & 31))) == 0) 
+                  continue;
+               ProgramStatement existing = (current[block] == null) ? null : current[block][offset];
+               if (existing != null && existing.getBinaryStatement() == binary[word]) {
+                  blockTable[block][offset] = existing;
+               } 
+               else {
+                  int address = baseAddress + (block * TEXT_BLOCK_LENGTH_WORDS + offset) * WORD_LENGTH_BYTES;
+                  blockTable[block][offset] = new ProgramStatement(binary[word], address);
+               }
+               word++;
+            }
+         }
+         return blockTable;
+      }
+   
+      // Copy of a text block table with each allocated block copied (statements are shared).
+       private static ProgramStatement[][] copyTable(ProgramStatement[][] table) {
+         ProgramStatement[][] copy = new ProgramStatement[table.length][];
+         for (int i = 0; i < table.length; i++) {
+            if (table[i] != null) {
+               copy[i] = table[i].clone();
+            }
+         }
+         return copy;
+      }
    	
    	/**
    	 * Explicitly clear the contents of memory.  Typically done at start of assembly.
@@ -245,21 +776,26 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          kernelDataBaseAddress = MemoryConfigurations.getCurrentConfiguration().getKernelDataBaseAddress(); //0x90000000;
          memoryMapBaseAddress = MemoryConfigurations.getCurrentConfiguration().getMemoryMapBaseAddress(); //0xffff0000;
          kernelHighAddress = MemoryConfigurations.getCurrentConfiguration().getKernelHighAddress(); //0xffffffff;		
-         dataSegmentLimitAddress = Math.min(MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress(),
-                                      dataSegmentBaseAddress + 
-            								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
+         sparseConfiguration = MemoryConfigurations.getCurrentConfiguration().isSparse();
+         // A sparse configuration is not limited by table sizes, except for the text segments.
+         int segmentBlocks = sparseConfiguration ? (1 << (32 - REGION_SHIFT)) * BLOCK_TABLE_LENGTH
+                           : (backing == HEAP_BACKING) ? BLOCK_TABLE_LENGTH : OFF_HEAP_BLOCK_TABLE_LENGTH;
+         long segmentBytes = (long) BLOCK_LENGTH_WORDS * segmentBlocks * WORD_LENGTH_BYTES;
+         dataSegmentLimitAddress = (int) Math.min(MemoryConfigurations.getCurrentConfiguration().getDataSegmentLimitAddress(),
+                                      dataSegmentBaseAddress + segmentBytes);
          textLimitAddress        = Math.min(MemoryConfigurations.getCurrentConfiguration().getTextLimitAddress(),
                                       textBaseAddress + 
             								  TEXT_BLOCK_LENGTH_WORDS * TEXT_BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);																  
-         kernelDataSegmentLimitAddress = Math.min(MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress(),
+         kernelDataSegmentLimitAddress = sparseConfiguration 
+                                    ? MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress()
+                                    : Math.min(MemoryConfigurations.getCurrentConfiguration().getKernelDataSegmentLimitAddress(),
                                       kernelDataBaseAddress + 
             								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
          kernelTextLimitAddress  = Math.min(MemoryConfigurations.getCurrentConfiguration().getKernelTextLimitAddress(),
                                       kernelTextBaseAddress + 
             								  TEXT_BLOCK_LENGTH_WORDS * TEXT_BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);																  
-         stackLimitAddress       = Math.max(MemoryConfigurations.getCurrentConfiguration().getStackLimitAddress(),
-                                      stackBaseAddress - 
-            								  BLOCK_LENGTH_WORDS * BLOCK_TABLE_LENGTH * WORD_LENGTH_BYTES);
+         stackLimitAddress       = (int) Math.max(MemoryConfigurations.getCurrentConfiguration().getStackLimitAddress(),
+                                      stackBaseAddress - segmentBytes);
          memoryMapLimitAddress   = Math.min(MemoryConfigurations.getCurrentConfiguration().getMemoryMapLimitAddress(),
                                       memoryMapBaseAddress + 
                                  	  BLOCK_LENGTH_WORDS * MMIO_TABLE_LENGTH * WORD_LENGTH_BYTES);
@@ -270,6 +806,60 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	System.out.println("stackLimitAddress "+Binary.intToHexString(stackLimitAddress));
       	System.out.println("memoryMapLimitAddress "+Binary.intToHexString(memoryMapLimitAddress));
       */
+         buildPageSegments();
+      }
+   
+      // Rebuilds pageSegments for the current segment addresses, unless they are unchanged.
+       private static void buildPageSegments() {
+         // Addresses at which the segment of an address can change.  The stack range is
+      	// (stackLimitAddress, stackBaseAddress], the others are [base, limit).
+         long[] boundaries = { dataSegmentBaseAddress, dataSegmentLimitAddress, 
+               stackLimitAddress + 1L, stackBaseAddress + 1L, textBaseAddress, textLimitAddress,
+               memoryMapBaseAddress, memoryMapLimitAddress, kernelDataBaseAddress, kernelDataSegmentLimitAddress,
+               kernelTextBaseAddress, kernelTextLimitAddress, sparseConfiguration ? 1 : 0 };
+         if (pageSegments != null && Arrays.equals(boundaries, pageSegmentsBoundaries)) {
+            return;
+         }
+         byte[] segments = new byte[1 << (32 - PAGE_SHIFT)];
+         for (int page = 0; page < segments.length; page++) {
+            segments[page] = classify(page << PAGE_SHIFT);
+         }
+         for (int i = 0; i < boundaries.length - 1; i++) {
+            int boundary = (int) boundaries[i];
+            if ((boundary & ((1 << PAGE_SHIFT) - 1)) != 0) {
+               segments[boundary >>> PAGE_SHIFT] = MIXED_PAGE;
+            }
+         }
+         pageSegments = segments;
+         pageSegmentsBoundaries = boundaries;
+      }
+   
+      // Segment of an address, by testing the segment ranges in the order the accessors
+   	// have always used.  Only used to build pageSegments and for MIXED_PAGE pages.
+       private static byte classify(int address) {
+         if (sparseConfiguration) {
+            return inTextSegment(address) ? TEXT_SEGMENT 
+                 : inKernelTextSegment(address) ? KERNEL_TEXT_SEGMENT : SPARSE_SEGMENT;
+         }
+         if (inDataSegment(address)) 
+            return DATA_SEGMENT;
+         if (address > stackLimitAddress && address <= stackBaseAddress) 
+            return STACK_SEGMENT;
+         if (inTextSegment(address)) 
+            return TEXT_SEGMENT;
+         if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) 
+            return MEMORY_MAP_SEGMENT;
+         if (inKernelDataSegment(address)) 
+            return KERNEL_DATA_SEGMENT;
+         if (inKernelTextSegment(address)) 
+            return KERNEL_TEXT_SEGMENT;
+         return NO_SEGMENT;
+      }
+   
+      // Segment of an address, one of the constants above except MIXED_PAGE.
+       private static int segmentOf(int address) {
+         int segment = pageSegments[address >>> PAGE_SHIFT];
+         return (segment == MIXED_PAGE) ? classify(address) : segment;
       }
    
    
@@ -292,12 +882,24 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          kernelDataBlockTable  = new int[BLOCK_TABLE_LENGTH][];      
          stackBlockTable = new int[BLOCK_TABLE_LENGTH][];
          memoryMapBlockTable = new int[MMIO_TABLE_LENGTH][];
+         sparseTables = sparseConfiguration ? new int[1 << (32 - REGION_SHIFT)][][] : null;
+         releaseSegments();
+         if (backing != HEAP_BACKING && !sparseConfiguration) {
+            dataSegment = newSegment();
+            stackSegment = newSegment();
+         }
+         decodedInstructions.clear();
+         generation = nextGeneration();
+         textShared = false;
+         lastSnapshot = null;
+         dirtyCount = 0;
          System.gc(); // call garbage collector on any Table memory just deallocated. 	  
       }  
      
    	/**
    	 * Returns the next available word-aligned heap address.  There is no recycling and
-   	 * no heap management!  There is however nearly 4MB of heap space available in Mars.
+   	 * no heap management!  There is however nearly 4MB of heap space available in Mars
+   	 * (up to 256MB with off-heap backing, see setBacking()).
    	 *
    	 * @param numBytes Number of bytes requested.  Should be multiple of 4, otherwise next higher multiple of 4 allocated.
    	 * @return address of allocated heap storage. 
@@ -329,6 +931,59 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          byteOrder = order;
       }
    	
+     /**
+      * Set the backing storage of the data and stack segments: HEAP_BACKING, DIRECT_BACKING 
+   	* or MAPPED_BACKING.  Takes effect at the next clear(), which also applies the segment
+   	* size limits of the new backing.  The default is given by the MemoryBacking property.
+   	*
+   	* @param newBacking one of the backing storage constants
+   	*/
+       public static void setBacking(int newBacking) {
+         if (newBacking < HEAP_BACKING || newBacking > MAPPED_BACKING) {
+            throw new IllegalArgumentException("unknown memory backing " + newBacking);
+         }
+         backing = newBacking;
+      }
+   	
+     /**
+      * Retrieve the backing storage of the data and stack segments.
+   	*
+   	* @return HEAP_BACKING, DIRECT_BACKING or MAPPED_BACKING
+   	*/
+       public static int getBacking() {
+         return backing;
+      }
+   	
+     /**
+      * Look up a backing storage constant by name: "heap", "direct" or "mapped".
+   	*
+   	* @param name name of the backing, not case sensitive
+   	* @return the backing storage constant, or HEAP_BACKING if the name is null or unknown
+   	*/
+       public static int getBacking(String name) {
+         for (int i = 0; i < backingNames.length; i++) {
+            if (backingNames[i].equalsIgnoreCase(name)) {
+               return i;
+            }
+         }
+         return HEAP_BACKING;
+      }
+   	
+      // New empty off-heap segment for the current backing.
+       private static OffHeapSegment newSegment() {
+         return new OffHeapSegment(OFF_HEAP_BLOCK_TABLE_LENGTH, backing == MAPPED_BACKING);
+      }
+   
+      // Frees the off-heap segments, if any.  They are owned by this Memory only: copies
+   	// and snapshots get segments of their own.
+       private void releaseSegments() {
+         if (dataSegment != null) {
+            dataSegment.release();
+            stackSegment.release();
+            dataSegment = stackSegment = null;
+         }
+      }
+   	
      /**
       * Retrieve memory byte order.  Default is LITTLE_ENDIAN (like PCs).
    	*
@@ -356,21 +1011,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     
    // Allocates blocks if necessary.
        public int set(int address, int value, int length) throws AddressErrorException {
-         int oldValue = 0;
          if (Globals.debug) System.out.println("memory["+address+"] set to "+value+"("+length+" bytes)");
+         int oldValue = store(address, value, length);
+         if (pageAccessCounts != null) pageAccessCounts.countWrite(address);
+         notifyAnyObservers(AccessNotice.WRITE, address, length, value);
+         return oldValue;
+      }
+   	
+   	// Does the real work of set(), without counting the access or notifying observers.
+       private int store(int address, int value, int length) throws AddressErrorException {
+         int oldValue = 0;
          int relativeByteAddress;
-         if (inDataSegment(address)) {
+         int segment = segmentOf(address);
+         if (segment == SPARSE_SEGMENT) {
+           // sparse address space: the address selects region table, block and word.
+            oldValue = storeOrFetchSparse(address, length, value, STORE);
+         } 
+         else if (segment == DATA_SEGMENT) {
            // in data segment.  Will write one byte at a time, w/o regard to boundaries.
             relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
             oldValue = storeBytesInTable(dataBlockTable, relativeByteAddress, length, value);
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
+         else if (segment == STACK_SEGMENT) {
            // in stack.  Handle similarly to data segment write, except relative byte
            // address calculated "backward" because stack addresses grow down from base.
             relativeByteAddress = stackBaseAddress - address; 
             oldValue = storeBytesInTable(stackBlockTable, relativeByteAddress, length, value);
          } 
-         else if (inTextSegment(address)) {
+         else if (segment == TEXT_SEGMENT) {
            // Burch Mod (Jan 2013): replace throw with call to setStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
          
@@ -387,17 +1055,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_STORE, address);
             }
          } 
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
+         else if (segment == MEMORY_MAP_SEGMENT) {
            // memory mapped I/O.
             relativeByteAddress = address - memoryMapBaseAddress;
             oldValue = storeBytesInTable(memoryMapBlockTable, relativeByteAddress, length, value);
          }
-         else if (inKernelDataSegment(address)) {
+         else if (segment == KERNEL_DATA_SEGMENT) {
            // in kernel data segment.  Will write one byte at a time, w/o regard to boundaries.
             relativeByteAddress = address - kernelDataBaseAddress; // relative to data segment start, in bytes
             oldValue = storeBytesInTable(kernelDataBlockTable, relativeByteAddress, length, value);
          } 
-         else if (inKernelTextSegment(address)) {
+         else if (segment == KERNEL_TEXT_SEGMENT) {
            // DEVELOPER: PLEASE USE setStatement() TO WRITE TO KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                "DEVELOPER: You must use setStatement() to write to kernel text segment!", 
@@ -408,7 +1076,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
-         notifyAnyObservers(AccessNotice.WRITE, address, length, value);
          return oldValue;
       }
    	
@@ -429,18 +1096,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("store address not aligned on word boundary ",
                Exceptions.ADDRESS_EXCEPTION_STORE, address);
          }
-         if (inDataSegment(address)) {
+         int segment = segmentOf(address);
+         if (segment == SPARSE_SEGMENT) {
+           // sparse address space: the address selects region table, block and word.
+            oldValue = storeWordSparse(address, value);
+         } 
+         else if (segment == DATA_SEGMENT) {
            // in data segment
             relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
             oldValue = storeWordInTable(dataBlockTable, relative, value);
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
+         else if (segment == STACK_SEGMENT) {
            // in stack.  Handle similarly to data segment write, except relative 
            // address calculated "backward" because stack addresses grow down from base.
             relative = (stackBaseAddress - address) >> 2; // convert byte address to words
             oldValue = storeWordInTable(stackBlockTable, relative, value);
          }
-         else if (inTextSegment(address)) {	
+         else if (segment == TEXT_SEGMENT) {	
            // Burch Mod (Jan 2013): replace throw with call to setStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
             if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
@@ -456,17 +1128,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_STORE, address);
             }
          } 
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
+         else if (segment == MEMORY_MAP_SEGMENT) {
            // memory mapped I/O.
             relative = (address - memoryMapBaseAddress) >> 2; // convert byte address to word
             oldValue = storeWordInTable(memoryMapBlockTable, relative, value);
          }
-         else if (inKernelDataSegment(address)) {
+         else if (segment == KERNEL_DATA_SEGMENT) {
            // in data segment
             relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
             oldValue = storeWordInTable(kernelDataBlockTable, relative, value);
          }
-         else if (inKernelTextSegment(address)) {
+         else if (segment == KERNEL_TEXT_SEGMENT) {
            // DEVELOPER: PLEASE USE setStatement() TO WRITE TO KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                	"DEVELOPER: You must use setStatement() to write to kernel text segment!", 
@@ -477,6 +1149,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("store address out of range ",
                Exceptions.ADDRESS_EXCEPTION_STORE,	address);
          }
+         if (pageAccessCounts != null) pageAccessCounts.countWrite(address);
          notifyAnyObservers(AccessNotice.WRITE, address, WORD_LENGTH_BYTES, value);
          if (Globals.getSettings().getBackSteppingEnabled()) {
             Globals.program.getBackStepper().addMemoryRestoreRawWord(address,oldValue);
@@ -558,6 +1231,39 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          oldLowOrder  = set(address, Binary.lowOrderLongToInt(longValue),4);
          return Double.longBitsToDouble(Binary.twoIntsToLong(oldHighOrder, oldLowOrder)); 
       }
+   
+    ///////////////////////////////////////////////////////////////////////////////////////
+    /** 
+     *  Writes bytes from an array into consecutive Memory bytes.  This is the bulk 
+     *  equivalent of calling setByte() for each byte, for syscalls and the assembler:
+     *  data segment blocks are written a word at a time, and observers of the range get
+     *  a single notice giving its starting address and length, with value 0.  If an 
+     *  address in the range is invalid, the bytes before it are written and observers
+     *  are notified of those before the exception is thrown.
+     * 
+     * @param address Address of the first Memory byte to be set.
+     * @param bytes Array holding the bytes to be stored.
+     * @param offset Index in the array of the first byte to be stored.
+     * @param length Number of bytes to be stored.
+     * @throws AddressErrorException If an address in the range is invalid.
+     **/
+       public void writeBytes(int address, byte[] bytes, int offset, int length) throws AddressErrorException {
+         transferBytes(address, bytes, offset, length, 0, STORE, false);
+      }
+   
+    ///////////////////////////////////////////////////////////////////////////////////////
+    /** 
+     *  Writes the low order 8 bits of the given value into consecutive Memory bytes.  Works
+     *  like writeBytes(), except that the notice observers get has the byte as its value.
+     * 
+     * @param address Address of the first Memory byte to be set.
+     * @param value Value to be stored in every byte.  Only low order 8 bits used.
+     * @param length Number of bytes to be set.
+     * @throws AddressErrorException If an address in the range is invalid.
+     **/
+       public void fill(int address, int value, int length) throws AddressErrorException {
+         transferBytes(address, null, 0, length, value & 0xFF, STORE, false);
+      }
    	 
    
    ////////////////////////////////////////////////////////////////////////////////
@@ -579,6 +1285,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (Globals.debug) System.out.println("memory["+address+"] set to "+statement.getBinaryStatement());
          if (inTextSegment(address)) {
             storeProgramStatement(address, statement, textBaseAddress, textBlockTable);
+            decodedInstructions.invalidate(address);
          } 
          else {
             storeProgramStatement(address, statement, kernelTextBaseAddress, kernelTextBlockTable);
@@ -607,23 +1314,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        private int get(int address, int length, boolean notify) throws AddressErrorException {
          int value = 0;
          int relativeByteAddress;
-         if (inDataSegment(address)) {
+         int segment = segmentOf(address);
+         if (segment == SPARSE_SEGMENT) {
+           // sparse address space: the address selects region table, block and word.
+            value = storeOrFetchSparse(address, length, 0, FETCH);
+         } 
+         else if (segment == DATA_SEGMENT) {
            // in data segment.  Will read one byte at a time, w/o regard to boundaries.
             relativeByteAddress = address - dataSegmentBaseAddress; // relative to data segment start, in bytes
             value = fetchBytesFromTable(dataBlockTable, relativeByteAddress, length);
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
+         else if (segment == STACK_SEGMENT) {
            // in stack. Similar to data, except relative address computed "backward"
             relativeByteAddress = stackBaseAddress - address;
             value = fetchBytesFromTable(stackBlockTable, relativeByteAddress, length);
          } 
          
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
+         else if (segment == MEMORY_MAP_SEGMENT) {
            // memory mapped I/O.
             relativeByteAddress = address - memoryMapBaseAddress;
             value = fetchBytesFromTable(memoryMapBlockTable, relativeByteAddress, length);
          }
-         else if (inTextSegment(address)) {
+         else if (segment == TEXT_SEGMENT) {
            // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
             if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
@@ -636,12 +1348,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
             }
          } 
-         else if (inKernelDataSegment(address)) {
+         else if (segment == KERNEL_DATA_SEGMENT) {
            // in kernel data segment.  Will read one byte at a time, w/o regard to boundaries.
             relativeByteAddress = address - kernelDataBaseAddress; // relative to data segment start, in bytes
             value = fetchBytesFromTable(kernelDataBlockTable, relativeByteAddress, length);
          } 
-         else if (inKernelTextSegment(address)) {
+         else if (segment == KERNEL_TEXT_SEGMENT) {
            // DEVELOPER: PLEASE USE getStatement() TO READ FROM KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                "DEVELOPER: You must use getStatement() to read from kernel text segment!", 
@@ -652,7 +1364,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (notify) notifyAnyObservers(AccessNotice.READ, address, length, value);
+         if (notify) {
+            if (pageAccessCounts != null) pageAccessCounts.countRead(address);
+            notifyAnyObservers(AccessNotice.READ, address, length, value);
+         }
          return value;
       }
    
@@ -680,22 +1395,27 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address for fetch not aligned on word boundary",
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (inDataSegment(address)) {
+         int segment = segmentOf(address);
+         if (segment == SPARSE_SEGMENT) {
+           // sparse address space: the address selects region table, block and word.
+            value = fetchWordSparse(address);
+         } 
+         else if (segment == DATA_SEGMENT) {
            // in data segment
             relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
             value = fetchWordFromTable(dataBlockTable, relative);
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
+         else if (segment == STACK_SEGMENT) {
            // in stack. Similar to data, except relative address computed "backward"
             relative = (stackBaseAddress - address) >> 2; // convert byte address to words
             value = fetchWordFromTable(stackBlockTable, relative);
          }
-         else if (address >= memoryMapBaseAddress && address < memoryMapLimitAddress) {
+         else if (segment == MEMORY_MAP_SEGMENT) {
            // memory mapped I/O.
             relative = (address - memoryMapBaseAddress) >> 2;
             value = fetchWordFromTable(memoryMapBlockTable, relative);
          }
-         else if (inTextSegment(address)) {
+         else if (segment == TEXT_SEGMENT) {
            // Burch Mod (Jan 2013): replace throw with calls to getStatementNoNotify & getBinaryStatement 
            // DPS adaptation 5-Jul-2013: either throw or call, depending on setting
             if (Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)) {
@@ -708,12 +1428,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
             }
          }  
-         else if (inKernelDataSegment(address)) {
+         else if (segment == KERNEL_DATA_SEGMENT) {
            // in kernel data segment
             relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
             value = fetchWordFromTable(kernelDataBlockTable, relative);
          } 
-         else if (inKernelTextSegment(address)) {
+         else if (segment == KERNEL_TEXT_SEGMENT) {
            // DEVELOPER: PLEASE USE getStatement() TO READ FROM KERNEL TEXT SEGMENT...
             throw new AddressErrorException(
                     "DEVELOPER: You must use getStatement() to read from kernel text segment!",
@@ -724,6 +1444,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address out of range ", 
                Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
+         if (pageAccessCounts != null) pageAccessCounts.countRead(address);
          notifyAnyObservers(AccessNotice.READ, address, Memory.WORD_LENGTH_BYTES,value);
          return value;
       } 
@@ -757,24 +1478,29 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             throw new AddressErrorException("address for fetch not aligned on word boundary",
                   Exceptions.ADDRESS_EXCEPTION_LOAD, address);
          }
-         if (inDataSegment(address)) {
+         int segment = segmentOf(address);
+         if (segment == SPARSE_SEGMENT) {
+           // sparse address space: the address selects region table, block and word.
+            value = fetchWordOrNullSparse(address);
+         } 
+         else if (segment == DATA_SEGMENT) {
               // in data segment
             relative = (address - dataSegmentBaseAddress) >> 2; // convert byte address to words
             value = fetchWordOrNullFromTable(dataBlockTable, relative);
          } 
-         else if (address > stackLimitAddress && address <= stackBaseAddress) {
+         else if (segment == STACK_SEGMENT) {
               // in stack. Similar to data, except relative address computed "backward"
             relative = (stackBaseAddress - address) >> 2; // convert byte address to words
             value = fetchWordOrNullFromTable(stackBlockTable, relative);
          }
-         else if (inTextSegment(address) || inKernelTextSegment(address)) {
+         else if (segment == TEXT_SEGMENT || segment == KERNEL_TEXT_SEGMENT) {
             try { 
                value = (getStatementNoNotify(address) == null) ? null : new Integer(getStatementNoNotify(address).getBinaryStatement());
             } 
                 catch (AddressErrorException aee) { 
                   value = null;               }
          }  
-         else if (inKernelDataSegment(address)) {
+         else if (segment == KERNEL_DATA_SEGMENT) {
               // in kernel data segment
             relative = (address - kernelDataBaseAddress) >> 2; // convert byte address to words
             value = fetchWordOrNullFromTable(kernelDataBlockTable, relative);
@@ -788,6 +1514,124 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return value;
       } 
    
+     /**
+      *  Writes the raw words of an address range to a channel, each as 4 bytes in little-endian
+   	*  order (the binary dump format).  As with getRawWordOrNull(), writing stops at the first 
+   	*  word that returns null.  When the data segment is held in a file-mapped off-heap segment, 
+   	*  its part of the range is transferred directly from the file.  Observers are not notified.
+   	*
+   	*  @param firstAddress address of the first word to write, on a word boundary
+   	*  @param lastAddress address of the last word to write
+   	*  @param out destination channel
+   	*  @return number of bytes written
+   	*  @throws AddressErrorException if firstAddress is not on a word boundary or a word is
+   	*  out of range
+   	*  @throws IOException if the data cannot be written
+   	*/
+       public long transferTo(int firstAddress, int lastAddress, WritableByteChannel out) 
+                               throws AddressErrorException, IOException {
+         if (firstAddress % WORD_LENGTH_BYTES != 0) {
+            throw new AddressErrorException("address for fetch not aligned on word boundary",
+               Exceptions.ADDRESS_EXCEPTION_LOAD, firstAddress);
+         }
+         long words = ((long) lastAddress - firstAddress) / WORD_LENGTH_BYTES + 1;
+         long written = 0;
+         int address = firstAddress;
+         OffHeapSegment segment = dataSegment;
+         if (segment != null && inDataSegment(address) && words > 0) {
+            long inSegment = Math.min(words * WORD_LENGTH_BYTES, (long) dataSegmentLimitAddress - address);
+            written = segment.transferTo(address - dataSegmentBaseAddress, (int) inSegment, out);
+            if (written < inSegment) {
+               return written;
+            }
+            words -= written / WORD_LENGTH_BYTES;
+            address += (int) written;
+         }
+         ByteBuffer buffer = ByteBuffer.allocate(BLOCK_LENGTH_WORDS * WORD_LENGTH_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+         for (; words > 0; words--, address += WORD_LENGTH_BYTES) {
+            Integer word = getRawWordOrNull(address);
+            if (word == null) 
+               break;
+            buffer.putInt(word.intValue());
+            if (!buffer.hasRemaining()) {
+               written += writeFully(buffer, out);
+            }
+         }
+         return written + writeFully(buffer, out);
+      }
+   
+      // Writes the contents of a buffer being filled, leaving it empty.
+       private static int writeFully(ByteBuffer buffer, WritableByteChannel out) throws IOException {
+         buffer.flip();
+         int count = buffer.remaining();
+         while (buffer.hasRemaining()) {
+            out.write(buffer);
+         }
+         buffer.clear();
+         return count;
+      }
+   
+     /**
+      *  Reads raw words of consecutive addresses, as getRawWordOrNull() would return them, 
+   	*  stopping at the first word for which it would return null.  Where the words are held 
+   	*  in the data segment's block table they are copied a block at a time.  Observers are not 
+   	*  notified.  Used by the memory dump formats.
+   	*
+   	*  @param address address of the first word, on a word boundary
+   	*  @param words array to hold the words
+   	*  @param offset index in the array for the first word
+   	*  @param count number of words requested
+   	*  @return number of words read; less than count if a null word or an invalid address
+   	*  was reached
+   	*  @throws AddressErrorException if the first address is not on a word boundary or is
+   	*  out of range
+   	*/
+       public int getRawWords(int address, int[] words, int offset, int count) throws AddressErrorException {
+         int read = 0;
+         while (read < count) {
+            int wordAddress = address + (read << 2);
+            int segment = pageSegments[wordAddress >>> PAGE_SHIFT];
+            int[][] blockTable = null;
+            int relative = 0;
+            if (segment == DATA_SEGMENT && dataSegment == null) {
+               blockTable = dataBlockTable;
+               relative = (wordAddress - dataSegmentBaseAddress) >> 2;
+            } 
+            else if (segment == KERNEL_DATA_SEGMENT) {
+               blockTable = kernelDataBlockTable;
+               relative = (wordAddress - kernelDataBaseAddress) >> 2;
+            } 
+            else if (segment == SPARSE_SEGMENT) {
+               blockTable = sparseTable(wordAddress, false);
+               relative = (wordAddress & REGION_MASK) >> 2;
+            }
+            if (blockTable != null && wordAddress % WORD_LENGTH_BYTES == 0) {
+               int[] block = blockTable[relative / BLOCK_LENGTH_WORDS];
+               if (block == null) {
+                  break;
+               }
+               int n = Math.min(count - read, Math.min(BLOCK_LENGTH_WORDS - relative % BLOCK_LENGTH_WORDS, 
+                                 ((1 << PAGE_SHIFT) - (wordAddress & ((1 << PAGE_SHIFT) - 1))) >> 2));
+               System.arraycopy(block, relative % BLOCK_LENGTH_WORDS, words, offset + read, n);
+               read += n;
+               continue;
+            }
+            Integer word;
+            try {
+               word = getRawWordOrNull(wordAddress);
+            } 
+                catch (AddressErrorException e) {
+                  if (read == 0) 
+                     throw e;
+                  break;
+               }
+            if (word == null) 
+               break;
+            words[offset + read++] = word.intValue();
+         }
+         return read;
+      }
+   
      /**
       *  Look for first "null" memory value in an address range.  For text segment (binary code), this
    	*  represents a word that does not contain an instruction.  Normally use this to find the end of 
@@ -876,6 +1720,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return get(address, 1);
       }
    
+    ///////////////////////////////////////////////////////////////////////////////////////
+    /** 
+     *  Reads consecutive Memory bytes into an array.  This is the bulk equivalent of 
+     *  calling getByte() for each byte, for syscalls: data segment blocks are read a word
+     *  at a time, and observers of the range get a single notice giving its starting 
+     *  address and length, with value 0.
+     * 
+     * @param address Address of the first Memory byte to be read.
+     * @param bytes Array to hold the bytes read.
+     * @param offset Index in the array for the first byte.
+     * @param length Number of bytes to be read.
+     * @throws AddressErrorException If an address in the range is invalid.
+     **/
+       public void readBytes(int address, byte[] bytes, int offset, int length) throws AddressErrorException {
+         transferBytes(address, bytes, offset, length, 0, FETCH, false);
+      }
+   
+    ///////////////////////////////////////////////////////////////////////////////////////
+    /** 
+     *  Reads a null-terminated string, or up to the given number of its bytes, into an 
+     *  array.  Works like readBytes(), except that reading stops after the first null 
+     *  byte; observers are notified of the bytes up to and including it.
+     * 
+     * @param address Address of the first Memory byte to be read.
+     * @param bytes Array to hold the bytes read.
+     * @param offset Index in the array for the first byte.
+     * @param length Maximum number of bytes to be read.
+     * @return Number of bytes read, including the null byte if one was reached.
+     * @throws AddressErrorException If an address before the null byte is invalid.
+     **/
+       public int readString(int address, byte[] bytes, int offset, int length) throws AddressErrorException {
+         return transferBytes(address, bytes, offset, length, 0, FETCH, true);
+      }
+   
    ////////////////////////////////////////////////////////////////////////////////
    /**
     * Gets ProgramStatement from Text Segment.  
@@ -928,6 +1806,59 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	*/
       }
    
+   ////////////////////////////////////////////////////////////////////////////////
+   /**
+    * Gets ProgramStatement to be executed from the given address.  Equivalent to 
+    * getStatement() but first consults the decoded instruction cache, which avoids
+    * the segment checks and block table lookup for statements already executed.
+    * Observers are notified of the fetch just as they are by getStatement().
+    * @param address Address of the instruction to fetch.  Must be word boundary.
+    * @return reference to ProgramStatement object associated with that address, or null if none.
+    * @throws AddressErrorException If address is not on word boundary or is outside Text Segment.
+    * @see DecodedInstructionCache
+    **/
+   
+       public ProgramStatement fetchStatement(int address) throws AddressErrorException {
+         if (pageAccessCounts != null) pageAccessCounts.countFetch(address);
+         ProgramStatement statement = decodedInstructions.getStatement(address);
+         if (statement == null) {
+            statement = getStatement(address, true);
+            decodedInstructions.put(address, statement);
+         } 
+         else {
+            notifyAnyObservers(AccessNotice.READ, address, Instruction.INSTRUCTION_LENGTH, statement.getBinaryStatement());
+         }
+         return statement;
+      }
+   
+   /**
+    * Enables or disables counting of the accesses to each 4K page of this Memory, see
+    * PageAccessCounts.  Enabling starts from zero counts.  The simulator checks whether
+    * counting is enabled when a run starts, so enable it before running the program. 
+    * @param enabled true to count page accesses, false to stop counting and drop the counts
+    */
+       public void setPageAccessCounting(boolean enabled) {
+         pageAccessCounts = enabled ? new PageAccessCounts() : null;
+      }
+   
+   /**
+    * Returns the page access counts of this Memory.
+    * @return the PageAccessCounts, or null if counting is not enabled
+    * @see #setPageAccessCounting(boolean)
+    */
+       public PageAccessCounts getPageAccessCounts() {
+         return pageAccessCounts;
+      }
+   
+   /**
+    * Returns the decoded instruction cache for the user text segment.  Entries are
+    * filled by fetchStatement().
+    * @return the DecodedInstructionCache for this memory
+    */
+       public DecodedInstructionCache getDecodedInstructionCache() {
+         return decodedInstructions;
+      }
+   
    //////////
    
        private ProgramStatement getStatement(int address, boolean notify) throws AddressErrorException {
@@ -1119,13 +2050,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                Exceptions.ADDRESS_EXCEPTION_LOAD, startAddr);
          }
          observables.add(new MemoryObservable(obs, startAddr, endAddr));
+         rebuildObserverIndex();
       }
    
       /**
    	 *  Return number of observers
    	 */
        public int countObservers() {
-         return observables.size();
+         ObserverIndex index = observerIndex;
+         return (index == null) ? 0 : index.observerCount;
       }
    
    	/**
@@ -1137,6 +2070,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          while (it.hasNext()) {
             ((MemoryObservable)it.next()).deleteObserver(obs);
          }	
+         rebuildObserverIndex();
       }
    	
    	/**
@@ -1145,6 +2079,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void deleteObservers() {
          // just drop the collection
          observables = getNewMemoryObserversCollection();
+         rebuildObserverIndex();
       }
    	
    	/**
@@ -1171,6 +2106,81 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        private Collection getNewMemoryObserversCollection() {
          return new Vector();  // Vectors are thread-safe
       }
+   
+      // Replaces the observer index with one built from the current observables.
+      // Observables whose observers have all been deleted are left out.
+       private synchronized void rebuildObserverIndex() {
+         ObserverIndex index = new ObserverIndex();
+         synchronized (observables) {
+            Iterator it = observables.iterator();
+            while (it.hasNext()) {
+               MemoryObservable mo = (MemoryObservable) it.next();
+               if (mo.countObservers() > 0) {
+                  index.add(mo);
+               }
+            }
+         }
+         observerIndex = (index.observerCount > 0) ? index : null;
+      }
+   
+       /////////////////////////////////////////////////////////////////////////
+       // Immutable (once published) index of the observables by address.  Pages are
+   	 // 4K bytes, regions are 4M bytes; both are numbered by unsigned address.  A range
+   	 // with a negative low address and non-negative high address wraps past 0xFFFFFFFF,
+   	 // so it is indexed from its low page up to the last page and from page 0 on.
+       private static class ObserverIndex {
+         private static final int PAGE_SHIFT = 12;
+         private static final int REGION_SHIFT = 22;
+         private final long[] pages = new long[1 << (32 - PAGE_SHIFT - 6)];
+         private final MemoryObservable[][] regions = new MemoryObservable[1 << (32 - REGION_SHIFT)][];
+         private int observerCount; // total observers of the observables added
+      
+          void add(MemoryObservable mo) {
+            observerCount += mo.countObservers();
+            int lastPage = mo.lastAddress() >>> PAGE_SHIFT;
+            int page = mo.lowAddress >>> PAGE_SHIFT;
+            while (true) {
+               pages[page >>> 6] |= 1L << page;
+               if (page == lastPage) {
+                  break;
+               }
+               page = (page + 1) & ((1 << (32 - PAGE_SHIFT)) - 1);
+            }
+            int lastRegion = mo.lastAddress() >>> REGION_SHIFT;
+            int region = mo.lowAddress >>> REGION_SHIFT;
+            while (true) {
+               addToRegion(region, mo);
+               if (region == lastRegion) {
+                  break;
+               }
+               region = (region + 1) & ((1 << (32 - REGION_SHIFT)) - 1);
+            }
+         }
+      
+          private void addToRegion(int region, MemoryObservable mo) {
+            MemoryObservable[] list = regions[region];
+            MemoryObservable[] newList = new MemoryObservable[list == null ? 1 : list.length + 1];
+            if (list != null) {
+               System.arraycopy(list, 0, newList, 0, list.length);
+            }
+            newList[newList.length - 1] = mo;
+            regions[region] = newList;
+         }
+      
+         // Returns the observables whose range includes part of the given 4M region, or null.
+          MemoryObservable[] region(int region) {
+            return regions[region];
+         }
+      
+         // Returns the observables whose region includes the address, or null if 
+      	// no observable includes its page.
+          MemoryObservable[] candidates(int address) {
+            if ((pages[address >>> (PAGE_SHIFT + 6)] & (1L << (address >>> PAGE_SHIFT))) == 0) {
+               return null;
+            }
+            return regions[address >>> REGION_SHIFT];
+         }
+      }
    		
        /////////////////////////////////////////////////////////////////////////
        // Private class whose objects will represent an observable-observer pair 
@@ -1187,6 +2197,26 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
           public boolean match(int address) {
             return (address >= lowAddress && address <= highAddress-1+WORD_LENGTH_BYTES);
          }
+      
+      	// Address of the last byte of the range.
+          int lastAddress() {
+            return highAddress - 1 + WORD_LENGTH_BYTES;
+         }
+      
+      	// Returns the first 4M region, at or after the given one, that the range includes
+      	// part of, or its low region if it includes none of them (wrapping past 0xFFFFFFFF).
+          int firstRegionFrom(int region) {
+            int lowRegion = lowAddress >>> REGION_SHIFT;
+            int lastRegion = lastAddress() >>> REGION_SHIFT;
+            boolean includes = (lowRegion <= lastRegion) 
+               ? (region >= lowRegion && region <= lastRegion)
+               : (region >= lowRegion || region <= lastRegion);
+            return includes ? region : lowRegion;
+         }
+      	
+          public boolean overlaps(int firstAddress, int lastAddress) {
+            return (firstAddress <= highAddress-1+WORD_LENGTH_BYTES && lastAddress >= lowAddress);
+         }
       	
           public void notifyObserver(MemoryAccessNotice notice) {
             this.setChanged();
@@ -1220,19 +2250,191 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    //
    // The "|| Globals.getGui()==null" is a hack added 19 July 2012 DPS.  IF MIPS simulation
    // is from command mode, Globals.program is null but still want ability to observe.
+   // One notice is created per access and shared by all matching observables.
        private void notifyAnyObservers(int type, int address, int length, int value) {
-         if ((Globals.program != null || Globals.getGui()==null) && this.observables.size() > 0) {
-            Iterator it = this.observables.iterator();
-            MemoryObservable mo;
-            while (it.hasNext()) {
-               mo = (MemoryObservable)it.next();
-               if (mo.match(address)) {
-                  mo.notifyObserver(new MemoryAccessNotice(type, address, length, value));
+         ObserverIndex index = observerIndex;
+         if (index == null) {
+            return;
+         }
+         MemoryObservable[] candidates = index.candidates(address);
+         if (candidates != null && (Globals.program != null || Globals.getGui()==null)) {
+            MemoryAccessNotice notice = null;
+            for (int i = 0; i < candidates.length; i++) {
+               if (candidates[i].match(address)) {
+                  if (notice == null) {
+                     notice = new MemoryAccessNotice(type, address, length, value);
+                  }
+                  candidates[i].notifyObserver(notice);
                }
             }
          } 		
       }
    
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Method to notify observers of a range of bytes accessed by readBytes(), writeBytes()
+   // or fill(), with one notice for the whole range.  An observable whose range spans 
+   // several 4M regions is listed in each, so it is only notified from the first region
+   // that it and the accessed range have in common.
+       private void notifyRangeObservers(int type, int address, int length, int value) {
+         ObserverIndex index = observerIndex;
+         if (index == null || !(Globals.program != null || Globals.getGui()==null)) {
+            return;
+         }
+         int last = address + length - 1;
+         MemoryAccessNotice notice = null;
+         for (int region = address >>> REGION_SHIFT; region <= last >>> REGION_SHIFT; region++) {
+            MemoryObservable[] candidates = index.region(region);
+            for (int i = 0; candidates != null && i < candidates.length; i++) {
+               if (candidates[i].overlaps(address, last) 
+                     && candidates[i].firstRegionFrom(address >>> REGION_SHIFT) == region) {
+                  if (notice == null) {
+                     notice = new MemoryAccessNotice(type, address, length, value);
+                  }
+                  candidates[i].notifyObserver(notice);
+               }
+            }
+         }
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Does the work of readBytes(), readString(), writeBytes() and fill(); bytes is null for 
+   // fill(), and toNull is true for readString(), which stops after the first null byte.  A run
+   // of bytes within one page of the data, kernel data or memory-mapped I/O segment, or of
+   // a sparse region, is transferred straight to or from the block table by 
+   // transferBytesInTable().  Other bytes (the stack and text segments, and pages that a 
+   // segment boundary falls inside) go through store() or get() one at a time, as do all 
+   // bytes stored while back-stepping is enabled, so that the old value of each is recorded.
+   // The pages are counted and observers notified once, for the bytes transferred.
+   // Returns the number of bytes transferred.
+   //
+       private int transferBytes(int address, byte[] bytes, int offset, int length, 
+                                 int fill, boolean op, boolean toNull) throws AddressErrorException {
+         BackStepper backStepper = (op == STORE && Globals.getSettings().getBackSteppingEnabled())
+            ? Globals.program.getBackStepper() : null;
+         int done = 0;
+         try {
+            while (done < length) {
+               int byteAddress = address + done;
+               int run = Math.min(length - done, (1 << PAGE_SHIFT) - (byteAddress & ((1 << PAGE_SHIFT) - 1)));
+               int segment = (backStepper == null) ? pageSegments[byteAddress >>> PAGE_SHIFT] : MIXED_PAGE;
+               int[][] blockTable = null;
+               int relativeByteAddress = 0;
+               if (segment == DATA_SEGMENT) {
+                  blockTable = dataBlockTable;
+                  relativeByteAddress = byteAddress - dataSegmentBaseAddress;
+               } 
+               else if (segment == KERNEL_DATA_SEGMENT) {
+                  blockTable = kernelDataBlockTable;
+                  relativeByteAddress = byteAddress - kernelDataBaseAddress;
+               } 
+               else if (segment == MEMORY_MAP_SEGMENT) {
+                  blockTable = memoryMapBlockTable;
+                  relativeByteAddress = byteAddress - memoryMapBaseAddress;
+               } 
+               else if (segment == SPARSE_SEGMENT) {
+                  blockTable = sparseTable(byteAddress, op == STORE);
+                  relativeByteAddress = byteAddress & REGION_MASK;
+                  if (blockTable == null) {
+                     // a region never written reads as zeros, so a string there ends at once
+                     if (toNull) {
+                        run = 1;
+                        length = done + 1; // stops the loop
+                     }
+                     Arrays.fill(bytes, offset + done, offset + done + run, (byte) 0);
+                     done += run;
+                     continue;
+                  }
+               }
+               if (blockTable != null) {
+                  transferBytesInTable(blockTable, relativeByteAddress, bytes, offset + done, run, fill, op);
+               } 
+               else if (op == FETCH) {
+                  bytes[offset + done] = (byte) get(byteAddress, 1, false);
+                  run = 1;
+               } 
+               else {
+                  int value = (bytes == null) ? fill : bytes[offset + done];
+                  int oldValue = store(byteAddress, value, 1);
+                  if (backStepper != null) {
+                     backStepper.addMemoryRestoreByte(byteAddress, oldValue);
+                  }
+                  run = 1;
+               }
+               for (int i = 0; toNull && i < run; i++) {
+                  if (bytes[offset + done + i] == 0) {
+                     length = done + i + 1; // stops the loop
+                     run = i + 1;
+                  }
+               }
+               done += run;
+            }
+         } 
+         finally {
+            if (done > 0) {
+               if (pageAccessCounts != null) {
+                  for (int page = address >>> PAGE_SHIFT; page <= (address + done - 1) >>> PAGE_SHIFT; page++) {
+                     if (op == STORE) 
+                        pageAccessCounts.countWrite(page << PAGE_SHIFT);
+                     else 
+                        pageAccessCounts.countRead(page << PAGE_SHIFT);
+                  }
+               }
+               notifyRangeObservers((op == STORE) ? AccessNotice.WRITE : AccessNotice.READ, 
+                                    address, done, (bytes == null) ? fill : 0);
+            }
+         }
+         return done;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Transfers a run of bytes between an array and a block table (or the off-heap segment
+   // holding it), a word at a time, in the byte order storeOrFetchBytesInTable() uses.  For
+   // fill(), bytes is null and every byte stored is fill.  Relative byte addresses must 
+   // increase with MIPS addresses, so this is not used for the stack.
+   //
+       private void transferBytesInTable(int[][] blockTable, int relativeByteAddress, 
+                                 byte[] bytes, int offset, int length, int fill, boolean op) {
+         OffHeapSegment segment = segmentFor(blockTable);
+         int end = relativeByteAddress + length;
+         while (relativeByteAddress < end) {
+            int relativeWordAddress = relativeByteAddress >> 2;
+            int first = relativeByteAddress & 3;
+            int last = Math.min(4, first + end - relativeByteAddress);
+            int[] words = null;
+            int word;
+            if (segment != null) {
+               word = segment.getWord(relativeWordAddress);
+            } 
+            else {
+               words = (op == STORE) ? writableBlock(blockTable, relativeWordAddress / BLOCK_LENGTH_WORDS)
+                                     : blockTable[relativeWordAddress / BLOCK_LENGTH_WORDS];
+               word = (words == null) ? 0 : words[relativeWordAddress % BLOCK_LENGTH_WORDS];
+            }
+            for (int i = first; i < last; i++) {
+               int shift = (byteOrder == LITTLE_ENDIAN) ? i << 3 : (3 - i) << 3;
+               if (op == STORE) {
+                  int value = (bytes == null) ? fill : bytes[offset++];
+                  word = (word & ~(0xFF << shift)) | ((value & 0xFF) << shift);
+               } 
+               else {
+                  bytes[offset++] = (byte) (word >>> shift);
+               }
+            }
+            if (op == STORE) {
+               if (segment != null) {
+                  segment.setWord(relativeWordAddress, word);
+               } 
+               else {
+                  words[relativeWordAddress % BLOCK_LENGTH_WORDS] = word;
+               }
+            }
+            relativeByteAddress += last - first;
+         }
+      }
+   
    ////////////////////////////////////////////////////////////////////////////////
    //
    // Helper method to store 1, 2 or 4 byte value in table that represents MIPS
@@ -1268,8 +2470,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    // and element byte(s).  This method performs either store or fetch, as directed by its 
    // client using STORE or FETCH in last arg.
    // Modified 29 Dec 2005 to return old value of replaced bytes, for STORE.
+   // Little-endian accesses that fall within one word (all aligned byte, halfword and 
+   // word accesses) are done with a single shift and mask instead of the byte loop.
+   // Not synchronized: see writableBlock().
    //
-       private synchronized int storeOrFetchBytesInTable(int [][] blockTable, 
+       private int storeOrFetchBytesInTable(int [][] blockTable, 
                                    int relativeByteAddress, int length, int value, boolean op) {
          int relativeWordAddress, block, offset, bytePositionInMemory, bytePositionInValue;
          int oldValue = 0; // for STORE, return old values of replaced bytes
@@ -1287,23 +2492,40 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                relativeByteAddress += ( 4 - delta ) << 1;
             }
          }
+         OffHeapSegment segment = segmentFor(blockTable);
+         if (segment != null) {
+            return storeOrFetchBytesInSegment(segment, relativeByteAddress, length, value, op);
+         }
+         int bytePosition = relativeByteAddress & 3;
+         if (byteOrder == LITTLE_ENDIAN && bytePosition + length <= 4) {
+            block = (relativeByteAddress >> 2) / BLOCK_LENGTH_WORDS;
+            offset = (relativeByteAddress >> 2) % BLOCK_LENGTH_WORDS;
+            int shift = bytePosition << 3;
+            int mask = (length == 4) ? -1 : (1 << (length << 3)) - 1;
+            if (op == STORE) {
+               int[] words = writableBlock(blockTable, block);
+               int word = words[offset];
+               words[offset] = (word & ~(mask << shift)) | ((value & mask) << shift);
+               return (word >>> shift) & mask;
+            }
+            int[] words = blockTable[block];
+            return (words == null) ? 0 : (words[offset] >>> shift) & mask;
+         }
          for (bytePositionInValue = 3; bytePositionInValue > loopStopper; bytePositionInValue--) {
             bytePositionInMemory = relativeByteAddress % 4;
             relativeWordAddress = relativeByteAddress >> 2;
             block = relativeWordAddress / BLOCK_LENGTH_WORDS;  // Block number
             offset = relativeWordAddress % BLOCK_LENGTH_WORDS; // Word within that block
-            if (blockTable[block] == null) {
-               if (op==STORE) 
-                  blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-               else 
-                  return 0;
+            if (blockTable[block] == null && op == FETCH) {
+               return 0;
             }
             if (byteOrder == LITTLE_ENDIAN) bytePositionInMemory = 3 - bytePositionInMemory;
             if (op == STORE) {
-               oldValue = replaceByte(blockTable[block][offset], bytePositionInMemory,
+               int[] words = writableBlock(blockTable, block);
+               oldValue = replaceByte(words[offset], bytePositionInMemory,
                   								oldValue, bytePositionInValue);
-               blockTable[block][offset] = replaceByte(value, bytePositionInValue, 
-                                         blockTable[block][offset], bytePositionInMemory);
+               words[offset] = replaceByte(value, bytePositionInValue, 
+                                         words[offset], bytePositionInMemory);
             } 
             else {// op == FETCH
                value = replaceByte(blockTable[block][offset], bytePositionInMemory, 
@@ -1314,6 +2536,54 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return (op == STORE)	? oldValue : value;
       }	
    
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Returns the off-heap segment holding the given table's contents, or null if the
+   // table itself holds them.
+   //
+       private OffHeapSegment segmentFor(int[][] blockTable) {
+         if (dataSegment == null) {
+            return null;
+         }
+         return (blockTable == dataBlockTable) ? dataSegment 
+              : (blockTable == stackBlockTable) ? stackSegment : null;
+      }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Same as storeOrFetchBytesInTable(), for a table held in an off-heap segment.
+   // The relative address has already been adjusted for the stack.
+   //
+       private int storeOrFetchBytesInSegment(OffHeapSegment segment, 
+                                   int relativeByteAddress, int length, int value, boolean op) {
+         int bytePosition = relativeByteAddress & 3;
+         if (byteOrder == LITTLE_ENDIAN && bytePosition + length <= 4) {
+            int shift = bytePosition << 3;
+            int mask = (length == 4) ? -1 : (1 << (length << 3)) - 1;
+            int word = segment.getWord(relativeByteAddress >> 2);
+            if (op == STORE) {
+               segment.setWord(relativeByteAddress >> 2, (word & ~(mask << shift)) | ((value & mask) << shift));
+            }
+            return (word >>> shift) & mask;
+         }
+         int oldValue = 0;
+         for (int bytePositionInValue = 3; bytePositionInValue > 3-length; bytePositionInValue--) {
+            int bytePositionInMemory = relativeByteAddress % 4;
+            if (byteOrder == LITTLE_ENDIAN) bytePositionInMemory = 3 - bytePositionInMemory;
+            int word = segment.getWord(relativeByteAddress >> 2);
+            if (op == STORE) {
+               oldValue = replaceByte(word, bytePositionInMemory, oldValue, bytePositionInValue);
+               segment.setWord(relativeByteAddress >> 2, replaceByte(value, bytePositionInValue, 
+                                         word, bytePositionInMemory));
+            } 
+            else {// op == FETCH
+               value = replaceByte(word, bytePositionInMemory, value, bytePositionInValue);
+            }
+            relativeByteAddress++;
+         }
+         return (op == STORE)	? oldValue : value;
+      }
+   
    ////////////////////////////////////////////////////////////////////////////////
    //
    // Helper method to store 4 byte value in table that represents MIPS memory.
@@ -1322,16 +2592,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    // and block size.  Assumes address is word aligned, no endian processing.
    // Modified 29 Dec 2005 to return overwritten value.
          
-       private synchronized int storeWordInTable(int[][] blockTable, int relative, int value) {
+       private int storeWordInTable(int[][] blockTable, int relative, int value) {
+         OffHeapSegment segment = segmentFor(blockTable);
+         if (segment != null) {
+            return segment.setWord(relative, value);
+         }
          int  block, offset, oldValue;
          block = relative / BLOCK_LENGTH_WORDS;
          offset = relative % BLOCK_LENGTH_WORDS; 
-         if (blockTable[block] == null) {
-               // First time writing to this block, so allocate the space.
-            blockTable[block] = new int[BLOCK_LENGTH_WORDS];
-         }
-         oldValue = blockTable[block][offset];
-         blockTable[block][offset] = value;
+         // Allocates the block the first time it is written, copies it if shared.
+         int[] words = writableBlock(blockTable, block);
+         oldValue = words[offset];
+         words[offset] = value;
          return oldValue;
       }
       
@@ -1343,7 +2615,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    // and block size.  Assumes word alignment, no endian processing.
    //
    
-       private synchronized int fetchWordFromTable(int[][] blockTable, int relative) {
+       private int fetchWordFromTable(int[][] blockTable, int relative) {
+         OffHeapSegment segment = segmentFor(blockTable);
+         if (segment != null) {
+            return segment.getWord(relative);
+         }
          int value = 0;
          int block, offset;
          block = relative / BLOCK_LENGTH_WORDS;
@@ -1370,7 +2646,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // by Greg Gibeling of UC Berkeley, fall 2007.
        //
        
-       private synchronized Integer fetchWordOrNullFromTable(int[][] blockTable, int relative) {
+       private Integer fetchWordOrNullFromTable(int[][] blockTable, int relative) {
+         OffHeapSegment segment = segmentFor(blockTable);
+         if (segment != null) {
+            return segment.isAllocated(relative / BLOCK_LENGTH_WORDS) ? new Integer(segment.getWord(relative)) : null;
+         }
          int value = 0;
          int block, offset;
          block = relative / BLOCK_LENGTH_WORDS;
@@ -1384,6 +2664,55 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          }
          return new Integer(value);
       }
+   
+   ////////////////////////////////////////////////////////////////////////////////
+   //
+   // Helper methods for the sparse configuration.  Each region of the address space is
+   // a block table used with the helpers above, at address & REGION_MASK.  A region is
+   // created when first written; reads from a region that does not exist return 0 (or 
+   // null) just like reads from a block that does not exist.
+   //
+   
+       private int[][] sparseTable(int address, boolean create) {
+         int[][] blockTable = sparseTables[address >>> REGION_SHIFT];
+         return (blockTable == null && create) ? newSparseTable(address >>> REGION_SHIFT) : blockTable;
+      }
+   
+       private synchronized int[][] newSparseTable(int region) {
+         if (sparseTables[region] == null) {
+            sparseTables[region] = new int[BLOCK_TABLE_LENGTH][];
+         }
+         return sparseTables[region];
+      }
+   
+       private int storeWordSparse(int address, int value) {
+         return storeWordInTable(sparseTable(address, true), (address & REGION_MASK) >> 2, value);
+      }
+   
+       private int fetchWordSparse(int address) {
+         int[][] blockTable = sparseTable(address, false);
+         return (blockTable == null) ? 0 : fetchWordFromTable(blockTable, (address & REGION_MASK) >> 2);
+      }
+   
+       private Integer fetchWordOrNullSparse(int address) {
+         int[][] blockTable = sparseTable(address, false);
+         return (blockTable == null) ? null : fetchWordOrNullFromTable(blockTable, (address & REGION_MASK) >> 2);
+      }
+   
+      // An access that crosses into the next region is done a byte at a time, with the 
+   	// bytes in the same order storeOrFetchBytesInTable() uses.
+       private int storeOrFetchSparse(int address, int length, int value, boolean op) {
+         int relative = address & REGION_MASK;
+         if (relative + length > REGION_MASK + 1) {
+            int result = 0;
+            for (int i = 0; i < length; i++) {
+               result |= storeOrFetchSparse(address + i, 1, value >>> (i << 3), op) << (i << 3);
+            }
+            return result;
+         }
+         int[][] blockTable = sparseTable(address, op == STORE);
+         return (blockTable == null) ? 0 : storeOrFetchBytesInTable(blockTable, relative, length, value, op);
+      }
    	   
    ////////////////////////////////////////////////////////////////////////////////////
    // Returns result of substituting specified byte of source value into specified byte 
@@ -1419,6 +2748,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          int block = relative / BLOCK_LENGTH_WORDS;
          int offset = relative % BLOCK_LENGTH_WORDS; 
          if (block < TEXT_BLOCK_TABLE_LENGTH) {
+            if (textShared) {
+               // Text tables are shared with a snapshot or copy; this Memory needs its own.
+               boolean kernel = (blockTable == kernelTextBlockTable);
+               textBlockTable = copyTable(textBlockTable);
+               kernelTextBlockTable = copyTable(kernelTextBlockTable);
+               textShared = false;
+               blockTable = (kernel) ? kernelTextBlockTable : textBlockTable;
+            }
             if (blockTable[block] == null) {
                // No instructions are stored in this block, so allocate the block.
                blockTable[block] = new ProgramStatement[BLOCK_LENGTH_WORDS];
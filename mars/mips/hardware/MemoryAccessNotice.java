@@ -31,6 +31,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 /**
  * Object provided to Observers of runtime access to MIPS memory.
  * Observer can get the access type (R/W), address and length in bytes (4,2,1).
+ * A bulk transfer by Memory.readBytes(), writeBytes() or fill() is reported with a 
+ * single notice giving the address and length of the whole range; its value is 0,
+ * or the byte stored for fill().
  * 
  * @author Pete Sanderson 
  * @version July 2005
@@ -63,7 +66,7 @@ public class MemoryAccessNotice extends AccessNotice {
   public int getAddress() {
      return address;
   }
-  /** Fetch the length in bytes of the access operation (4,2,1). */
+  /** Fetch the length in bytes of the access operation (4,2,1, or any length for a bulk transfer). */
   public int getLength() {
      return length;
   }
@@ -45,13 +45,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private String configurationIdentifier, configurationName;
       private String[] configurationItemNames;
       private int[] configurationItemValues;
+      private boolean sparse;
    	
    
        public MemoryConfiguration(String ident, String name, String[] items, int[] values) {
+         this(ident, name, items, values, false);
+      }
+   
+   	/**
+   	 * Create a configuration that may be sparse.
+   	 * @param sparse true if Memory should back the entire 32-bit address space, see isSparse()
+   	 */
+       public MemoryConfiguration(String ident, String name, String[] items, int[] values, boolean sparse) {
 		   this.configurationIdentifier = ident;
          this.configurationName = name;
          this.configurationItemNames = items;
          this.configurationItemValues = values;
+         this.sparse = sparse;
       }
    	
    	public String getConfigurationIdentifier() {
@@ -62,6 +72,17 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return configurationName;
       }
    
+   	/**
+   	 * Returns true if every address outside the text segments is backed by memory,
+   	 * allocated a page at a time as it is written, rather than only the addresses
+   	 * within the data, stack, kernel data and memory-mapped segments.  Segment
+   	 * addresses still determine the initial $gp, $sp and heap addresses.
+   	 * @return true for a sparse configuration
+   	 */
+       public boolean isSparse() {
+         return sparse;
+      }
+   
        public int[] getConfigurationItemValues() {
          return configurationItemValues;
       }
@@ -0,0 +1,246 @@
+   package mars.mips.hardware;
+   import mars.util.*;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+
+/**
+ * Storage for a data or stack segment outside the Java heap, used by Memory when
+ * its backing is DIRECT_BACKING or MAPPED_BACKING.  Words are stored little-endian
+ * in chunks of CHUNK_BLOCKS blocks, which are either direct ByteBuffers or regions
+ * of a temporary file mapped into memory.  A chunk is not allocated (or mapped)
+ * until a word in it is written, and a mapped file only takes disk space for the
+ * pages actually written, so a segment can be hundreds of MB without using much
+ * memory unless a program actually touches it.
+ * <p>
+ * Blocks have the same size as Memory's heap blocks, and the segment keeps track
+ * of which have been written so that Memory can report unreferenced blocks the
+ * same way in either backing (for getRawWordOrNull() and checkpoints).  Relative
+ * word and byte addresses are as computed by Memory for its block tables.
+ */
+
+    final class OffHeapSegment {
+      static final int BLOCK_LENGTH_WORDS = 1024;
+      private static final int CHUNK_BLOCKS = 256;
+      private static final int CHUNK_SHIFT = 18; // log2 of words per chunk
+      private static final int CHUNK_BYTES = CHUNK_BLOCKS * BLOCK_LENGTH_WORDS * 4;
+
+      private final boolean mapped;
+      private final int blocks;
+      private final ByteBuffer[] chunks;
+      private final long[] allocated; // bit per block, set once the block is written
+      private FileChannel file;       // mapped backing only, created with the first chunk
+
+   	/**
+   	 * Create an empty segment.
+   	 * @param blocks capacity in blocks of BLOCK_LENGTH_WORDS words
+   	 * @param mapped true to map chunks from a temporary file, false for direct buffers
+   	 */
+       OffHeapSegment(int blocks, boolean mapped) {
+         this.blocks = blocks;
+         this.mapped = mapped;
+         chunks = new ByteBuffer[(blocks + CHUNK_BLOCKS - 1) / CHUNK_BLOCKS];
+         allocated = new long[(blocks + 63) >> 6];
+      }
+
+   	/**
+   	 * Returns the capacity of this segment.
+   	 * @return number of blocks
+   	 */
+       int getBlocks() {
+         return blocks;
+      }
+
+   	/**
+   	 * Returns true if a word in the given block has been written.
+   	 * @param block block number
+   	 * @return true if the block is allocated
+   	 */
+       boolean isAllocated(int block) {
+         return (allocated[block >> 6] & (1L << block)) != 0;
+      }
+
+   	/**
+   	 * Returns a word.  Words of unallocated blocks are 0.
+   	 * @param relative relative word address
+   	 * @return the word
+   	 */
+       int getWord(int relative) {
+         ByteBuffer chunk = chunks[relative >>> CHUNK_SHIFT];
+         return (chunk == null) ? 0 : chunk.getInt((relative & ((1 << CHUNK_SHIFT) - 1)) << 2);
+      }
+
+   	/**
+   	 * Stores a word, allocating its block if necessary.
+   	 * @param relative relative word address
+   	 * @param value the word
+   	 * @return the word previously stored there
+   	 */
+       int setWord(int relative, int value) {
+         int block = relative / BLOCK_LENGTH_WORDS;
+         if ((allocated[block >> 6] & (1L << block)) == 0) {
+            allocate(block);
+         }
+         ByteBuffer chunk = chunks[relative >>> CHUNK_SHIFT];
+         int offset = (relative & ((1 << CHUNK_SHIFT) - 1)) << 2;
+         int old = chunk.getInt(offset);
+         chunk.putInt(offset, value);
+         return old;
+      }
+
+      // Marks a block allocated, first creating its chunk if needed.  Synchronized so that
+   	// threads writing to the same new chunk (the simulator and a tool) do not both create it.
+       private synchronized void allocate(int block) {
+         int index = block / CHUNK_BLOCKS;
+         if (chunks[index] == null) {
+            try {
+               chunks[index] = newChunk(index);
+            }
+                catch (IOException e) {
+                  throw new IllegalStateException("cannot map simulated memory: " + e.getMessage());
+               }
+         }
+         allocated[block >> 6] |= 1L << block;
+      }
+
+       private ByteBuffer newChunk(int index) throws IOException {
+         ByteBuffer chunk;
+         if (mapped) {
+            if (file == null) {
+               File temporary = File.createTempFile("mars", ".mem");
+               file = new RandomAccessFile(temporary, "rw").getChannel();
+               // The open channel keeps the file; remove its name now where the system allows.
+               if (!temporary.delete()) {
+                  temporary.deleteOnExit();
+               }
+            }
+            chunk = file.map(FileChannel.MapMode.READ_WRITE, (long) index * CHUNK_BYTES, CHUNK_BYTES);
+         }
+         else {
+            chunk = ByteBuffer.allocateDirect(CHUNK_BYTES);
+         }
+         return chunk.order(ByteOrder.LITTLE_ENDIAN);
+      }
+
+   	/**
+   	 * Returns a new segment of the same kind with the same contents.  Only
+   	 * allocated blocks are copied.
+   	 * @return the copy
+   	 */
+       synchronized OffHeapSegment copy() {
+         OffHeapSegment copy = new OffHeapSegment(blocks, mapped);
+         for (int block = 0; block < blocks; block++) {
+            if (isAllocated(block)) {
+               copy.allocate(block);
+               copyBlock(chunks[block / CHUNK_BLOCKS], copy.chunks[block / CHUNK_BLOCKS], block);
+            }
+         }
+         return copy;
+      }
+
+       private static void copyBlock(ByteBuffer from, ByteBuffer to, int block) {
+         int offset = (block % CHUNK_BLOCKS) * BLOCK_LENGTH_WORDS * 4;
+         ByteBuffer source = from.duplicate();
+         source.limit(offset + BLOCK_LENGTH_WORDS * 4).position(offset);
+         ByteBuffer destination = to.duplicate();
+         destination.position(offset);
+         destination.put(source);
+      }
+
+   	/**
+   	 * Releases the storage of this segment.  It must not be used afterwards; the
+   	 * buffers themselves are freed when garbage collected.
+   	 */
+       synchronized void release() {
+         if (file != null) {
+            try {
+               file.close();
+            }
+                catch (IOException e) {
+               }
+            file = null;
+         }
+      }
+
+   	/**
+   	 * Writes the segment in the checkpoint format of Memory's data block tables:
+   	 * the number of allocated blocks, then the index and words of each.
+   	 * @param out destination of the checkpoint data
+   	 * @throws IOException if the data cannot be written
+   	 */
+       synchronized void writeCheckpoint(ChannelOutput out) throws IOException {
+         int count = 0;
+         for (int block = 0; block < blocks; block++) {
+            if (isAllocated(block))
+               count++;
+         }
+         out.writeInt(count);
+         int[] words = new int[BLOCK_LENGTH_WORDS];
+         for (int block = 0; block < blocks; block++) {
+            if (isAllocated(block)) {
+               for (int i = 0; i < BLOCK_LENGTH_WORDS; i++) {
+                  words[i] = getWord(block * BLOCK_LENGTH_WORDS + i);
+               }
+               out.writeInt(block);
+               out.writeInts(words, 0, BLOCK_LENGTH_WORDS);
+            }
+         }
+      }
+
+   	/**
+   	 * Reads into this (empty) segment blocks written by writeCheckpoint().
+   	 * @param in source of the checkpoint data
+   	 * @throws IOException if the data cannot be read or is invalid
+   	 */
+       synchronized void readCheckpoint(ChannelInput in) throws IOException {
+         int count = in.readInt();
+         int[] words = new int[BLOCK_LENGTH_WORDS];
+         for (int i = 0; i < count; i++) {
+            int block = in.readInt();
+            if (block < 0 || block >= blocks) {
+               throw new IOException("invalid memory block " + block + " in checkpoint");
+            }
+            in.readInts(words, 0, BLOCK_LENGTH_WORDS);
+            for (int j = 0; j < BLOCK_LENGTH_WORDS; j++) {
+               setWord(block * BLOCK_LENGTH_WORDS + j, words[j]);
+            }
+         }
+      }
+
+   	/**
+   	 * Writes a range of the segment to a channel as little-endian words, stopping
+   	 * at the first unallocated block.  A mapped segment is transferred directly from
+   	 * its file, without copying through the Java heap.
+   	 * @param relativeByte relative byte address of the first byte, on a word boundary
+   	 * @param length number of bytes requested
+   	 * @param out destination
+   	 * @return number of bytes written
+   	 * @throws IOException if the data cannot be written
+   	 */
+       long transferTo(int relativeByte, int length, WritableByteChannel out) throws IOException {
+         int blockBytes = BLOCK_LENGTH_WORDS * 4;
+         long end = relativeByte;
+         long limit = Math.min((long) relativeByte + length, (long) blocks * blockBytes);
+         while (end < limit && isAllocated((int) (end / blockBytes))) {
+            end = Math.min((end / blockBytes + 1) * blockBytes, limit);
+         }
+         long position = relativeByte;
+         if (mapped) {
+            // The file reads see what was written through the mapped chunks.
+            while (position < end) {
+               position += file.transferTo(position, end - position, out);
+            }
+         }
+         else {
+            while (position < end) {
+               int chunkEnd = (int) Math.min(end - (position / CHUNK_BYTES) * CHUNK_BYTES, CHUNK_BYTES);
+               ByteBuffer source = chunks[(int) (position / CHUNK_BYTES)].duplicate();
+               source.limit(chunkEnd).position((int) (position % CHUNK_BYTES));
+               while (source.hasRemaining()) {
+                  position += out.write(source);
+               }
+            }
+         }
+         return end - relativeByte;
+      }
+   }
@@ -0,0 +1,186 @@
+   package mars.mips.hardware;
+   import mars.util.*;
+   import java.io.*;
+
+/**
+ * Counts of the reads, writes and instruction fetches of each 4K page of MIPS memory,
+ * kept by Memory while page access counting is enabled (see Memory.setPageAccessCounting()).
+ * Counting an access costs one array increment, so unlike a memory observer it can be
+ * left on for full-speed runs, turbo mode included.  Counts are kept in chunks of 1024
+ * pages, each allocated the first time one of its pages is accessed.
+ * <p>
+ * Only accesses by the MIPS program are counted: loads and stores, syscalls reading or
+ * writing memory, and instruction fetches.  Memory counts reads and writes itself.  The
+ * simulator counts instruction fetches, since most of them do not go through Memory.
+ * Accesses that do not notify observers, such as GUI updates, are not counted.  A bulk
+ * transfer (Memory.readBytes(), writeBytes() or fill()) counts as one access of each page
+ * in its range.
+ */
+
+    public class PageAccessCounts {
+      /** Number of address bits within a page. */
+      public static final int PAGE_SHIFT = 12;
+      private static final int PAGE_BYTES = 1 << PAGE_SHIFT;
+      private static final int CHUNK_SHIFT = 10; // log2 of pages per chunk
+      private static final int CHUNKS = 1 << (32 - PAGE_SHIFT - CHUNK_SHIFT);
+
+      private final long[][] reads = new long[CHUNKS][];
+      private final long[][] writes = new long[CHUNKS][];
+      private final long[][] fetches = new long[CHUNKS][];
+
+   	/**
+   	 * Counts a read of the page containing the given address.
+   	 * @param address address read
+   	 */
+       public void countRead(int address) {
+         count(reads, address, 1);
+      }
+
+   	/**
+   	 * Counts a write of the page containing the given address.
+   	 * @param address address written
+   	 */
+       public void countWrite(int address) {
+         count(writes, address, 1);
+      }
+
+   	/**
+   	 * Counts an instruction fetch from the page containing the given address.
+   	 * @param address address of the instruction
+   	 */
+       public void countFetch(int address) {
+         count(fetches, address, 1);
+      }
+
+   	/**
+   	 * Counts fetches of consecutive instructions, such as those of a basic block.
+   	 * @param address address of the first instruction, on a word boundary
+   	 * @param instructions number of instructions fetched
+   	 */
+       public void countFetches(int address, int instructions) {
+         while (instructions > 0) {
+            int inPage = Math.min(instructions, (PAGE_BYTES - (address & (PAGE_BYTES - 1))) >> 2);
+            count(fetches, address, inPage);
+            address += inPage << 2;
+            instructions -= inPage;
+         }
+      }
+
+       private static void count(long[][] counts, int address, int n) {
+         int page = address >>> PAGE_SHIFT;
+         long[] chunk = counts[page >>> CHUNK_SHIFT];
+         if (chunk == null) {
+            chunk = counts[page >>> CHUNK_SHIFT] = new long[1 << CHUNK_SHIFT];
+         }
+         chunk[page & ((1 << CHUNK_SHIFT) - 1)] += n;
+      }
+
+   	/**
+   	 * Returns the number of reads of the page containing the given address.
+   	 * @param address any address in the page
+   	 * @return number of reads counted
+   	 */
+       public long getReads(int address) {
+         return get(reads, address);
+      }
+
+   	/**
+   	 * Returns the number of writes to the page containing the given address.
+   	 * @param address any address in the page
+   	 * @return number of writes counted
+   	 */
+       public long getWrites(int address) {
+         return get(writes, address);
+      }
+
+   	/**
+   	 * Returns the number of instruction fetches from the page containing the given address.
+   	 * @param address any address in the page
+   	 * @return number of fetches counted
+   	 */
+       public long getFetches(int address) {
+         return get(fetches, address);
+      }
+
+       private static long get(long[][] counts, int address) {
+         int page = address >>> PAGE_SHIFT;
+         long[] chunk = counts[page >>> CHUNK_SHIFT];
+         return (chunk == null) ? 0 : chunk[page & ((1 << CHUNK_SHIFT) - 1)];
+      }
+
+   	/**
+   	 * Returns the pages accessed at least once.
+   	 * @return base addresses of the pages, in increasing (unsigned) order
+   	 */
+       public int[] getPages() {
+         int[] pages = new int[64];
+         int count = 0;
+         for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            if (reads[chunk] == null && writes[chunk] == null && fetches[chunk] == null)
+               continue;
+            for (int i = 0; i < (1 << CHUNK_SHIFT); i++) {
+               int address = ((chunk << CHUNK_SHIFT) | i) << PAGE_SHIFT;
+               if (getReads(address) != 0 || getWrites(address) != 0 || getFetches(address) != 0) {
+                  if (count == pages.length) {
+                     int[] newPages = new int[count * 2];
+                     System.arraycopy(pages, 0, newPages, 0, count);
+                     pages = newPages;
+                  }
+                  pages[count++] = address;
+               }
+            }
+         }
+         int[] result = new int[count];
+         System.arraycopy(pages, 0, result, 0, count);
+         return result;
+      }
+
+   	/**
+   	 * Sets all counts to zero.
+   	 */
+       public void clear() {
+         for (int chunk = 0; chunk < CHUNKS; chunk++) {
+            reads[chunk] = writes[chunk] = fetches[chunk] = null;
+         }
+      }
+
+   	/**
+   	 * Returns the name of the segment a page belongs to in the current memory configuration:
+   	 * text, ktext, data, heap (allocated by sbrk so far), stack, kdata, mmio or other.
+   	 * @param address base address of the page
+   	 * @return segment name
+   	 */
+       public static String getSegmentName(int address) {
+         if (Memory.inTextSegment(address))
+            return "text";
+         if (Memory.inKernelTextSegment(address))
+            return "ktext";
+         if (address >= Memory.heapBaseAddress && address < Memory.heapAddress)
+            return "heap";
+         if (address + PAGE_BYTES - 1 > Memory.stackLimitAddress && address <= Memory.stackBaseAddress
+               && address >= Memory.heapAddress)
+            return "stack";
+         if (Memory.inDataSegment(address))
+            return "data";
+         if (Memory.inKernelDataSegment(address))
+            return "kdata";
+         if (Memory.inMemoryMapSegment(address))
+            return "mmio";
+         return "other";
+      }
+
+   	/**
+   	 * Writes the counts as CSV: a header line, then one line per page accessed giving its
+   	 * base address, segment name and read, write and fetch counts.
+   	 * @param out destination
+   	 */
+       public void writeCsv(PrintStream out) {
+         out.println("page,segment,reads,writes,fetches");
+         int[] pages = getPages();
+         for (int i = 0; i < pages.length; i++) {
+            out.println(Binary.intToHexString(pages[i]) + "," + getSegmentName(pages[i]) + ","
+               + getReads(pages[i]) + "," + getWrites(pages[i]) + "," + getFetches(pages[i]));
+         }
+         out.flush();
+      }
+   }
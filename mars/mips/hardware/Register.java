@@ -39,11 +39,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class Register extends Observable {
       private String name;
       private int number, resetValue;
-   	// volatile should be enough to allow safe multi-threaded access  
-   	// w/o the use of synchronized methods.  getValue and setValue
-   	// are the only methods here used by the register collection
-   	// (RegisterFile, Coprocessor0, Coprocessor1) methods. 
-      private volatile int value;
+   	// The value is held in slot <tt>index</tt> of a RegisterBank, which may be
+   	// shared with other registers.  RegisterFile reads and writes its bank
+   	// directly and uses this object only when the slot has observers.
+      private final RegisterBank bank;
+      private final int index;
       
    	 /**
         *  Creates a new register with specified name, number, and value.
@@ -53,9 +53,23 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
         */
    	  
        public Register(String n, int num, int val){
+         this(n, num, val, new RegisterBank(1), 0);
+      }
+   	
+   	 /**
+        *  Creates a new register whose value is held in the given slot of a RegisterBank.
+        *   @param n The name of the register.
+        *   @param num The number of the register.
+        *   @param val The inital (and reset) value of the register.
+        *   @param bank The bank holding the value.
+        *   @param index The slot of the value within the bank.
+        */
+       Register(String n, int num, int val, RegisterBank bank, int index){
          name= n;
          number=num;
-         value= val;
+         this.bank = bank;
+         this.index = index;
+         bank.values[index]= val;
          resetValue = val;
       }
       
@@ -76,7 +90,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  
        public synchronized int getValue(){
          notifyAnyObservers(AccessNotice.READ);
-         return value;
+         return bank.values[index];
       }
 
       
@@ -87,7 +101,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  */
    	  
        public synchronized int getValueNoNotify(){
-         return value;
+         return bank.values[index];
       }
 		
    
@@ -116,8 +130,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  */
    	  
        public synchronized int setValue(int val){
-         int old = value;
-         value = val;
+         int[] values = bank.values;
+         int old = values[index];
+         values[index] = val;
          notifyAnyObservers(AccessNotice.WRITE);
          return old;
       }
@@ -128,7 +143,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  */
    	  
        public synchronized void resetValue(){
-         value = resetValue;
+         bank.values[index] = resetValue;
       }
    	
    	/**
@@ -140,10 +155,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          resetValue = reset;
       }
    
+   	/**
+   	  *  Adds an observer.  Overridden to mark the register as watched in its bank.
+   	  *   @param observer The observer to add.
+   	  */
+       public synchronized void addObserver(Observer observer) {
+         super.addObserver(observer);
+         bank.setWatched(index, true);
+      }
+   	
+   	/**
+   	  *  Deletes an observer.  Overridden to clear the watched mark when none remain.
+   	  *   @param observer The observer to delete.
+   	  */
+       public synchronized void deleteObserver(Observer observer) {
+         super.deleteObserver(observer);
+         bank.setWatched(index, countObservers() > 0);
+      }
+   	
+   	/**
+   	  *  Deletes all observers.  Overridden to clear the watched mark.
+   	  */
+       public synchronized void deleteObservers() {
+         super.deleteObservers();
+         bank.setWatched(index, false);
+      }
+   	
    //
    // Method to notify any observers of register operation that has just occurred.
+   // Also used by RegisterFile after it has accessed a watched slot directly.
    //
-       private void notifyAnyObservers(int type) {
+       void notifyAnyObservers(int type) {
          if (this.countObservers() > 0){// && Globals.program != null) && Globals.program.inSteppedExecution()) {
             this.setChanged();
             this.notifyObservers(new RegisterAccessNotice(type, this.name));
@@ -0,0 +1,57 @@
+   package mars.mips.hardware;
+
+/**
+ * Primitive storage shared by a group of Register objects.  The register values
+ * live in an int array indexed by slot, so that the simulator can read and write
+ * them directly instead of going through the Observable Register objects.  A bit
+ * is set in the watch mask for every slot whose Register currently has observers;
+ * only those slots need to be routed through their Register so that the observers
+ * are notified.
+ */
+
+    final class RegisterBank {
+      /** Register values, indexed by slot. */
+      final int[] values;
+      // Bit i set if the Register in slot i has at least one observer.
+      private volatile long watched;
+
+   	/**
+   	 * Create a bank with the given number of slots, all zero and unwatched.
+   	 * @param size number of slots, at most 64
+   	 */
+       RegisterBank(int size) {
+         values = new int[size];
+      }
+
+   	/**
+   	 * Returns true if the Register in the given slot has observers.
+   	 * @param slot slot number
+   	 * @return true if accesses to this slot must notify observers
+   	 */
+       boolean isWatched(int slot) {
+         return (watched & (1L << slot)) != 0;
+      }
+
+   	/**
+   	 * Returns true if any slot has observers.
+   	 * @return true if at least one slot is watched
+   	 */
+       boolean isAnyWatched() {
+         return watched != 0;
+      }
+
+   	/**
+   	 * Set or clear the watch bit of a slot.  Called by Register when observers
+   	 * are added or removed.
+   	 * @param slot slot number
+   	 * @param watch true if the slot now has observers
+   	 */
+       synchronized void setWatched(int slot, boolean watch) {
+         if (watch) {
+            watched |= (1L << slot);
+         }
+         else {
+            watched &= ~(1L << slot);
+         }
+      }
+   }
@@ -45,30 +45,45 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
       public static final int GLOBAL_POINTER_REGISTER = 28;
       public static final int STACK_POINTER_REGISTER = 29;
+      private static final int PROGRAM_COUNTER = 32;
+      private static final int HI = 33;//this is an internal register with arbitrary number
+      private static final int LO = 34;// this is an internal register with arbitrary number
+   
+      // Values of all registers, indexed by register number (pc, hi and lo included).
+      // The Register objects below are views onto it for the GUI and tools.
+      private static State current;
+      private static RegisterBank bank;
+      private static Register [] regFile;
+      private static Register programCounter, hi, lo;
+   
+       static {
+         setState(new State());
+      }
+   
+      // Register objects for general purpose registers, at reset values for the current memory configuration.
+       private static Register[] createRegisters(RegisterBank b) {
+         Register[] registers = 
+             { new Register("$zero", 0, 0, b, 0), new Register("$at", 1, 0, b, 1),
+            	new Register("$v0", 2, 0, b, 2),new Register("$v1", 3, 0, b, 3),
+            	new Register("$a0", 4, 0, b, 4),new Register("$a1", 5, 0, b, 5),
+            	new Register("$a2", 6, 0, b, 6),new Register("$a3", 7, 0, b, 7),
+            	new Register("$t0", 8, 0, b, 8),new Register("$t1", 9, 0, b, 9),
+            	new Register("$t2", 10, 0, b, 10),new Register("$t3", 11, 0, b, 11), 
+            	new Register("$t4", 12, 0, b, 12),new Register("$t5", 13, 0, b, 13),
+            	new Register("$t6", 14, 0, b, 14),new Register("$t7", 15, 0, b, 15),
+            	new Register("$s0", 16, 0, b, 16),new Register("$s1", 17, 0, b, 17),
+            	new Register("$s2", 18, 0, b, 18),new Register("$s3", 19, 0, b, 19),
+            	new Register("$s4", 20, 0, b, 20),new Register("$s5", 21, 0, b, 21),
+            	new Register("$s6", 22, 0, b, 22),new Register("$s7", 23, 0, b, 23),
+            	new Register("$t8", 24, 0, b, 24),new Register("$t9", 25, 0, b, 25),
+            	new Register("$k0", 26, 0, b, 26),new Register("$k1", 27, 0, b, 27),
+            	new Register("$gp", GLOBAL_POINTER_REGISTER, Memory.globalPointer, b, GLOBAL_POINTER_REGISTER),
+            	new Register("$sp", STACK_POINTER_REGISTER, Memory.stackPointer, b, STACK_POINTER_REGISTER),
+            	new Register("$fp", 30, 0, b, 30),new Register("$ra", 31, 0, b, 31)
+              };
+         return registers;
+      }
    
-      private static Register [] regFile = 
-          { new Register("$zero", 0, 0), new Register("$at", 1, 0),
-         	new Register("$v0", 2, 0),new Register("$v1", 3, 0),
-         	new Register("$a0", 4, 0),new Register("$a1", 5, 0),
-         	new Register("$a2", 6, 0),new Register("$a3", 7, 0),
-         	new Register("$t0", 8, 0),new Register("$t1", 9, 0),
-         	new Register("$t2", 10, 0),new Register("$t3", 11, 0), 
-         	new Register("$t4", 12, 0),new Register("$t5", 13, 0),
-         	new Register("$t6", 14, 0),new Register("$t7", 15, 0),
-         	new Register("$s0", 16, 0),new Register("$s1", 17, 0),
-         	new Register("$s2", 18, 0),new Register("$s3", 19, 0),
-         	new Register("$s4", 20, 0),new Register("$s5", 21, 0),
-         	new Register("$s6", 22, 0),new Register("$s7", 23, 0),
-         	new Register("$t8", 24, 0),new Register("$t9", 25, 0),
-         	new Register("$k0", 26, 0),new Register("$k1", 27, 0),
-         	new Register("$gp", GLOBAL_POINTER_REGISTER, Memory.globalPointer),
-         	new Register("$sp", STACK_POINTER_REGISTER, Memory.stackPointer),
-         	new Register("$fp", 30, 0),new Register("$ra", 31, 0)
-           };
-         												  
-      private static Register programCounter= new Register("pc", 32, Memory.textBaseAddress); 
-      private static Register hi= new Register("hi", 33, 0);//this is an internal register with arbitrary number
-      private static Register lo= new Register("lo", 34, 0);// this is an internal register with arbitrary number
    		 
    
    	/**
@@ -93,29 +108,18 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	  
        public static int updateRegister(int num, int val){
-         int old = 0;
-         if(num == 0){
+         if(num <= 0 || num > LO || num == PROGRAM_COUNTER){
             //System.out.println("You can not change the value of the zero register.");
+            return 0;
          }
-         else {
-            for (int i=0; i< regFile.length; i++){
-               if(regFile[i].getNumber()== num) {
-                  old = (Globals.getSettings().getBackSteppingEnabled())
-                        ? Globals.program.getBackStepper().addRegisterFileRestore(num,regFile[i].setValue(val))
-                     	: regFile[i].setValue(val);
-                  break;
-               }
-            }
+         int[] values = bank.values;
+         int old = values[num];
+         values[num] = val;
+         if (bank.isWatched(num)) {
+            current.view(num).notifyAnyObservers(AccessNotice.WRITE);
          }
-         if(num== 33){//updates the hi register
-            old = (Globals.getSettings().getBackSteppingEnabled())
-               	      ? Globals.program.getBackStepper().addRegisterFileRestore(num,hi.setValue(val))
-               			: hi.setValue(val);
-         }
-         else if(num== 34){// updates the low register
-            old = (Globals.getSettings().getBackSteppingEnabled())
-               	      ? Globals.program.getBackStepper().addRegisterFileRestore(num,lo.setValue(val))
-               			: lo.setValue(val);
+         if (Globals.getSettings().getBackSteppingEnabled()) {
+            Globals.program.getBackStepper().addRegisterFileRestore(num,old);
          }
          return old;
       }
@@ -146,15 +150,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	
        public static int getValue(int num){
-         if(num==33){
-            return hi.getValue();
-         }
-         else if(num==34){
-            return lo.getValue();
+         if (bank.isWatched(num)) {
+            current.view(num).notifyAnyObservers(AccessNotice.READ);
          }
-         else  
-            return regFile[num].getValue();
-            
+         return bank.values[num];
       }
       		
       	/**
@@ -193,22 +192,28 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public static Register getUserRegister(String Rname) {
          Register reg = null;
          if (Rname.charAt(0) == '$') {
-            try {
+            // A register number cannot start with a letter, so names such as $t0 skip the
+         	// attempt to convert, which would throw an exception.
+            if (Rname.length() < 2 || !Character.isLetter(Rname.charAt(1))) {
+               try {
                    // check for register number 0-31.
-               reg = regFile[Binary.stringToInt(Rname.substring(1))];    // KENV 1/6/05
-            }
-                catch (Exception e) {
+                  reg = regFile[Binary.stringToInt(Rname.substring(1))];    // KENV 1/6/05
+               }
+                   catch (Exception e) {
                    // handles both NumberFormat and ArrayIndexOutOfBounds
+                     reg = null; // just to be sure
+                  }
+            }
+            if (reg == null) {
                    // check for register mnemonic $zero thru $ra
-                  reg = null; // just to be sure
                    // just do linear search; there aren't that many registers
-                  for (int i=0; i < regFile.length; i++) {
-                     if (Rname.equals(regFile[i].getName())) {
-                        reg = regFile[i];
-                        break;
-                     }
+               for (int i=0; i < regFile.length; i++) {
+                  if (Rname.equals(regFile[i].getName())) {
+                     reg = regFile[i];
+                     break;
                   }
                }
+            }
          }
          return reg;
       }
@@ -251,8 +256,11 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
      
        public static int setProgramCounter(int value){
-         int old = programCounter.getValue();
-         programCounter.setValue(value);
+         int old = getProgramCounter();
+         bank.values[PROGRAM_COUNTER] = value;
+         if (bank.isWatched(PROGRAM_COUNTER)) {
+            programCounter.notifyAnyObservers(AccessNotice.WRITE);
+         }
          if (Globals.getSettings().getBackSteppingEnabled()) {
             Globals.program.getBackStepper().addPCRestore(old);
          } 
@@ -265,7 +273,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  **/
    	 
        public static int getProgramCounter(){
-         return programCounter.getValue();
+         return getValue(PROGRAM_COUNTER);
       }
    
      /**
@@ -308,7 +316,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 **/
    
        public static void incrementPC(){
-         programCounter.setValue(programCounter.getValue() + Instruction.INSTRUCTION_LENGTH);
+         bank.values[PROGRAM_COUNTER] += Instruction.INSTRUCTION_LENGTH;
+         if (bank.isWatched(PROGRAM_COUNTER)) {
+            programCounter.notifyAnyObservers(AccessNotice.WRITE);
+         }
       }
    
       /**
@@ -336,4 +347,92 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          hi.deleteObserver(observer);
          lo.deleteObserver(observer);
       }
+   
+   	/**
+   	 *  Returns the registers currently in use, for saving by a SimulationContext.
+   	 *  @return State holding the current register objects (not copies).
+   	 */
+       public static State getState() {
+         return current;
+      }
+   
+   	/**
+   	 *  Installs a set of registers, replacing those currently in use.  The static
+   	 *  methods of this class operate on the installed registers from then on.
+   	 *  Used when switching between SimulationContexts.
+   	 *  @param state State previously obtained from getState() or created with new State().
+   	 */
+       public static void setState(State state) {
+         current = state;
+         bank = state.bank;
+         regFile = state.regFile;
+         programCounter = state.programCounter;
+         hi = state.hi;
+         lo = state.lo;
+      }
+   
+   	/**
+   	 *  A complete set of registers: general purpose registers, program counter, hi and lo.
+   	 *  A new State has all registers at their reset values for the current memory configuration.
+   	 */
+       public static final class State {
+         private RegisterBank bank;
+         private Register[] regFile;
+         private Register programCounter, hi, lo;
+      
+          public State() {
+            this(new RegisterBank(LO + 1));
+         }
+      
+          private State(RegisterBank bank) {
+            this(bank, createRegisters(bank), new Register("pc", PROGRAM_COUNTER, Memory.textBaseAddress, bank, PROGRAM_COUNTER),
+                 new Register("hi", HI, 0, bank, HI), new Register("lo", LO, 0, bank, LO));
+         }
+      
+          private State(RegisterBank bank, Register[] regFile, Register programCounter, Register hi, Register lo) {
+            this.bank = bank;
+            this.regFile = regFile;
+            this.programCounter = programCounter;
+            this.hi = hi;
+            this.lo = lo;
+         }
+      
+      	/**
+      	 *  Returns the values of the registers in this State: the general purpose
+      	 *  registers in number order followed by program counter, hi and lo.
+      	 *  @return array of register values
+      	 */
+          public int[] getValues() {
+            return bank.values.clone();
+         }
+      
+      	/**
+      	 *  Sets the registers in this State to values previously returned by getValues().
+      	 *  @param values array of register values
+      	 */
+          public void setValues(int[] values) {
+            System.arraycopy(values, 0, bank.values, 0, bank.values.length);
+            if (bank.isAnyWatched()) {
+               for (int i = 0; i < bank.values.length; i++) {
+                  if (bank.isWatched(i)) {
+                     view(i).notifyAnyObservers(AccessNotice.WRITE);
+                  }
+               }
+            }
+         }
+      
+         // Register object of this State for the given number.
+          private Register view(int num) {
+            switch (num) {
+               case PROGRAM_COUNTER: 
+                  return programCounter;
+               case HI: 
+                  return hi;
+               case LO: 
+                  return lo;
+               default: 
+                  return regFile[num];
+            }
+         }
+      }
    }
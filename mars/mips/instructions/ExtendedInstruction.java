@@ -46,6 +46,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class ExtendedInstruction extends Instruction {
    
       private ArrayList translationStrings, compactTranslationStrings;
+      // Translations made by translate(), keyed by statement.  Cleared when it reaches the limit.
+      private HashMap translations = new HashMap();
+      private static final int MAX_TRANSLATIONS = 4096;
     /**
      * Constructor for ExtendedInstruction.
      * 
@@ -547,8 +550,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          if (instruction.indexOf("LAB")>=0) {
          	// label has to be last token.  It has already been translated to address
          	// by symtab lookup, so I need to get the text label back so parseLine() won't puke.
-            String label = theTokenList.get(theTokenList.size()-1).getValue();
-            Symbol sym = program.getLocalSymbolTable().getSymbolGivenAddressLocalOrGlobal(label);
+            Symbol sym = getLabelSymbol(program, theTokenList);
             if (sym!=null) { 
                // should never be null, since there would not be an address if label were not in symtab!
             	// DPS 9 Dec 2007: The "substitute()" method will substitute for ALL matches.  Here
@@ -562,6 +564,60 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return instruction;
       }
    
+      /**
+   	 * Translates a statement using this instruction into the basic statements it expands to,
+   	 * by substituting its operands into each template (see makeTemplateSubstitutions()).
+   	 * Since the same statements are translated each time a program is assembled, translations
+   	 * are remembered, and only statements not translated before are substituted again.
+   	 * A translation depends on the statement's operands, the delayed branching setting and,
+   	 * for a branch, the name of the target label.
+   	 * @param program the program containing the statement, used to look up label names.
+   	 * @param theTokenList a TokenList containing tokens from extended instruction.
+   	 * @param compact true to use the compact (16 bit address) translation.
+   	 * @return for each template, the basic statement, or "" if it generates none.
+   	 */
+   
+       public String[] translate(MIPSprogram program, TokenList theTokenList, boolean compact) {
+         ArrayList templateList = compact ? compactTranslationStrings : translationStrings;
+         StringBuffer key = new StringBuffer();
+         key.append(compact ? 'C' : 'N');
+         key.append(Globals.getSettings().getDelayedBranchingEnabled() ? 'D' : 'N');
+         for (int i=0; i<theTokenList.size(); i++) {
+            key.append(theTokenList.get(i).getValue()).append('\0');
+         }
+         for (int i=0; i<templateList.size(); i++) {
+            if (((String)templateList.get(i)).indexOf("LAB")>=0) {
+               Symbol sym = getLabelSymbol(program, theTokenList);
+               key.append((sym==null) ? "" : sym.getName());
+               break;
+            }
+         }
+         String statementKey = key.toString();
+         synchronized (translations) {
+            String[] instructions = (String[]) translations.get(statementKey);
+            if (instructions != null) {
+               return instructions;
+            }
+         }
+         String[] instructions = new String[templateList.size()];
+         for (int i=0; i<instructions.length; i++) {
+            instructions[i] = makeTemplateSubstitutions(program, (String)templateList.get(i), theTokenList);
+         }
+         synchronized (translations) {
+            if (translations.size() >= MAX_TRANSLATIONS) {
+               translations.clear();
+            }
+            translations.put(statementKey, instructions);
+         }
+         return instructions;
+      }
+   
+   	// Returns the symbol for the label of a branch, whose address is the statement's last token.
+       private static Symbol getLabelSymbol(MIPSprogram program, TokenList theTokenList) {
+         String label = theTokenList.get(theTokenList.size()-1).getValue();
+         return program.getLocalSymbolTable().getSymbolGivenAddressLocalOrGlobal(label);
+      }
+   
     	// Performs a String substitution.  Java 1.5 adds an overloaded String.replace method to 
    	// do this directly but I wanted to stay 1.4 compatible.
    	// Modified 12 July 2006 to "substitute all occurances", not just the first.
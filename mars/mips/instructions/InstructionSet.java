@@ -46,8 +46,14 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
     public class InstructionSet
    {
       private ArrayList instructionList;
-	  private ArrayList opcodeMatchMaps;
+	  private DecodeTable decodeTable = new DecodeTable(new ArrayList());
+	  private ArrayList ambiguousEncodings = new ArrayList();
       private SyscallLoader syscallLoader;
+      // Indexes of instructionList by lower case mnemonic, rebuilt by populate().
+      private volatile HashMap operatorMap = new HashMap();
+      private volatile OperatorTrie operatorTrie = new OperatorTrie();
+      // Number of times populate() has run; see getGeneration().
+      private volatile int generation = 0;
     /**
      * Creates a new InstructionSet object.
      */
@@ -115,6 +121,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 
 		 HashMap maskMap = new HashMap();
 		 ArrayList matchMaps = new ArrayList();
+		 ArrayList ambiguous = new ArrayList();
 		 for (int i = 0; i < instructionList.size(); i++) {
 		 	Object rawInstr = instructionList.get(i);
 			if (rawInstr instanceof BasicInstruction) {
@@ -127,21 +134,80 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 					maskMap.put(mask, matchMap);
 					matchMaps.add(new MatchMap(mask, matchMap));
 				}
-				matchMap.put(match, basic);
+				BasicInstruction replaced = (BasicInstruction) matchMap.put(match, basic);
+				if (replaced != null && replaced != basic) {
+					ambiguous.add(describeAmbiguity(basic, replaced));
+				}
 			}
 		 }
 		 Collections.sort(matchMaps);
-		 this.opcodeMatchMaps = matchMaps;
+		 this.decodeTable = new DecodeTable(matchMaps);
+		 this.decodeTable.findOverlaps(ambiguous);
+		 this.ambiguousEncodings = ambiguous;
+		 if (Globals.debug) { // would otherwise land in the program output of command-line runs
+		 	for (int i = 0; i < ambiguous.size(); i++) {
+		 		System.out.println("Warning: " + ambiguous.get(i));
+		 	}
+		 }
+		 
+		 // Index the mnemonics for matchOperator() and prefixMatchOperator().
+         HashMap operators = new HashMap();
+         OperatorTrie trie = new OperatorTrie();
+         for (int i = 0; i < instructionList.size(); i++)
+         {
+            Instruction inst = (Instruction) instructionList.get(i);
+            String name = inst.getName().toLowerCase();
+            ArrayList matches = (ArrayList) operators.get(name);
+            if (matches == null)
+            {
+               matches = new ArrayList();
+               operators.put(name, matches);
+            }
+            matches.add(inst);
+            trie.add(name, inst);
+         }
+         this.operatorMap = operators;
+         this.operatorTrie = trie;
+         this.generation++;
       }
 
+    /**
+     * Returns a number that changes each time populate() rebuilds the set, for instance
+     * when a custom language is enabled.  Results that depend on which instructions exist,
+     * such as tokens lexed from source, must not be reused across a change.
+     * @return the current generation of the instruction set
+     */
+       public int getGeneration() {
+         return generation;
+      }
+
+    /**
+     * Given a binary machine instruction, returns the basic instruction it encodes: the
+     * one with the most bits fixed by its operation mask, if more than one matches.  Looked
+     * up in a table, built by populate(), of the candidates for each primary opcode and
+     * function field.
+     * @param binaryInstr 32-bit machine instruction
+     * @return the matching BasicInstruction, or null if there is none
+     */
 	public BasicInstruction findByBinaryCode(int binaryInstr) {
-		ArrayList matchMaps = this.opcodeMatchMaps;
-		for (int i = 0; i < matchMaps.size(); i++) {
-			MatchMap map = (MatchMap) matchMaps.get(i);
-			BasicInstruction ret = map.find(binaryInstr);
-			if (ret != null) return ret;
-		}
-		return null;
+		return decodeTable.find(binaryInstr);
+	}
+
+    /**
+     * Returns descriptions of the binary encodings that more than one basic instruction
+     * in the current set matches equally well, so that findByBinaryCode() cannot tell
+     * them apart.  This happens when an enabled custom language reuses encodings of
+     * another, MIPS included.  Also reported as warnings by populate() in debug mode.
+     * @return list of Strings, empty if there are no ambiguous encodings
+     */
+	public ArrayList getAmbiguousEncodings() {
+		return new ArrayList(ambiguousEncodings);
+	}
+
+	private static String describeAmbiguity(BasicInstruction used, BasicInstruction other) {
+		return "instructions \"" + used.getExampleFormat() + "\" and \"" + other.getExampleFormat()
+			+ "\" have overlapping binary encodings; \"" + used.getName() 
+			+ "\" is used for disassembly";
 	}
    	
     /*  METHOD TO ADD PSEUDO-INSTRUCTIONS
@@ -221,50 +287,34 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	
     /**
      *  Given an operator mnemonic, will return the corresponding Instruction object(s)
-     *  from the instruction set.  Uses straight linear search technique.
+     *  from the instruction set.  Case-insensitive.  Looked up in a hash map of the
+     *  mnemonics, built by populate().
      *  @param name operator mnemonic (e.g. addi, sw,...)
      *  @return list of corresponding Instruction object(s), or null if not found.
      */
        public ArrayList matchOperator(String name)
       {
-         ArrayList matchingInstructions = null;
-        // Linear search for now....
-         for (int i = 0; i < instructionList.size(); i++)
-         {
-            if (((Instruction) instructionList.get(i)).getName().equalsIgnoreCase(name))
-            {
-               if (matchingInstructions == null) 
-                  matchingInstructions = new ArrayList();
-               matchingInstructions.add(instructionList.get(i));
-            }
-         }
-         return matchingInstructions;
+         if (name == null)
+            return null;
+         ArrayList matches = (ArrayList) operatorMap.get(name.toLowerCase());
+         return (matches == null) ? null : new ArrayList(matches);
       }
    
    
     /**
      *  Given a string, will return the Instruction object(s) from the instruction
      *  set whose operator mnemonic prefix matches it.  Case-insensitive.  For example
-     *  "s" will match "sw", "sh", "sb", etc.  Uses straight linear search technique.
+     *  "s" will match "sw", "sh", "sb", etc.  Looked up in a prefix trie of the 
+     *  mnemonics, built by populate().
      *  @param name a string
      *  @return list of matching Instruction object(s), or null if none match.
      */
        public ArrayList prefixMatchOperator(String name)
       {
-         ArrayList matchingInstructions = null;
-        // Linear search for now....
-         if (name != null) {
-            for (int i = 0; i < instructionList.size(); i++)
-            {
-               if (((Instruction) instructionList.get(i)).getName().toLowerCase().startsWith(name.toLowerCase()))
-               {
-                  if (matchingInstructions == null) 
-                     matchingInstructions = new ArrayList();
-                  matchingInstructions.add(instructionList.get(i));
-               }
-            }
-         }
-         return matchingInstructions;
+         if (name == null)
+            return null;
+         ArrayList matches = operatorTrie.find(name.toLowerCase());
+         return (matches == null) ? null : new ArrayList(matches);
       }
    	
    	/*
@@ -277,7 +327,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                                                         throws ProcessingException {
          Syscall service = syscallLoader.findSyscall(number);
          if (service != null) {
-            service.simulate(statement);
+            // Simulates the service, or replays its recorded effect while back-stepping.
+            ReplayHistory.simulateSyscall(service, statement);
             return;
          }
          throw new ProcessingException(statement,
@@ -351,6 +402,128 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             	  Instruction.INSTRUCTION_LENGTH : 0) );	 
       }
 
+	  // Prefix trie of lower case mnemonics.  Each node has the instructions whose mnemonic
+	  // starts with the node's prefix, in instruction list order, so a prefix match is one
+	  // walk down the trie.
+	  private static class OperatorTrie {
+	  	private HashMap children = new HashMap(); // Character to OperatorTrie
+		private ArrayList instructions = new ArrayList();
+
+		public void add(String name, Instruction inst) {
+			OperatorTrie node = this;
+			node.instructions.add(inst);
+			for (int i = 0; i < name.length(); i++) {
+				Character c = new Character(name.charAt(i));
+				OperatorTrie child = (OperatorTrie) node.children.get(c);
+				if (child == null) {
+					child = new OperatorTrie();
+					node.children.put(c, child);
+				}
+				node = child;
+				node.instructions.add(inst);
+			}
+		}
+
+		// Returns the instructions whose mnemonic starts with the prefix, or null if none.
+		public ArrayList find(String prefix) {
+			OperatorTrie node = this;
+			for (int i = 0; i < prefix.length() && node != null; i++) {
+				node = (OperatorTrie) node.children.get(new Character(prefix.charAt(i)));
+			}
+			return (node == null || node.instructions.isEmpty()) ? null : node.instructions;
+		}
+	  }
+
+	  // Decoding table for findByBinaryCode().  Every basic instruction is listed under each
+	  // combination of primary opcode (bits 31-26) and function field (bits 5-0) that its
+	  // operation mask allows, in the order of the sorted MatchMaps (most specific mask first).
+	  // The first candidate whose mask and match fit the instruction word is the one the
+	  // MatchMaps would find.  Cells with the same candidates share one Cell.
+	  private static class DecodeTable {
+		private static final int CELL_MASK = 0xFC00003F;
+		private Cell[] cells = new Cell[1 << 12];
+
+		public DecodeTable(ArrayList matchMaps) {
+			ArrayList candidates = new ArrayList();
+			for (int i = 0; i < matchMaps.size(); i++) {
+				MatchMap map = (MatchMap) matchMaps.get(i);
+				Iterator it = map.matchMap.values().iterator();
+				while (it.hasNext()) {
+					candidates.add(it.next());
+				}
+			}
+			HashMap shared = new HashMap(); // candidate list to Cell
+			for (int cell = 0; cell < cells.length; cell++) {
+				int bits = ((cell >>> 6) << 26) | (cell & 0x3F);
+				ArrayList list = new ArrayList();
+				for (int i = 0; i < candidates.size(); i++) {
+					BasicInstruction basic = (BasicInstruction) candidates.get(i);
+					if (((bits ^ basic.getOpcodeMatch()) & basic.getOpcodeMask() & CELL_MASK) == 0) {
+						list.add(basic);
+					}
+				}
+				Cell c = (Cell) shared.get(list);
+				if (c == null) {
+					c = new Cell(list);
+					shared.put(list, c);
+				}
+				cells[cell] = c;
+			}
+		}
+
+		public BasicInstruction find(int instr) {
+			Cell c = cells[((instr >>> 26) << 6) | (instr & 0x3F)];
+			int[] masks = c.masks;
+			int[] matches = c.matches;
+			for (int i = 0; i < masks.length; i++) {
+				if ((instr & masks[i]) == matches[i]) {
+					return c.instructions[i];
+				}
+			}
+			return null;
+		}
+
+		// Adds a description to the list for each pair of candidates with different masks
+		// fixing the same number of bits that both match some instruction word, so that
+		// which one is found depends only on the order of their masks.
+		public void findOverlaps(ArrayList ambiguous) {
+			HashSet seen = new HashSet();
+			HashSet reported = new HashSet();
+			for (int cell = 0; cell < cells.length; cell++) {
+				Cell c = cells[cell];
+				if (!seen.add(c)) 
+					continue;
+				for (int i = 0; i < c.masks.length; i++) {
+					for (int j = i + 1; j < c.masks.length; j++) {
+						if (c.masks[i] != c.masks[j] 
+							&& Integer.bitCount(c.masks[i]) == Integer.bitCount(c.masks[j])
+							&& ((c.matches[i] ^ c.matches[j]) & c.masks[i] & c.masks[j]) == 0
+							&& reported.add(Arrays.asList(new Object[] {c.instructions[i], c.instructions[j]}))) {
+							ambiguous.add(describeAmbiguity(c.instructions[i], c.instructions[j]));
+						}
+					}
+				}
+			}
+		}
+	  }
+
+	  private static class Cell {
+		private int[] masks;
+		private int[] matches;
+		private BasicInstruction[] instructions;
+
+		public Cell(ArrayList list) {
+			masks = new int[list.size()];
+			matches = new int[list.size()];
+			instructions = new BasicInstruction[list.size()];
+			for (int i = 0; i < list.size(); i++) {
+				instructions[i] = (BasicInstruction) list.get(i);
+				masks[i] = instructions[i].getOpcodeMask();
+				matches[i] = instructions[i].getOpcodeMatch();
+			}
+		}
+	  }
+
 	  private static class MatchMap implements Comparable {
 	  	private int mask;
 		private int maskLength; // number of 1 bits in mask
@@ -379,11 +552,6 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
 			if (d == 0) d = this.mask - o.mask;
 			return d;
 		}
-
-		public BasicInstruction find(int instr) {
-			int match = Integer.valueOf(instr & mask);
-			return (BasicInstruction) matchMap.get(match);
-		}
 	}
    }
 
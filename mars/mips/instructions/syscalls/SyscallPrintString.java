@@ -37,6 +37,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
  */
  
     public class SyscallPrintString extends AbstractSyscall {
+      private static final int PAGE_LENGTH = 4096; // memory is read up to a page at a time
+   
    /**
     * Build an instance of the Print String syscall.  Default service number
     * is 4 and name is "PrintString".
@@ -47,19 +49,37 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       
    /**
    * Performs syscall function to print string stored starting at address in $a0.
+   * The string is read from memory up to a page at a time.
    */
        public void simulate(ProgramStatement statement) throws ProcessingException {
          int byteAddress = RegisterFile.getValue(4);
-         char ch = 0;
+         byte[] bytes = new byte[PAGE_LENGTH];
+         StringBuffer string = new StringBuffer();
          try
          {
-            ch = (char) Globals.memory.getByte(byteAddress);
                               // won't stop until NULL byte reached!
-            while (ch != 0)
+            while (true)
             {
-               SystemIO.printString(new Character(ch).toString());
-               byteAddress++;
-               ch = (char) Globals.memory.getByte(byteAddress);
+               int length;
+               try
+               {
+                  length = Globals.memory.readString(byteAddress, bytes, 0, PAGE_LENGTH);
+               } 
+                   catch (AddressErrorException e)
+                  {
+                     // print the part of the string before the invalid address
+                     append(string, bytes, e.getAddress() - byteAddress);
+                     SystemIO.printString(string.toString());
+                     throw e;
+                  }
+               if (bytes[length - 1] == 0)
+               {
+                  append(string, bytes, length - 1);
+                  SystemIO.printString(string.toString());
+                  return;
+               }
+               append(string, bytes, length);
+               byteAddress += length;
             }
          } 
              catch (AddressErrorException e)
@@ -67,4 +87,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                throw new ProcessingException(statement, e);
             }
       }
+   
+      // Appends bytes to the string as characters, as getByte() values were printed.
+       private static void append(StringBuffer string, byte[] bytes, int length) {
+         for (int index = 0; index < length; index++)
+         {
+            string.append((char) (bytes[index] & 0xFF));
+         }
+      }
    }
\ No newline at end of file
@@ -54,30 +54,44 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static final int COPROC1_CONDITION_SET = 9;
       private static final int DO_NOTHING = 10;  // instruction does not write anything.
    
-      // Flag to mark BackStep object as prepresenting specific situation: user manipulates
+      // Flag to mark back step as representing specific situation: user manipulates
    	// memory/register value via GUI after assembling program but before running it.
       private static final int NOT_PC_VALUE = -1;
    	
       private boolean engaged;
       private BackstepStack backSteps;
+      private ReplayHistory history; // used instead of backSteps if not null
    	
-   	// One can argue using java.util.Stack, given its clumsy implementation.
-   	// A homegrown linked implementation will be more streamlined, but
-   	// I anticipate that backstepping will only be used during timed
-   	// (currently max 30 instructions/second) or stepped execution, where
-   	// performance is not an issue.  Its Vector implementation may result
-   	// in quicker garbage collection than a pure linked list implementation.
+   	// Back steps are recorded whenever back-stepping is enabled, which includes running
+   	// at full speed in the GUI, so recording must be cheap: see BackstepStack below.
    
        /**
    	  * Create a fresh BackStepper.  It is enabled, which means all
    	  * subsequent instruction executions will have their "undo" action
-   	  * recorded here.
+   	  * recorded here.  If <tt>Globals.backstepSnapshotInterval</tt> is greater
+   	  * than 0 it keeps a ReplayHistory with snapshots at that interval; otherwise
+   	  * it holds up to <tt>Globals.maximumBacksteps</tt> undo actions.  Both are set in
+   	  * Config.properties.  Undo actions are also used when memory is held off the Java
+   	  * heap, because snapshots then have to copy the data and stack segments.
    	  */
        public BackStepper() {
-         engaged = true;
-         backSteps = new BackstepStack(Globals.maximumBacksteps);
+         this(Globals.maximumBacksteps);
+         if (Globals.backstepSnapshotInterval > 0 && Memory.getBacking() == Memory.HEAP_BACKING) {
+            history = new ReplayHistory(Globals.backstepSnapshotInterval);
+         }
       }
    
+       /**
+   	  * Create a fresh, enabled BackStepper that holds up to the given number of
+   	  * steps.  Once full, each new step replaces the oldest.  Storage grows as steps
+   	  * are recorded, so a large capacity costs nothing until it is used.
+   	  * @param capacity maximum number of steps that can be undone
+   	  */
+       public BackStepper(int capacity) {
+         engaged = true;
+         backSteps = new BackstepStack(Math.max(capacity, 1));
+      }
+   	
        /**
    	  * Determine whether execution "undo" steps are currently being recorded.
    	  * @return true if undo steps being recorded, false if not.
@@ -93,13 +107,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public void setEnabled(boolean state) {
          engaged = state;
       }
+
+      /**
+   	 * Discard all recorded steps, as after a run that was not recorded (see
+   	 * <tt>Simulator.setTurboMode()</tt>), since they can no longer be undone correctly.
+   	 */
+       public void clear() {
+         backSteps = new BackstepStack(backSteps.capacity);
+         if (history != null) {
+            history = new ReplayHistory(Globals.backstepSnapshotInterval);
+         }
+      }
    
       /**
    	 * Test whether there are steps that can be undone.
    	 * @return true if there are no steps to be undone, false otherwise.
    	 */
        public boolean empty() {
-         return backSteps.empty();
+         return (history != null) ? history.empty() : backSteps.empty();
+      }
+   
+   	/**
+   	 * Returns the snapshot-and-replay history used for back-stepping, if any.
+   	 * @return the ReplayHistory, or null if undo actions are recorded instead.
+   	 */
+       public ReplayHistory getReplayHistory() {
+         return history;
       }
    	
    	/**
@@ -110,7 +143,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 */
    	// Added 25 June 2007
        public boolean inDelaySlot() {
-         return !empty() && backSteps.peek().inDelaySlot;
+         if (history != null) {
+            return history.inDelaySlot();
+         }
+         return !empty() && backSteps.inDelaySlot(backSteps.top);
       }
    	
       /**
@@ -126,50 +162,56 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	 // Use a do-while loop based on the backstep's program statement reference.
    	 
        public void backStep() {
+         if (engaged && history != null) {
+            if (!history.empty()) {
+               engaged = false;
+               history.backStepTo(history.getInstructionCount() - 1);
+               engaged = true;
+            }
+            return;
+         }
          if (engaged && !backSteps.empty()) {
-            ProgramStatement statement = ((BackStep)backSteps.peek()).ps;
+            int statementPC = backSteps.pcs[backSteps.top];
             engaged = false; // GOTTA DO THIS SO METHOD CALL IN SWITCH WILL NOT RESULT IN NEW ACTION ON STACK!
             do {
-               BackStep step = (BackStep) backSteps.pop();
-            /*
-            	System.out.println("backstep POP: action "+step.action+" pc "+mars.util.Binary.intToHexString(step.pc)+
-            	                   " source "+((step.ps==null)? "none":step.ps.getSource())+
-            							 " parm1 "+step.param1+" parm2 "+step.param2);
-            */
-               if (step.pc != NOT_PC_VALUE) {
-                  RegisterFile.setProgramCounter(step.pc);
+               int step = backSteps.pop();
+               int pc = backSteps.pcs[step];
+               int param1 = backSteps.param1s[step];
+               int param2 = backSteps.param2s[step];
+               if (pc != NOT_PC_VALUE) {
+                  RegisterFile.setProgramCounter(pc);
                }
                try {
-                  switch (step.action) {
+                  switch (backSteps.actions[step]) {
                      case MEMORY_RESTORE_RAW_WORD : 
-                        Globals.memory.setRawWord(step.param1, step.param2);
+                        Globals.memory.setRawWord(param1, param2);
                         break;
                      case MEMORY_RESTORE_WORD : 
-                        Globals.memory.setWord(step.param1, step.param2);
+                        Globals.memory.setWord(param1, param2);
                         break;
                      case MEMORY_RESTORE_HALF :
-                        Globals.memory.setHalf(step.param1, step.param2);
+                        Globals.memory.setHalf(param1, param2);
                         break;
                      case MEMORY_RESTORE_BYTE :
-                        Globals.memory.setByte(step.param1, step.param2);
+                        Globals.memory.setByte(param1, param2);
                         break;
                      case REGISTER_RESTORE :
-                        RegisterFile.updateRegister(step.param1, step.param2);
+                        RegisterFile.updateRegister(param1, param2);
                         break;
                      case PC_RESTORE : 
-                        RegisterFile.setProgramCounter(step.param1);
+                        RegisterFile.setProgramCounter(param1);
                         break;
                      case COPROC0_REGISTER_RESTORE :
-                        Coprocessor0.updateRegister(step.param1, step.param2);
+                        Coprocessor0.updateRegister(param1, param2);
                         break;
                      case COPROC1_REGISTER_RESTORE :
-                        Coprocessor1.updateRegister(step.param1, step.param2);
+                        Coprocessor1.updateRegister(param1, param2);
                         break;
                      case COPROC1_CONDITION_CLEAR :
-                        Coprocessor1.clearConditionFlag(step.param1);
+                        Coprocessor1.clearConditionFlag(param1);
                         break;
                      case COPROC1_CONDITION_SET :
-                        Coprocessor1.setConditionFlag(step.param1);
+                        Coprocessor1.setConditionFlag(param1);
                         break;
                      case DO_NOTHING :
                         break;
@@ -180,12 +222,12 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                      System.out.println("Internal MARS error: address exception while back-stepping.");
                      System.exit(0);
                   }
-            } while (!backSteps.empty() && statement == ((BackStep)backSteps.peek()).ps);
+            // Steps recorded by the same instruction execution share its address.
+            } while (!backSteps.empty() && statementPC == backSteps.pcs[backSteps.top]);
             engaged = true;  // RESET IT (was disabled at top of loop -- see comment)
          }
       }
-  
-     
+   
       /* Convenience method called below to get program counter value.  If it needs to be
    	 * be modified (e.g. to subtract 4) that can be done here in one place.
    	 */
@@ -203,6 +245,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreRawWord(int address, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.MEMORY_RAW_WORD, address);
+            return value;
+         }
          backSteps.push(MEMORY_RESTORE_RAW_WORD, pc(), address, value);
          return value;
       }   
@@ -215,6 +261,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreWord(int address, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.MEMORY_WORD, address);
+            return value;
+         }
          backSteps.push(MEMORY_RESTORE_WORD, pc(), address, value);
          return value;
       }   
@@ -227,6 +277,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreHalf(int address, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.MEMORY_HALF, address);
+            return value;
+         }
          backSteps.push(MEMORY_RESTORE_HALF, pc(), address, value);
          return value;
       }
@@ -239,6 +293,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addMemoryRestoreByte(int address, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.MEMORY_BYTE, address);
+            return value;
+         }
          backSteps.push(MEMORY_RESTORE_BYTE, pc(), address, value);
          return value;
       }   
@@ -251,6 +309,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addRegisterFileRestore(int register, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.REGISTER, register);
+            return value;
+         }
          backSteps.push(REGISTER_RESTORE, pc(), register, value);
          return value;
       } 
@@ -264,6 +326,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
        public int addPCRestore(int value) {
          // adjust for value reflecting incremented PC.  
          value -= Instruction.INSTRUCTION_LENGTH; 
+         if (history != null) {
+            history.written(ReplayHistory.PROGRAM_COUNTER, 0);
+            return value;
+         }
          // Use "value" insead of "pc()" for second arg because RegisterFile.getProgramCounter() 
          // returns branch target address at this point.
          backSteps.push(PC_RESTORE, value, value); 
@@ -278,6 +344,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addCoprocessor0Restore(int register, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.COPROCESSOR0_REGISTER, register);
+            return value;
+         }
          backSteps.push(COPROC0_REGISTER_RESTORE, pc(), register, value);
          return value;
       }		
@@ -290,6 +360,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addCoprocessor1Restore(int register, int value) {
+         if (history != null) {
+            history.written(ReplayHistory.COPROCESSOR1_REGISTER, register);
+            return value;
+         }
          backSteps.push(COPROC1_REGISTER_RESTORE, pc(), register, value);
          return value;
       }		
@@ -301,6 +375,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addConditionFlagSet(int flag) {
+         if (history != null) {
+            history.written(ReplayHistory.CONDITION_FLAG, flag);
+            return flag;
+         }
          backSteps.push(COPROC1_CONDITION_SET, pc(), flag);
          return flag;
       }	
@@ -312,6 +390,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return the argument value
    	  */
        public int addConditionFlagClear(int flag) {
+         if (history != null) {
+            history.written(ReplayHistory.CONDITION_FLAG, flag);
+            return flag;
+         }
          backSteps.push(COPROC1_CONDITION_CLEAR, pc(), flag);
          return flag;
       }	
@@ -324,137 +406,123 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    	  * @return 0
    	  */
        public int addDoNothing(int pc) {
-         if (backSteps.empty() || backSteps.peek().pc != pc) { 
+         if (history != null) {
+            return 0;
+         }
+         if (backSteps.empty() || backSteps.pcs[backSteps.top] != pc) { 
             backSteps.push(DO_NOTHING, pc);
          }
          return 0;
       }
    	
    		   	 	
-   	// Represents a "back step" (undo action) on the stack.
-       private class BackStep {
-         private int action;  // what do do MEMORY_RESTORE_WORD, etc
-         private int pc;      // program counter value when original step occurred
-         private ProgramStatement ps;   // statement whose action is being "undone" here
-         private int param1;  // first parameter required by that action
-         private int param2;  // optional second parameter required by that action
-         private boolean inDelaySlot; // true if instruction executed in "delay slot" (delayed branching enabled)
-      
-         // it is critical that BackStep object get its values by calling this method
-      	// rather than assigning to individual members, because of the technique used
-      	// to set its ps member (and possibly pc).
-          private void assign(int act, int programCounter, int parm1, int parm2) {
-            action = act;
-            pc     = programCounter;
-            try {
-            // Client does not have direct access to program statement, and rather than making all
-            // of them go through the methods below to obtain it, we will do it here.  
-            // Want the program statement but do not want observers notified.
-               ps = Globals.memory.getStatementNoNotify(programCounter);
-            } 
-                catch (Exception e) {
-                // The only situation causing this so far: user modifies memory or register
-                // contents through direct manipulation on the GUI, after assembling the program but
-                // before starting to run it (or after backstepping all the way to the start).
-                // The action will not be associated with any instruction, but will be carried out
-                // when popped.
-                  ps = null;
-                  pc = NOT_PC_VALUE; // Backstep method above will see this as flag to not set PC
-               } 
-            param1 = parm1;
-            param2 = parm2;
-            inDelaySlot = Simulator.inDelaySlot(); // ADDED 25 June 2007
-         /*				
-            System.out.println("backstep PUSH: action "+action+" pc "+mars.util.Binary.intToHexString(pc)+
-         		                   " source "+((ps==null)? "none":ps.getSource())+
-         								 " parm1 "+param1+" parm2 "+param2);
-         */
+   	// Address of the instruction recording a step, or NOT_PC_VALUE if no instruction could
+   	// be fetched from there.  The only situation causing the latter so far: user modifies
+   	// memory or register contents through direct manipulation on the GUI, after assembling
+   	// the program but before starting to run it (or after backstepping all the way to the
+   	// start).  The action will not be associated with any instruction, but will be carried
+   	// out when popped.  Same test as Memory.getStatementNoNotify() without fetching the
+   	// statement.
+       private static int instructionAddress(int programCounter) {
+         if (Memory.wordAligned(programCounter)
+             && (Memory.inTextSegment(programCounter) || Memory.inKernelTextSegment(programCounter))) {
+            return programCounter;
          }
+         if (Memory.wordAligned(programCounter)
+             && Globals.getSettings().getBooleanSetting(Settings.SELF_MODIFYING_CODE_ENABLED)
+             && (Memory.inDataSegment(programCounter) || Memory.inKernelDataSegment(programCounter))) {
+            return programCounter;
+         }
+         return NOT_PC_VALUE;
       }
    	
    	// *****************************************************************************
    	// special purpose stack class for backstepping.  You've heard of circular queues
    	// implemented with an array, right?  This is a circular stack!  When full, the
    	// newly-pushed item overwrites the oldest item, with circular top!  All operations 
-   	// are constant time.  It's synchronized too, to be safe (is used by both the 
-   	// simulation thread and the GUI thread for the back-step button).
-   	// Upon construction, it is filled with newly-created empty BackStep objects which
-   	// will exist for the life of the stack.  Push does not create a BackStep object 
-   	// but instead overwrites the contents of the existing one.  Thus during MIPS
-   	// program (simulated) execution, BackStep objects are never created or junked
-   	// regardless of how many steps are executed.  This will speed things up a bit
-   	// and make life easier for the garbage collector.
+   	// are constant time.
+   	// Each back step is stored as one element of several parallel arrays of primitives
+   	// (action, pc, two parameters and a delay slot bit) rather than as an object, so a
+   	// push is a handful of array stores and nothing is ever created for the garbage
+   	// collector.  The arrays start small and double as needed until they reach the
+   	// capacity, so a large capacity only costs memory when that many steps are recorded.
+   	// Only the simulation thread pushes.  The GUI thread (back-step button) pops and peeks
+   	// only while the simulation is paused, so no locking is needed; size is volatile and
+   	// written last so the GUI sees complete entries.
    	
-       private class BackstepStack {
+       private static class BackstepStack {
+         private static final int INITIAL_LENGTH = 1024;
          private int capacity;
-         private int size;
+         private volatile int size;
          private int top;
-         private BackStep[] stack;
+         private int[] actions;
+         private int[] pcs;
+         private int[] param1s;
+         private int[] param2s;
+         private long[] delaySlots; // bit per entry: executed in delay slot
       
-          // Stack is created upon successful assembly or reset.  The one-time overhead of
-      	 // creating all the BackStep objects will not be noticed by the user, and enhances
-      	 // runtime performance by not having to create or recycle them during MIPS
-      	 // program execution.
           private BackstepStack(int capacity) {
             this.capacity = capacity;
-            this.size = 0;
             this.top = -1;
-            this.stack = new BackStep[capacity];
-            for (int i=0; i<capacity; i++) {
-               this.stack[i] = new BackStep();
-            }
+            allocate(Math.min(capacity, INITIAL_LENGTH));
          }
       	
-          private synchronized boolean empty() {
+          private boolean empty() {
             return size==0;
          }
          
-          private synchronized void push(int act, int programCounter, int parm1, int parm2) {
-            if (size==0) {
-               top=0;
-               size++;
-            } 
-            else if (size < capacity) {
-               top = (top + 1) % capacity;
-               size++;
+          private void push(int act, int programCounter, int parm1, int parm2) {
+            int count = size;
+            if (count == actions.length && count < capacity) {
+               allocate(Math.min(capacity, count * 2)); // entries are still at 0..count-1
+            }
+            top = (top + 1) % actions.length;
+            actions[top] = act;
+            pcs[top] = instructionAddress(programCounter);
+            param1s[top] = parm1;
+            param2s[top] = parm2;
+            if (Simulator.inDelaySlot()) { // ADDED 25 June 2007
+               delaySlots[top >> 6] |= 1L << top;
             } 
-            else { // size == capacity.  The top moves up one, replacing oldest entry (goodbye!)
-               top = (top + 1) % capacity;
+            else {
+               delaySlots[top >> 6] &= ~(1L << top);
             }
-         	// We'll re-use existing objects rather than create/discard each time.
-         	// Must use assign() method rather than series of assignment statements!
-            stack[top].assign(act, programCounter, parm1, parm2);
+            if (count < actions.length) {
+               size = count + 1;
+            } // else full: the top moved up one, replacing oldest entry (goodbye!)
          }
       	
-          private synchronized void push(int act, int programCounter, int parm1) {
+          private void push(int act, int programCounter, int parm1) {
             push(act, programCounter, parm1, 0);
          }
       	
-          private synchronized void push(int act, int programCounter) {
+          private void push(int act, int programCounter) {
             push(act, programCounter, 0, 0);
          }
          
       	// NO PROTECTION.  This class is used only within this file so there is no excuse
-      	// for trying to pop from empty stack.
-          private synchronized BackStep pop() {
-            BackStep bs;
-            bs = stack[top];
-            if (size==1) {
-               top = -1;
-            } 
-            else {
-               top = (top + capacity - 1) % capacity;
-            }
+      	// for trying to pop from empty stack.  Returns the index of the popped entry,
+      	// which remains valid until the next push.
+          private int pop() {
+            int popped = top;
+            top = (top + actions.length - 1) % actions.length;
             size--;
-            return bs;
+            return popped;
          }
       
-      	// NO PROTECTION.  This class is used only within this file so there is no excuse
-      	// for trying to peek from empty stack.         
-          private synchronized BackStep peek() {
-            return stack[top];
+          private boolean inDelaySlot(int index) {
+            return (delaySlots[index >> 6] & (1L << index)) != 0;
+         }
+      
+         // Set the arrays to the given length, keeping existing entries.
+          private void allocate(int length) {
+            actions = (actions == null) ? new int[length] : Arrays.copyOf(actions, length);
+            pcs = (pcs == null) ? new int[length] : Arrays.copyOf(pcs, length);
+            param1s = (param1s == null) ? new int[length] : Arrays.copyOf(param1s, length);
+            param2s = (param2s == null) ? new int[length] : Arrays.copyOf(param2s, length);
+            int words = (length + 63) >> 6;
+            delaySlots = (delaySlots == null) ? new long[words] : Arrays.copyOf(delaySlots, words);
          }
-      			
       }
    
-   }
\ No newline at end of file
+   }
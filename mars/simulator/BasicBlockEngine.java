@@ -0,0 +1,201 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+
+/**
+ * Execution engine used by the simulator alongside the per-instruction interpreter.
+ * It counts how often each user text address starts an instruction cycle and, once
+ * an address becomes hot, links the straight-line run of instructions beginning there
+ * (a basic block) into an array of statements and SimulationCode objects.  Hot blocks
+ * are then executed in one tight loop, with the per-instruction bookkeeping of the
+ * run loop (stop, breakpoint, interrupt and GUI checks, instruction fetch) done once
+ * per block instead of once per instruction.
+ * <p>
+ * A block ends after the first branch or jump, before any breakpoint, or at the first
+ * address that holds no executable statement.  Because custom languages can change the
+ * program counter from any instruction, the engine also leaves a block as soon as the
+ * program counter is not where straight-line execution would put it.  Blocks are
+ * discarded whenever the text segment is modified, and self-modifying code that writes
+ * to the text segment from within a block leaves that block at once, so an instruction
+ * it patched further along runs in its new form.
+ * <p>
+ * The engine may only be used when nothing needs to observe individual instruction
+ * cycles: no delayed branching, no back-stepping, no step limit and no memory observers.
+ * See <tt>Simulator.SimThread.construct()</tt>.
+ */
+
+    class BasicBlockEngine {
+      // Number of times an address must start an instruction cycle before its block is linked.
+      private static final int HOT_THRESHOLD = 32;
+      // Upper limit on instructions in one block.
+      private static final int MAX_BLOCK_LENGTH = 64;
+
+      private DecodedInstructionCache decoded;
+      private int[] breakPoints;  // sorted, or null
+      private int baseAddress;
+      private int limitAddress;
+      private int modificationCount;
+      private int[] counts;
+      private Block[] blocks;
+
+   	/**
+   	 * Create an engine for one simulation run.
+   	 * @param decoded the decoded instruction cache of the memory being simulated
+   	 * @param breakPoints sorted array of breakpoint addresses, or null if none
+   	 */
+       BasicBlockEngine(DecodedInstructionCache decoded, int[] breakPoints) {
+         this.decoded = decoded;
+         this.breakPoints = breakPoints;
+         this.baseAddress = Memory.textBaseAddress;
+         this.limitAddress = Memory.textLimitAddress;
+         reset();
+      }
+
+   	/**
+   	 * Returns the block starting at the given address if that address is hot,
+   	 * linking it first if necessary.  Returns null for cold addresses and for
+   	 * addresses outside the user text segment.
+   	 * @param address address of the instruction about to be executed
+   	 * @return hot Block starting at that address, or null
+   	 */
+       Block getHotBlock(int address) {
+         if (modificationCount != decoded.getModificationCount()) {
+            reset();
+         }
+         if (address < baseAddress || address >= limitAddress || (address & 3) != 0) {
+            return null;
+         }
+         int index = (address - baseAddress) >> 2;
+         if (index >= counts.length) {
+            grow(index);
+         }
+         Block block = blocks[index];
+         if (block == null && ++counts[index] >= HOT_THRESHOLD) {
+            block = link(address);
+            blocks[index] = block;
+            counts[index] = Integer.MIN_VALUE; // do not try again if linking failed
+         }
+         return block;
+      }
+
+      // Discard all counts and linked blocks.
+       private void reset() {
+         modificationCount = decoded.getModificationCount();
+         counts = new int[0];
+         blocks = new Block[0];
+      }
+
+      // Enlarge counts and blocks so the given index is valid.
+       private void grow(int index) {
+         int capacity = Math.max(counts.length, 1024);
+         while (capacity <= index) {
+            capacity <<= 1;
+         }
+         capacity = Math.min(capacity, (limitAddress - baseAddress) >> 2);
+         int[] newCounts = new int[capacity];
+         Block[] newBlocks = new Block[capacity];
+         System.arraycopy(counts, 0, newCounts, 0, counts.length);
+         System.arraycopy(blocks, 0, newBlocks, 0, blocks.length);
+         counts = newCounts;
+         blocks = newBlocks;
+      }
+
+      // Link the basic block starting at the given address.  Returns null if the
+      // first statement cannot be linked.
+       private Block link(int startAddress) {
+         ProgramStatement[] statements = new ProgramStatement[MAX_BLOCK_LENGTH];
+         SimulationCode[] codes = new SimulationCode[MAX_BLOCK_LENGTH];
+         int length = 0;
+         int address = startAddress;
+         while (length < MAX_BLOCK_LENGTH && address < limitAddress) {
+            if (length > 0 && breakPoints != null && java.util.Arrays.binarySearch(breakPoints, address) >= 0) {
+               break;
+            }
+            ProgramStatement statement = decoded.getStatement(address);
+            if (statement == null) {
+               try {
+                  statement = Globals.memory.getStatementNoNotify(address);
+               }
+                   catch (AddressErrorException aee) {
+                     break;
+                  }
+               decoded.put(address, statement);
+            }
+            SimulationCode code = decoded.getSimulationCode(address);
+            if (code == null) {
+               break;
+            }
+            statements[length] = statement;
+            codes[length] = code;
+            length++;
+            address += Instruction.INSTRUCTION_LENGTH;
+            if (endsBlock((BasicInstruction) statement.getInstruction())) {
+               break;
+            }
+         }
+         if (length == 0) {
+            return null;
+         }
+         return new Block(decoded, startAddress, length, statements, codes);
+      }
+
+      // Branches, jumps and exception returns transfer control and end a block.
+       private static boolean endsBlock(BasicInstruction instruction) {
+         BasicInstructionFormat format = instruction.getInstructionFormat();
+         if (format == BasicInstructionFormat.I_BRANCH_FORMAT || format == BasicInstructionFormat.J_FORMAT) {
+            return true;
+         }
+         String name = instruction.getName();
+         return name.equals("jr") || name.equals("jalr") || name.equals("eret");
+      }
+
+      /**
+   	 * A linked basic block: consecutive statements starting at a given address
+   	 * along with their SimulationCode.
+   	 */
+       static class Block {
+         private DecodedInstructionCache decoded;
+         private int modificationCount; // of decoded when linked
+         private int startAddress;
+         private int length;
+         private ProgramStatement[] statements;
+         private SimulationCode[] codes;
+
+          private Block(DecodedInstructionCache decoded, int startAddress, int length,
+                        ProgramStatement[] statements, SimulationCode[] codes) {
+            this.decoded = decoded;
+            this.modificationCount = decoded.getModificationCount();
+            this.startAddress = startAddress;
+            this.length = length;
+            this.statements = new ProgramStatement[length];
+            this.codes = new SimulationCode[length];
+            System.arraycopy(statements, 0, this.statements, 0, length);
+            System.arraycopy(codes, 0, this.codes, 0, length);
+         }
+
+      	/**
+      	 * Execute the block.  The program counter must already have been incremented
+      	 * past the first instruction, as the run loop does before every instruction.
+      	 * Execution leaves the block early if an instruction changes the program counter
+      	 * or writes to the text segment.
+      	 * @return number of instructions executed
+      	 * @throws ProcessingException if an instruction raises one; the program counter
+      	 * then refers to the faulting instruction just as in the run loop.
+      	 */
+          int execute() throws ProcessingException {
+            codes[0].simulate(statements[0]);
+            int next = startAddress + Instruction.INSTRUCTION_LENGTH;
+            for (int i = 1; i < length; i++) {
+               if (RegisterFile.getProgramCounter() != next
+                     || decoded.getModificationCount() != modificationCount) {
+                  return i;
+               }
+               next += Instruction.INSTRUCTION_LENGTH;
+               RegisterFile.incrementPC();
+               codes[i].simulate(statements[i]);
+            }
+            return length;
+         }
+      }
+   }
@@ -0,0 +1,138 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+
+/**
+ * Pre-decoded copy of the user text segment, used by the simulator run loop to
+ * dispatch instructions without going through Memory.getStatement() and the
+ * BasicInstruction lookup on every step.  Each entry holds the ProgramStatement
+ * (which carries the unpacked operands) and the SimulationCode of its instruction.
+ * Entries are indexed by <tt>(address - Memory.textBaseAddress) &gt;&gt; 2</tt>.
+ * <p>
+ * Entries are filled lazily the first time an address is fetched for execution
+ * and are invalidated by Memory whenever a statement is stored into the text
+ * segment (assembly or self-modifying code).  Kernel text and instructions
+ * fetched from the data segment are never cached.
+ */
+
+    public class DecodedInstructionCache {
+      private static final int INITIAL_CAPACITY = 1024; // entries, grows by doubling
+
+      private int baseAddress;
+      private int limitAddress;
+      private ProgramStatement[] statements;
+      private SimulationCode[] codes;
+      private volatile int modificationCount;
+
+   	/**
+   	 * Create an empty cache for the current user text segment.
+   	 */
+       public DecodedInstructionCache() {
+         clear();
+      }
+
+   	/**
+   	 * Discard all entries.  The text segment bounds are re-read from Memory,
+   	 * so this must be called whenever the memory configuration changes.
+   	 */
+       public synchronized void clear() {
+         baseAddress = Memory.textBaseAddress;
+         limitAddress = Memory.textLimitAddress;
+         statements = new ProgramStatement[0];
+         codes = new SimulationCode[0];
+         modificationCount++;
+      }
+
+   	/**
+   	 * Invalidate the entry for the given address, if any.  Called by Memory
+   	 * when a statement is written to the text segment.
+   	 * @param address text segment address whose statement has changed
+   	 */
+       public synchronized void invalidate(int address) {
+         int index = indexOf(address);
+         if (index >= 0 && index < statements.length) {
+            statements[index] = null;
+            codes[index] = null;
+         }
+         modificationCount++;
+      }
+   
+   	/**
+   	 * Returns a counter that changes whenever an entry is invalidated or the cache
+   	 * is cleared.  Clients holding on to decoded statements (such as the basic
+   	 * block engine) compare it to detect that the text segment has been modified.
+   	 * @return current modification count
+   	 */
+       public int getModificationCount() {
+         return modificationCount;
+      }
+
+   	/**
+   	 * Returns the decoded statement at the given address.
+   	 * @param address instruction address
+   	 * @return the ProgramStatement, or null if the address has not been decoded
+   	 * or lies outside the cached text segment.
+   	 */
+       public ProgramStatement getStatement(int address) {
+         int index = indexOf(address);
+         ProgramStatement[] table = statements;
+         return (index >= 0 && index < table.length) ? table[index] : null;
+      }
+
+   	/**
+   	 * Returns the SimulationCode of the decoded statement at the given address.
+   	 * @param address instruction address
+   	 * @return the SimulationCode, or null if the address has not been decoded.
+   	 */
+       public SimulationCode getSimulationCode(int address) {
+         int index = indexOf(address);
+         SimulationCode[] table = codes;
+         return (index >= 0 && index < table.length) ? table[index] : null;
+      }
+
+   	/**
+   	 * Record the decoded form of a statement just fetched from memory.  Statements
+   	 * outside the user text segment and statements with no BasicInstruction
+   	 * (undefined binary code) are not recorded.
+   	 * @param address address the statement was fetched from
+   	 * @param statement the fetched statement, may be null
+   	 */
+       public synchronized void put(int address, ProgramStatement statement) {
+         if (statement == null || !(statement.getInstruction() instanceof BasicInstruction)) {
+            return;
+         }
+         int index = indexOf(address);
+         if (index < 0) {
+            return;
+         }
+         if (index >= statements.length) {
+            grow(index);
+         }
+         codes[index] = ((BasicInstruction) statement.getInstruction()).getSimulationCode();
+         statements[index] = statement;
+      }
+
+      // Returns array index for address, or -1 if it is not a cacheable text address.
+       private int indexOf(int address) {
+         if (address < baseAddress || address >= limitAddress || (address & 3) != 0) {
+            return -1;
+         }
+         return (address - baseAddress) >> 2;
+      }
+
+      // Enlarge both arrays (by doubling) so that the given index is valid.
+       private void grow(int index) {
+         int capacity = Math.max(statements.length, INITIAL_CAPACITY);
+         while (capacity <= index) {
+            capacity <<= 1;
+         }
+         capacity = Math.min(capacity, (limitAddress - baseAddress) >> 2);
+         ProgramStatement[] newStatements = new ProgramStatement[capacity];
+         SimulationCode[] newCodes = new SimulationCode[capacity];
+         System.arraycopy(statements, 0, newStatements, 0, statements.length);
+         System.arraycopy(codes, 0, newCodes, 0, codes.length);
+         codes = newCodes;
+         statements = newStatements;
+      }
+   }
@@ -156,4 +156,26 @@ public class DelayedBranch {
 	    return branchTargetAddress;
 	}
 	
+  /**
+   *  Return the current state and branch target address packed into one long,
+	*  state in the high word.  Used by SimulationContext to save this state
+	*  when switching contexts.  This method has package visibility.
+	*
+	*  @return packed state and branch target address.
+	*/
+	 static long getState() {
+	    return ((long) state << 32) | (branchTargetAddress & 0xFFFFFFFFL);
+	}
+	
+  /**
+   *  Restore state and branch target address previously returned by getState().
+	*  This method has package visibility.
+	*
+	*  @param packed value previously returned by getState().
+	*/
+	 static void setState(long packed) {
+	    state = (int) (packed >> 32);
+	    branchTargetAddress = (int) packed;
+	}
+	
 }  // DelayedBranch
\ No newline at end of file
@@ -0,0 +1,523 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.util.*;
+   import mars.mips.hardware.*;
+   import mars.mips.instructions.*;
+   import mars.mips.instructions.syscalls.*;
+   import java.util.*;
+
+/**
+ * Back-stepping history kept as periodic snapshots of the machine plus a record of
+ * what each syscall did, used by BackStepper instead of its undo stack when
+ * <tt>Globals.backstepSnapshotInterval</tt> is greater than 0.
+ * <p>
+ * While the program runs forward the only work is counting instructions and taking a
+ * copy-on-write snapshot (see <tt>SimulationContext.takeSnapshot()</tt>) every so many
+ * instructions, so the block engine stays usable and ordinary register and memory writes
+ * record nothing.  To step back to an earlier instruction count, the nearest snapshot at
+ * or before it is restored and the program is re-executed forward to that count.
+ * Re-execution is deterministic except for syscalls, whose input and other outside
+ * effects cannot be repeated; each syscall executed is therefore recorded as the registers
+ * and memory it wrote and their final values, the heap address (moved by sbrk) and any
+ * exception it raised, and replay applies that record instead of running the syscall
+ * again.  Output is not repeated.  Likewise the writes of tools, devices and the GUI
+ * (those made by another thread, and all writes to the memory-mapped I/O segment) and
+ * external interrupts are recorded with the instruction count at which they happened, and
+ * replay repeats them at that count.
+ * <p>
+ * History is unbounded: when the snapshot table fills, every other snapshot is dropped
+ * and the interval doubles, so memory stays bounded while stepping back further costs
+ * more re-execution.
+ */
+
+    public class ReplayHistory {
+      private static final int MAX_SNAPSHOTS = 256;
+      // Kinds of state a syscall can write, as reported through BackStepper.
+      static final int REGISTER = 0;
+      static final int COPROCESSOR0_REGISTER = 1;
+      static final int COPROCESSOR1_REGISTER = 2;
+      static final int CONDITION_FLAG = 3;
+      static final int PROGRAM_COUNTER = 4;
+      static final int MEMORY_RAW_WORD = 5;
+      static final int MEMORY_WORD = 6;
+      static final int MEMORY_HALF = 7;
+      static final int MEMORY_BYTE = 8;
+      // Kind of ExternalEvent for an external interrupt; its location is the device code.
+      private static final int INTERRUPT = 9;
+
+      // History being replayed, if any.  Replay runs under Globals.memoryAndRegistersLock.
+      private static ReplayHistory replaying = null;
+
+      private int interval;
+      private long instructionCount;
+      private long nextSnapshotCount;
+      private int snapshotCount;
+      private long[] snapshotInstructions = new long[MAX_SNAPSHOTS];
+      private int[] snapshotSyscalls = new int[MAX_SNAPSHOTS];
+      private int[] snapshotEvents = new int[MAX_SNAPSHOTS];
+      private boolean[] snapshotDelaySlots = new boolean[MAX_SNAPSHOTS];
+      private SimulationContext.Snapshot[] snapshots = new SimulationContext.Snapshot[MAX_SNAPSHOTS];
+      private ArrayList syscalls = new ArrayList(); // SyscallEffect of each syscall executed, in order
+      private SyscallEffect recording;  // syscall now executing, or null
+      private int replayedSyscalls;     // during replay, index of next SyscallEffect to apply
+      private ArrayList events = new ArrayList(); // ExternalEvent of each outside change, in order
+      private int replayedEvents;       // during replay, index of next ExternalEvent to apply
+      private boolean inDelaySlot;      // whether the last instruction executed was in a delay slot
+      private Thread simulatorThread;   // thread running the program, once a run has started
+
+   	/**
+   	 * Create an empty history.
+   	 * @param interval number of instructions between snapshots while running
+   	 */
+       ReplayHistory(int interval) {
+         this.interval = Math.max(interval, 1);
+      }
+
+   	/**
+   	 * Returns the number of instructions executed since the program was assembled,
+   	 * less any stepped back over.
+   	 * @return instruction count
+   	 */
+       public long getInstructionCount() {
+         return instructionCount;
+      }
+
+   	/**
+   	 * Test whether there are instructions that can be stepped back over.
+   	 * @return true if there is nothing to step back over, false otherwise.
+   	 */
+       public boolean empty() {
+         return instructionCount == 0 || snapshotCount == 0;
+      }
+
+   	/**
+   	 * Determine whether the instruction a back step would undo executed in the delay
+   	 * slot of a delayed branch.
+   	 * @return true if the last instruction executed was in a delay slot, false otherwise.
+   	 */
+       public boolean inDelaySlot() {
+         return !empty() && inDelaySlot;
+      }
+
+   	/**
+   	 * Called by the simulator before it starts running.  Takes a snapshot so any
+   	 * changes made while the program was paused are part of the history.
+   	 */
+       void runStarting() {
+         simulatorThread = Thread.currentThread();
+         takeSnapshot();
+      }
+
+   	/**
+   	 * Called by the simulator after each instruction cycle, or after each basic block.
+   	 * @param count number of instructions just executed
+   	 * @param lastInDelaySlot whether the last of them executed in a delay slot
+   	 */
+       void instructionsFinished(int count, boolean lastInDelaySlot) {
+         instructionCount += count;
+         inDelaySlot = lastInDelaySlot;
+         if (instructionCount >= nextSnapshotCount) {
+            takeSnapshot();
+         }
+      }
+
+   	/**
+   	 * Called by BackStepper after a register, flag or memory location is written.  Writes
+   	 * by syscalls, by other threads and to the memory-mapped I/O segment are recorded;
+   	 * other writes are not, since re-execution will repeat them.
+   	 * @param kind what was written, e.g. REGISTER or MEMORY_WORD
+   	 * @param location register or flag number, or memory address
+   	 */
+       void written(int kind, int location) {
+         if (recording != null) {
+            recording.add(kind, location);
+         }
+         else if (Thread.currentThread() != simulatorThread
+                    || (kind >= MEMORY_RAW_WORD && Memory.inMemoryMapSegment(location))) {
+            addEvent(kind, location, readValue(kind, location));
+         }
+      }
+
+   	/**
+   	 * Called by the simulator when it takes an external interrupt, which replay repeats
+   	 * at the same instruction count.
+   	 * @param device interrupting device code, as given to the ProcessingException
+   	 */
+       void interrupted(int device) {
+         addEvent(INTERRUPT, device, 0);
+      }
+
+       private void addEvent(int kind, int location, int value) {
+         synchronized (events) {
+            events.add(new ExternalEvent(instructionCount, kind, location, value));
+         }
+      }
+
+   	/**
+   	 * Restore the machine to the state it had after the given number of instructions
+   	 * by restoring the nearest earlier snapshot and re-executing from there.  Running
+   	 * forward from the restored state continues the history from that point.
+   	 * @param target instruction count to go back to; must not exceed the current count
+   	 * @return true if the state was restored, false if the history does not reach back that far
+   	 */
+       public boolean backStepTo(long target) {
+         synchronized (Globals.memoryAndRegistersLock) {
+            int index = snapshotAtOrBefore(target);
+            if (index < 0 || target > instructionCount) {
+               return false;
+            }
+            replay(index, target);
+            truncate();
+            return true;
+         }
+      }
+
+   	/**
+   	 * Simulate a syscall.  Normally runs the service, recording its effect if back-stepping
+   	 * uses a ReplayHistory.  During replay, applies the recorded effect instead.
+   	 * @param service the syscall service
+   	 * @param statement the syscall statement being executed
+   	 * @throws ProcessingException as thrown by the service, or recorded from it
+   	 */
+       public static void simulateSyscall(Syscall service, ProgramStatement statement) throws ProcessingException {
+         if (replaying != null) {
+            replaying.applyNextSyscall();
+            return;
+         }
+         ReplayHistory history = (Globals.getSettings().getBackSteppingEnabled())
+                               ? Globals.program.getBackStepper().getReplayHistory()
+                               : null;
+         if (history == null) {
+            service.simulate(statement);
+            return;
+         }
+         SyscallEffect effect = new SyscallEffect();
+         history.recording = effect;
+         try {
+            service.simulate(statement);
+         }
+             catch (ProcessingException e) {
+               effect.exception = e;
+               throw e;
+            }
+         finally {
+            history.recording = null;
+            effect.readValues();
+            history.syscalls.add(effect);
+         }
+      }
+
+      // Take a snapshot at the current instruction count, replacing one already there.
+       private void takeSnapshot() {
+         if (snapshotCount > 0 && snapshotInstructions[snapshotCount - 1] == instructionCount) {
+            snapshotCount--;
+         }
+         else if (snapshotCount == MAX_SNAPSHOTS) {
+            thin();
+         }
+         snapshots[snapshotCount] = SimulationContext.getCurrent().takeSnapshot();
+         snapshotInstructions[snapshotCount] = instructionCount;
+         snapshotSyscalls[snapshotCount] = syscalls.size();
+         snapshotEvents[snapshotCount] = events.size();
+         snapshotDelaySlots[snapshotCount] = inDelaySlot;
+         snapshotCount++;
+         nextSnapshotCount = instructionCount + interval;
+      }
+
+      // Drop every other snapshot, keeping the first, and double the interval.
+       private void thin() {
+         int kept = 0;
+         for (int i = 0; i < snapshotCount; i += 2) {
+            snapshots[kept] = snapshots[i];
+            snapshotInstructions[kept] = snapshotInstructions[i];
+            snapshotSyscalls[kept] = snapshotSyscalls[i];
+            snapshotEvents[kept] = snapshotEvents[i];
+            snapshotDelaySlots[kept] = snapshotDelaySlots[i];
+            kept++;
+         }
+         Arrays.fill(snapshots, kept, snapshotCount, null);
+         snapshotCount = kept;
+         interval *= 2;
+      }
+
+      // Index of the latest snapshot taken at or before the given count, or -1.
+       private int snapshotAtOrBefore(long count) {
+         for (int i = snapshotCount - 1; i >= 0; i--) {
+            if (snapshotInstructions[i] <= count) {
+               return i;
+            }
+         }
+         return -1;
+      }
+
+      // Forget snapshots, syscalls and external events beyond the current instruction
+   	// count, which running forward again will replace.
+       private void truncate() {
+         while (snapshotCount > 0 && snapshotInstructions[snapshotCount - 1] > instructionCount) {
+            snapshots[--snapshotCount] = null;
+         }
+         while (syscalls.size() > replayedSyscalls) {
+            syscalls.remove(syscalls.size() - 1);
+         }
+         synchronized (events) {
+            while (events.size() > replayedEvents) {
+               events.remove(events.size() - 1);
+            }
+         }
+         nextSnapshotCount = snapshotInstructions[snapshotCount - 1] + interval;
+      }
+
+      // Restore the given snapshot and re-execute until the instruction count reaches the
+   	// target.  Register observers (GUI windows) are not notified of each write: replay
+   	// runs on scratch registers whose final values are then copied to the real ones.
+   	// Memory observers are not notified while there is no program, and clearing
+   	// Globals.program also keeps replay from recording back steps.
+       private void replay(int index, long target) {
+         SimulationContext.getCurrent().restoreSnapshot(snapshots[index]);
+         instructionCount = snapshotInstructions[index];
+         replayedSyscalls = snapshotSyscalls[index];
+         replayedEvents = snapshotEvents[index];
+         inDelaySlot = snapshotDelaySlots[index];
+         RegisterFile.State registers = RegisterFile.getState();
+         Coprocessor0.State coprocessor0 = Coprocessor0.getState();
+         Coprocessor1.State coprocessor1 = Coprocessor1.getState();
+         RegisterFile.State scratchRegisters = new RegisterFile.State();
+         Coprocessor0.State scratchCoprocessor0 = new Coprocessor0.State();
+         Coprocessor1.State scratchCoprocessor1 = new Coprocessor1.State();
+         scratchRegisters.setValues(registers.getValues());
+         scratchCoprocessor0.setValues(coprocessor0.getValues());
+         scratchCoprocessor1.setValues(coprocessor1.getValues());
+         RegisterFile.setState(scratchRegisters);
+         Coprocessor0.setState(scratchCoprocessor0);
+         Coprocessor1.setState(scratchCoprocessor1);
+         MIPSprogram program = Globals.program;
+         Globals.program = null;
+         replaying = this;
+         try {
+            while (instructionCount < target) {
+               if (!replayInstruction()) {
+                  break;
+               }
+               instructionCount++;
+            }
+         }
+         finally {
+            replaying = null;
+            Globals.program = program;
+            RegisterFile.setState(registers);
+            Coprocessor0.setState(coprocessor0);
+            Coprocessor1.setState(coprocessor1);
+            registers.setValues(scratchRegisters.getValues());
+            coprocessor0.setValues(scratchCoprocessor0.getValues());
+            coprocessor1.setValues(scratchCoprocessor1.getValues());
+         }
+      }
+
+      // One instruction cycle as in Simulator.SimThread.construct().  Returns false if
+   	// the program would terminate, which replay to an earlier count never reaches.
+       private boolean replayInstruction() {
+         int interrupt = applyEvents();
+         ProgramStatement statement;
+         try {
+            statement = Globals.memory.getStatementNoNotify(RegisterFile.getProgramCounter());
+         }
+             catch (AddressErrorException e) {
+               return false;
+            }
+         if (statement == null) {
+            return false;
+         }
+         RegisterFile.incrementPC();
+         try {
+            if (interrupt >= 0) {
+               throw new ProcessingException(statement, "External Interrupt", interrupt);
+            }
+            BasicInstruction instruction = (BasicInstruction) statement.getInstruction();
+            if (instruction == null) {
+               throw new ProcessingException(statement,
+                   "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                   Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+            }
+            instruction.getSimulationCode().simulate(statement);
+         }
+             catch (ProcessingException pe) {
+               if (pe.errors() == null) {
+                  return false;
+               }
+               ProgramStatement exceptionHandler = null;
+               try {
+                  exceptionHandler = Globals.memory.getStatementNoNotify(Memory.exceptionHandlerAddress);
+               }
+                   catch (AddressErrorException aee) { }
+               if (exceptionHandler == null) {
+                  return false;
+               }
+               RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
+            }
+         inDelaySlot = DelayedBranch.isTriggered();
+         if (inDelaySlot) {
+            RegisterFile.setProgramCounter(DelayedBranch.getBranchTargetAddress());
+            DelayedBranch.clear();
+         }
+         else if (DelayedBranch.isRegistered()) {
+            DelayedBranch.trigger();
+         }
+         return true;
+      }
+
+      // Apply the external events recorded at the current instruction count.  Returns the
+   	// device code of an external interrupt taken before the next instruction, or -1.
+       private int applyEvents() {
+         int interrupt = -1;
+         synchronized (events) {
+            while (replayedEvents < events.size()) {
+               ExternalEvent event = (ExternalEvent) events.get(replayedEvents);
+               if (event.instructionCount > instructionCount) {
+                  break;
+               }
+               replayedEvents++;
+               if (event.kind == INTERRUPT) {
+                  interrupt = event.location;
+               }
+               else {
+                  applyValue(event.kind, event.location, event.value);
+               }
+            }
+         }
+         return interrupt;
+      }
+
+      // Apply the effect of the next syscall instead of running it again.
+       private void applyNextSyscall() throws ProcessingException {
+         if (replayedSyscalls < syscalls.size()) {
+            SyscallEffect effect = (SyscallEffect) syscalls.get(replayedSyscalls++);
+            effect.apply();
+            if (effect.exception != null) {
+               throw effect.exception;
+            }
+         }
+      }
+
+      // Current value of a register, flag or memory location as written by BackStepper.
+       private static int readValue(int kind, int location) {
+         try {
+            switch (kind) {
+               case REGISTER :
+                  return RegisterFile.getValue(location);
+               case COPROCESSOR0_REGISTER :
+                  return Coprocessor0.getValue(location);
+               case COPROCESSOR1_REGISTER :
+                  return Coprocessor1.getValue(location);
+               case CONDITION_FLAG :
+                  return Coprocessor1.getConditionFlag(location);
+               case PROGRAM_COUNTER :
+                  return RegisterFile.getProgramCounter();
+               case MEMORY_RAW_WORD :
+                  return Globals.memory.getRawWord(location);
+               case MEMORY_WORD :
+                  return Globals.memory.getWordNoNotify(location);
+               case MEMORY_HALF :
+                  return Globals.memory.getHalf(location);
+               case MEMORY_BYTE :
+                  return Globals.memory.getByte(location);
+            }
+         }
+             catch (AddressErrorException e) { } // was just written, so cannot occur
+         return 0;
+      }
+
+      // Write a value read by readValue() back to the same register, flag or memory location.
+       private static void applyValue(int kind, int location, int value) {
+         try {
+            switch (kind) {
+               case REGISTER :
+                  RegisterFile.updateRegister(location, value);
+                  break;
+               case COPROCESSOR0_REGISTER :
+                  Coprocessor0.updateRegister(location, value);
+                  break;
+               case COPROCESSOR1_REGISTER :
+                  Coprocessor1.updateRegister(location, value);
+                  break;
+               case CONDITION_FLAG :
+                  if (value != 0)
+                     Coprocessor1.setConditionFlag(location);
+                  else
+                     Coprocessor1.clearConditionFlag(location);
+                  break;
+               case PROGRAM_COUNTER :
+                  RegisterFile.setProgramCounter(value);
+                  break;
+               case MEMORY_RAW_WORD :
+                  Globals.memory.setRawWord(location, value);
+                  break;
+               case MEMORY_WORD :
+                  Globals.memory.setWord(location, value);
+                  break;
+               case MEMORY_HALF :
+                  Globals.memory.setHalf(location, value);
+                  break;
+               case MEMORY_BYTE :
+                  Globals.memory.setByte(location, value);
+                  break;
+            }
+         }
+             catch (AddressErrorException e) { } // succeeded when recorded, so cannot occur
+      }
+
+      /**
+   	 * A change from outside the program: a write by a tool, device or the GUI, with the
+   	 * value written, or an external interrupt.
+   	 */
+       private static class ExternalEvent {
+         private final long instructionCount; // instructions executed before it happened
+         private final int kind;
+         private final int location;
+         private final int value;
+
+          private ExternalEvent(long instructionCount, int kind, int location, int value) {
+            this.instructionCount = instructionCount;
+            this.kind = kind;
+            this.location = location;
+            this.value = value;
+         }
+      }
+
+      /**
+   	 * What one syscall wrote: kind and location of each write, and the value found
+   	 * there once the syscall finished.
+   	 */
+       private static class SyscallEffect {
+         private int[] kinds = new int[4];
+         private int[] locations = new int[4];
+         private int[] values;
+         private int size;
+         private int heapAddress; // after the syscall, as sbrk may have moved it
+         private ProcessingException exception;
+
+          private void add(int kind, int location) {
+            if (size == kinds.length) {
+               kinds = Arrays.copyOf(kinds, size * 2);
+               locations = Arrays.copyOf(locations, size * 2);
+            }
+            kinds[size] = kind;
+            locations[size] = location;
+            size++;
+         }
+
+          private void readValues() {
+            values = new int[size];
+            for (int i = 0; i < size; i++) {
+               values[i] = readValue(kinds[i], locations[i]);
+            }
+            heapAddress = Memory.heapAddress;
+         }
+      
+          private void apply() {
+            for (int i = 0; i < size; i++) {
+               applyValue(kinds[i], locations[i], values[i]);
+            }
+            Memory.heapAddress = heapAddress;
+         }
+      }
+   }
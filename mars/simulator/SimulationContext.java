@@ -0,0 +1,387 @@
+   package mars.simulator;
+   import mars.*;
+   import mars.assembler.*;
+   import mars.mips.hardware.*;
+   import mars.util.*;
+   import java.util.concurrent.Callable;
+   import java.io.*;
+
+/**
+ * The complete state of one simulated MIPS machine: memory, the register files of the
+ * CPU and coprocessors 0 and 1, delayed branch state, the file descriptor table used by
+ * syscalls, the global symbol table, and the program being run along with its back-stepper.
+ * <p>
+ * Simulator, SimulationCode, syscalls and custom language instructions access this state
+ * through static members such as <tt>Globals.memory</tt> and <tt>RegisterFile</tt>.  Those
+ * always refer to the <i>current</i> context.  Initially the current context is the default
+ * context, which owns the state created when MARS starts, so the GUI and command-line MARS
+ * work without knowing about contexts.  Making a different context current installs its
+ * state in place of the previous one; this only swaps references, so a JVM can keep
+ * any number of programs assembled and ready and switch between them cheaply.
+ * <p>
+ * Only one context can be current at a time, so a JVM simulates one program at a time
+ * and execute() makes callers on other threads wait their turn.  Contexts give isolation
+ * and cheap copies of an assembled program, not parallelism: to simulate several programs
+ * at once, use several JVMs, as MarsBatch does with workers.  Custom language jars are compiled against the static members named
+ * above, so those cannot become per-thread.
+ *
+ * @see #execute(Callable)
+ */
+
+    public class SimulationContext {
+      private static SimulationContext defaultContext = null;
+      private static SimulationContext current = null;
+      // Held by execute() while a task runs, so tasks from different threads do not interleave.
+      // This serializes all simulation in the JVM; see the class comment.
+      private static final Object executeLock = new Object();
+      // First word and format version of checkpoint files.
+      private static final int CHECKPOINT_MAGIC = 0x4D415253; // "MARS"
+      private static final int CHECKPOINT_VERSION = 1;
+
+      private Memory memory;
+      private int heapAddress;
+      private MIPSprogram program;
+      private SymbolTable symbolTable;
+      private RegisterFile.State registers;
+      private Coprocessor0.State coprocessor0;
+      private Coprocessor1.State coprocessor1;
+      private long delayedBranch;
+      private SystemIO.State files;
+
+   	/**
+   	 * Create a context for a new MIPS machine with empty memory, all registers at their
+   	 * reset values, no open files other than standard I/O, and no program.  Memory is
+   	 * configured using the current memory configuration.
+   	 */
+       public SimulationContext() {
+         synchronized (Globals.memoryAndRegistersLock) {
+            int currentHeapAddress = Memory.heapAddress;
+            memory = Memory.createInstance(); // resets Memory.heapAddress
+            heapAddress = Memory.heapAddress;
+            Memory.heapAddress = currentHeapAddress;
+         }
+         program = null;
+         symbolTable = new SymbolTable("global");
+         registers = new RegisterFile.State();
+         coprocessor0 = new Coprocessor0.State();
+         coprocessor1 = new Coprocessor1.State();
+         delayedBranch = 0;
+         files = new SystemIO.State();
+      }
+
+   	/**
+   	 * Create a context for a new MIPS machine whose memory is a copy of the given context's
+   	 * memory, typically just after assembling its program.  The program and symbol table are
+   	 * shared with the given context.  Registers are at their reset values and there are no
+   	 * open files other than standard I/O, which use <tt>System.in</tt> and <tt>System.out</tt>.
+   	 * @param template context whose memory is copied
+   	 */
+       public SimulationContext(SimulationContext template) {
+         synchronized (Globals.memoryAndRegistersLock) {
+            boolean templateIsCurrent = (template == current);
+            memory = template.getMemory().copy();
+            heapAddress = (templateIsCurrent) ? Memory.heapAddress : template.heapAddress;
+            program = (templateIsCurrent) ? Globals.program : template.program;
+            symbolTable = (templateIsCurrent) ? Globals.symbolTable : template.symbolTable;
+         }
+         registers = new RegisterFile.State();
+         coprocessor0 = new Coprocessor0.State();
+         coprocessor1 = new Coprocessor1.State();
+         delayedBranch = 0;
+         files = new SystemIO.State();
+      }
+
+      // Used only to create the default context, whose state is whatever is in use now.
+       private SimulationContext(boolean captureCurrentState) {
+         save();
+      }
+
+   	/**
+   	 * Returns the default context, which owns the machine state created when MARS starts.
+   	 * The GUI and command-line MARS always use the default context.
+   	 * @return the default SimulationContext
+   	 */
+       public static SimulationContext getDefault() {
+         synchronized (Globals.memoryAndRegistersLock) {
+            if (defaultContext == null) {
+               defaultContext = new SimulationContext(true);
+               current = defaultContext;
+            }
+            return defaultContext;
+         }
+      }
+
+   	/**
+   	 * Returns the current context, whose state is the one accessed through
+   	 * <tt>Globals.memory</tt>, <tt>RegisterFile</tt> and the other static members.
+   	 * @return the current SimulationContext
+   	 */
+       public static SimulationContext getCurrent() {
+         synchronized (Globals.memoryAndRegistersLock) {
+            return (current == null) ? getDefault() : current;
+         }
+      }
+
+   	/**
+   	 * Make this the current context.  The state of the previously current context is
+   	 * saved in that context and this context's state is installed.  Must not be called
+   	 * while a simulation is running.
+   	 */
+       public void makeCurrent() {
+         synchronized (Globals.memoryAndRegistersLock) {
+            SimulationContext previous = getCurrent();
+            if (previous == this) {
+               return;
+            }
+            previous.save();
+            install();
+            current = this;
+         }
+      }
+
+   	/**
+   	 * Run a task with this as the current context, then make the previously current
+   	 * context current again.  Only one task runs at a time in a JVM: a call made while
+   	 * another thread's task is running waits for it to finish.  The task typically
+   	 * assembles and/or simulates a MIPSprogram; see setProgram().
+   	 * @param task the task to run
+   	 * @return the result of the task
+   	 * @throws Exception any exception thrown by the task
+   	 */
+       public <T> T execute(Callable<T> task) throws Exception {
+         synchronized (executeLock) {
+            SimulationContext previous = getCurrent();
+            makeCurrent();
+            try {
+               return task.call();
+            }
+            finally {
+               previous.makeCurrent();
+            }
+         }
+      }
+
+   	/**
+   	 * Returns the memory of this context.  Equal to <tt>Globals.memory</tt> while this
+   	 * context is current.
+   	 * @return the Memory of this context
+   	 */
+       public Memory getMemory() {
+         return (this == current) ? Globals.memory : memory;
+      }
+
+   	/**
+   	 * Returns the program associated with this context, if any.  Equal to
+   	 * <tt>Globals.program</tt> while this context is current.
+   	 * @return the MIPSprogram, or null if none
+   	 */
+       public MIPSprogram getProgram() {
+         return (this == current) ? Globals.program : program;
+      }
+
+   	/**
+   	 * Associate a program with this context.  The program's back-stepper records
+   	 * execution if back-stepping is enabled in the settings.  As in command-line MARS,
+   	 * a program that is assembled and simulated in a context without being set here
+   	 * is run without back-stepping.
+   	 * @param program the MIPSprogram, or null for none
+   	 */
+       public void setProgram(MIPSprogram program) {
+         synchronized (Globals.memoryAndRegistersLock) {
+            if (this == current) {
+               Globals.program = program;
+            }
+            else {
+               this.program = program;
+            }
+         }
+      }
+
+   	/**
+   	 * Returns the back-stepper of this context's program.
+   	 * @return the BackStepper, or null if there is no program or it has not been assembled
+   	 */
+       public BackStepper getBackStepper() {
+         MIPSprogram p = getProgram();
+         return (p == null) ? null : p.getBackStepper();
+      }
+
+   	/**
+   	 * Takes a snapshot of the machine state of this context: memory, heap address,
+   	 * registers of the CPU and coprocessors, and delayed branch state, all captured at
+   	 * the same instant.  Memory is not copied; see <tt>Memory.snapshot()</tt>.  Open
+   	 * files, the program and the symbol table are not part of the snapshot.  Must not be
+   	 * called while a simulation is running in this context.
+   	 * @return Snapshot that can be given to restoreSnapshot()
+   	 */
+       public Snapshot takeSnapshot() {
+         synchronized (Globals.memoryAndRegistersLock) {
+            if (this == current) {
+               save();
+            }
+            Snapshot snapshot = new Snapshot();
+            snapshot.memory = memory.snapshot();
+            snapshot.heapAddress = heapAddress;
+            snapshot.registers = registers.getValues();
+            snapshot.coprocessor0 = coprocessor0.getValues();
+            snapshot.coprocessor1 = coprocessor1.getValues();
+            snapshot.delayedBranch = delayedBranch;
+            return snapshot;
+         }
+      }
+   
+   	/**
+   	 * Restores the machine state of this context to a snapshot previously taken of it.
+   	 * Restoring the most recent snapshot takes time proportional to the number of memory
+   	 * blocks written since, so a program can be run repeatedly from the same starting
+   	 * state at little cost.  Must not be called while a simulation is running in this context.
+   	 * @param snapshot Snapshot previously returned by takeSnapshot() of this context
+   	 */
+       public void restoreSnapshot(Snapshot snapshot) {
+         synchronized (Globals.memoryAndRegistersLock) {
+            if (this == current) {
+               save();
+            }
+            memory.restore(snapshot.memory);
+            heapAddress = snapshot.heapAddress;
+            registers.setValues(snapshot.registers);
+            coprocessor0.setValues(snapshot.coprocessor0);
+            coprocessor1.setValues(snapshot.coprocessor1);
+            delayedBranch = snapshot.delayedBranch;
+            if (this == current) {
+               install();
+            }
+         }
+      }
+   
+   	/**
+   	 * Saves the complete machine state of this context to a checkpoint file: allocated
+   	 * memory blocks of every segment, registers of the CPU and coprocessors including the
+   	 * condition flags, delayed branch state, heap address and the table of open files.
+   	 * The file is written through an NIO channel.  A simulation stopped at a step limit
+   	 * can later be resumed from the file with restoreCheckpoint(), in this JVM or another.
+   	 * Must not be called while a simulation is running in this context.
+   	 * @param file the checkpoint file to write
+   	 * @throws IOException if the file cannot be written
+   	 */
+       public void saveCheckpoint(File file) throws IOException {
+         synchronized (Globals.memoryAndRegistersLock) {
+            if (this == current) {
+               save();
+            }
+            FileOutputStream stream = new FileOutputStream(file);
+            try {
+               ChannelOutput out = new ChannelOutput(stream.getChannel());
+               out.writeInt(CHECKPOINT_MAGIC);
+               out.writeInt(CHECKPOINT_VERSION);
+               out.writeInt(heapAddress);
+               out.writeInts(registers.getValues());
+               out.writeInts(coprocessor0.getValues());
+               out.writeInts(coprocessor1.getValues());
+               out.writeLong(delayedBranch);
+               files.writeCheckpoint(out);
+               memory.writeCheckpoint(out);
+               out.flush();
+            }
+            finally {
+               stream.close();
+            }
+         }
+      }
+   
+   	/**
+   	 * Restores the machine state of this context from a checkpoint file written by
+   	 * saveCheckpoint().  The memory configuration must be the same as when the file was
+   	 * written.  The program and symbol table are not part of the checkpoint; assembling
+   	 * the same program first keeps its source code available for display.  Files the
+   	 * program had open are reopened.  If an exception is thrown the machine state may have
+   	 * been partly restored.  Must not be called while a simulation is running in this context.
+   	 * @param file the checkpoint file to read
+   	 * @throws IOException if the file cannot be read or is not a valid checkpoint
+   	 */
+       public void restoreCheckpoint(File file) throws IOException {
+         synchronized (Globals.memoryAndRegistersLock) {
+            if (this == current) {
+               save();
+            }
+            FileInputStream stream = new FileInputStream(file);
+            try {
+               ChannelInput in = new ChannelInput(stream.getChannel());
+               if (in.readInt() != CHECKPOINT_MAGIC) {
+                  throw new IOException(file + " is not a MARS checkpoint file");
+               }
+               int version = in.readInt();
+               if (version != CHECKPOINT_VERSION) {
+                  throw new IOException(file + " has unsupported checkpoint version " + version);
+               }
+               int newHeapAddress = in.readInt();
+               int[] registerValues = readValues(in, registers.getValues().length);
+               int[] coprocessor0Values = readValues(in, coprocessor0.getValues().length);
+               int[] coprocessor1Values = readValues(in, coprocessor1.getValues().length);
+               long newDelayedBranch = in.readLong();
+               SystemIO.State newFiles = SystemIO.State.readCheckpoint(in);
+               memory.readCheckpoint(in);
+               heapAddress = newHeapAddress;
+               registers.setValues(registerValues);
+               coprocessor0.setValues(coprocessor0Values);
+               coprocessor1.setValues(coprocessor1Values);
+               delayedBranch = newDelayedBranch;
+               files = newFiles;
+            }
+            finally {
+               stream.close();
+               if (this == current) {
+                  install();
+               }
+            }
+         }
+      }
+   
+      // Read register values, checking there are as many as the register file has.
+       private static int[] readValues(ChannelInput in, int expectedLength) throws IOException {
+         int[] values = in.readInts();
+         if (values.length != expectedLength) {
+            throw new IOException("checkpoint has " + values.length + " registers where " + expectedLength + " expected");
+         }
+         return values;
+      }
+   
+   	/**
+   	 * The machine state of a SimulationContext at the time of a call to takeSnapshot().
+   	 */
+       public static final class Snapshot {
+         private Memory.Snapshot memory;
+         private int heapAddress;
+         private int[] registers, coprocessor0, coprocessor1;
+         private long delayedBranch;
+      
+          private Snapshot() {
+         }
+      }
+   
+      // Copy the state in use into this context.
+       private void save() {
+         memory = Globals.memory;
+         heapAddress = Memory.heapAddress;
+         program = Globals.program;
+         symbolTable = Globals.symbolTable;
+         registers = RegisterFile.getState();
+         coprocessor0 = Coprocessor0.getState();
+         coprocessor1 = Coprocessor1.getState();
+         delayedBranch = DelayedBranch.getState();
+         files = SystemIO.getState();
+      }
+
+      // Install the state of this context in place of the state in use.
+       private void install() {
+         Globals.memory = memory;
+         Memory.heapAddress = heapAddress;
+         Globals.program = program;
+         Globals.symbolTable = symbolTable;
+         RegisterFile.setState(registers);
+         Coprocessor0.setState(coprocessor0);
+         Coprocessor1.setState(coprocessor1);
+         DelayedBranch.setState(delayedBranch);
+         SystemIO.setState(files);
+      }
+   }
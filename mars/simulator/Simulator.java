@@ -59,6 +59,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       public static final int NORMAL_TERMINATION = 4;
       public static final int CLIFF_TERMINATION = 5; // run off bottom of program
       public static final int PAUSE_OR_STOP = 6;
+      // Number of instructions turbo mode executes between checks for stop and external interrupts.
+      private static final int TURBO_CHECK_INTERVAL = 1024;
+      private volatile boolean turboMode = false;
+      private volatile long instructionsExecuted = 0;
    
       /**
    	 * Returns the Simulator object
@@ -85,6 +89,44 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
    
    
    
+   /**
+    *  Enable or disable turbo mode.  In turbo mode, a run with no GUI and no breakpoints
+    *  uses a specialized run loop that takes no lock per instruction, sends no notices
+    *  for instruction fetches, and checks for stop requests and external interrupts only
+    *  every few hundred instructions.  The program's back-stepper is disabled for the
+    *  run, so nothing is recorded for back-stepping and the steps recorded before it are
+    *  discarded.  Tools observing instruction fetches do not see turbo runs; use
+    *  getInstructionsExecuted() instead.  Other runs are not affected.
+    *
+    *  @param turbo true to enable turbo mode, false to disable it.
+    */
+   
+       public void setTurboMode(boolean turbo) {
+         turboMode = turbo;
+      }
+   
+   /**
+    *  Determine whether or not turbo mode is enabled.
+    *
+    *  @return true if turbo mode is enabled, false otherwise.
+    *  @see #setTurboMode(boolean)
+    */
+   
+       public boolean isTurboMode() {
+         return turboMode;
+      }
+   
+   /**
+    *  Number of MIPS instructions executed by the most recent run, in turbo mode or not.
+    *  An instruction that raised an exception counts as executed.
+    *
+    *  @return instruction count of the last run, 0 if there was none.
+    */
+   
+       public long getInstructionsExecuted() {
+         return instructionsExecuted;
+      }
+   
    /**
     *  Determine whether or not the next instruction to be executed is in a
     *  "delay slot".  This means delayed branching is enabled, the branch
@@ -207,6 +249,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          private volatile AbstractAction stopper;
          private AbstractAction starter;
          private int constructReturnReason;
+         private long executedCount; // instructions executed by this run so far
       
       
          /**
@@ -241,6 +284,15 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             stop = true;
             stopper = actor;
          }
+
+         // True if the run loop will neither sleep nor schedule a GUI update between
+      	// instructions, so a basic block may be executed without pausing in between.
+          private boolean runningAtFullSpeed() {
+            if (Globals.getGui() == null && !Globals.runSpeedPanelExists) {
+               return true;
+            }
+            return RunSpeedPanel.getInstance().getRunSpeed() >= RunSpeedPanel.UNLIMITED_SPEED;
+         }
       	
       
       	/**
@@ -252,6 +304,29 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       	 */
       	
           public Object construct() {
+            // Turbo mode runs record nothing for back-stepping, which also lets them use the
+         	// block engine.  Steps recorded before such a run cannot be undone after it.
+            BackStepper backStepper = null;
+            if (turboMode && (breakPoints == null || breakPoints.length == 0) && Globals.getGui() == null
+                    && Globals.getSettings().getBackSteppingEnabled()) {
+               backStepper = Globals.program.getBackStepper();
+               backStepper.setEnabled(false);
+            }
+            executedCount = 0;
+            try {
+               return simulateProgram();
+            }
+            finally {
+               instructionsExecuted = executedCount;
+               if (backStepper != null) {
+                  backStepper.clear();
+                  backStepper.setEnabled(true);
+               }
+            }
+         }
+      
+         // Does the work of construct().
+          private Object simulateProgram() {
             // The next two statements are necessary for GUI to be consistently updated
          	// before the simulation gets underway.  Without them, this happens only intermittently,
          	// with a consequence that some simulations are interruptable using PAUSE/STOP and others
@@ -270,8 +345,32 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          	
             RegisterFile.initializeProgramCounter(pc);
             ProgramStatement statement = null;
+            // Statements are fetched through the decoded instruction cache, which also
+            // supplies each statement's SimulationCode so the loop can dispatch directly.
+            DecodedInstructionCache decoded = Globals.memory.getDecodedInstructionCache();
+            SimulationCode code;
+            // Hot basic blocks are executed as a unit, which is only safe when nothing needs to
+            // see individual instruction cycles.  Run speed and memory observers are checked
+            // per block since both can change while the program is running.
+            BasicBlockEngine engine = null;
+            BasicBlockEngine.Block block;
+            // Back-stepping by snapshot and replay only needs to count instructions.
+            ReplayHistory history = (Globals.getSettings().getBackSteppingEnabled())
+                                  ? Globals.program.getBackStepper().getReplayHistory()
+                                  : null;
+            if (history != null) {
+               history.runStarting();
+            }
+            int executed = 1; // instructions executed in the current cycle
+            // Memory counts the fetches it does; those of instructions executed in a block
+            // are counted here.
+            PageAccessCounts pageCounts = Globals.memory.getPageAccessCounts();
+            if (maxSteps <= 0 && !Globals.getSettings().getDelayedBranchingEnabled() &&
+                    (!Globals.getSettings().getBackSteppingEnabled() || history != null)) {
+               engine = new BasicBlockEngine(decoded, breakPoints);
+            }
             try {
-               statement = Globals.memory.getStatement(RegisterFile.getProgramCounter());
+               statement = Globals.memory.fetchStatement(RegisterFile.getProgramCounter());
             } 
                 catch (AddressErrorException e) {
                   ErrorList el = new ErrorList();
@@ -288,6 +387,9 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                   Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
                   return new Boolean(done);
                }
+            if (turboMode && breakPoints == null && Globals.getGui() == null) {
+               return runTurbo(statement, decoded, engine, pageCounts);
+            }
             int steps = 0;
          	
          	// *******************  PS addition 26 July 2006  **********************
@@ -331,27 +433,52 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             	// registers is assured.  Not as critical for reading from those resources.
                synchronized (Globals.memoryAndRegistersLock) {
                   try {                      
+                     executed = 1;
                      if (Simulator.externalInterruptingDevice != NO_DEVICE) {
                         int deviceInterruptCode = externalInterruptingDevice;
                         Simulator.externalInterruptingDevice = NO_DEVICE;
+                        if (history != null) {
+                           history.interrupted(deviceInterruptCode);
+                        }
                         throw new ProcessingException(statement, "External Interrupt", deviceInterruptCode);
                      }
-                     BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
-                     if (instruction == null) {
-                        throw new ProcessingException(statement,
-                            "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
-                            Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
-                     }
-                     // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
-                     instruction.getSimulationCode().simulate(statement);
-                  	
-                  	// IF statement added 7/26/06 (explanation above)
-                     if (Globals.getSettings().getBackSteppingEnabled()) {
-                        Globals.program.getBackStepper().addDoNothing(pc);
+                     block = (engine == null) ? null : engine.getHotBlock(pc);
+                     if (block != null && Globals.memory.countObservers() == 0 && runningAtFullSpeed()) {
+                        executed = 0; // see exception handling below
+                        executed = block.execute();
+                        if (pageCounts != null) {
+                           pageCounts.countFetches(pc + Instruction.INSTRUCTION_LENGTH, executed - 1);
+                        }
+                     } 
+                     else {
+                        code = decoded.getSimulationCode(pc);
+                        if (code == null) { // not in decoded cache (kernel text, data segment or undefined)
+                           BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
+                           if (instruction == null) {
+                              throw new ProcessingException(statement,
+                                  "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                                  Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                           }
+                           code = instruction.getSimulationCode();
+                        }
+                        // THIS IS WHERE THE INSTRUCTION EXECUTION IS ACTUALLY SIMULATED!
+                        code.simulate(statement);
+                     	
+                     	// IF statement added 7/26/06 (explanation above)
+                        if (Globals.getSettings().getBackSteppingEnabled()) {
+                           Globals.program.getBackStepper().addDoNothing(pc);
+                        }
                      }
                   } 
                       catch (ProcessingException pe) {
+                        if (executed == 0) { // instruction in block raised exception
+                           executed = (RegisterFile.getProgramCounter() - pc) >> 2;
+                           if (pageCounts != null) {
+                              pageCounts.countFetches(pc + Instruction.INSTRUCTION_LENGTH, executed - 1);
+                           }
+                        }
                         if (pe.errors() == null) {
+                           executedCount += executed;
                            this.constructReturnReason = NORMAL_TERMINATION;
                            this.done = true;
                            SystemIO.resetFiles(); // close any files opened in MIPS program
@@ -373,6 +500,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                               RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
                            } 
                            else {
+                              executedCount += executed;
                               this.constructReturnReason = EXCEPTION;
                               this.pe = pe;
                               this.done = true;
@@ -383,15 +511,20 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                         }
                      }
                }// end synchronized block
+               executedCount += executed;
             	
             	///////// DPS 15 June 2007.  Handle delayed branching if it occurs./////
-               if (DelayedBranch.isTriggered()) {
+               boolean inDelaySlot = DelayedBranch.isTriggered();
+               if (inDelaySlot) {
                   RegisterFile.setProgramCounter(DelayedBranch.getBranchTargetAddress());
                   DelayedBranch.clear();
                } 
                else if (DelayedBranch.isRegistered()) {
                   DelayedBranch.trigger();
                }//////////////////////////////////////////////////////////////////////
+               if (history != null) {
+                  history.instructionsFinished(executed, inDelaySlot);
+               }
             	
             	// Volatile variable initialized false but can be set true by the main thread.
             	// Used to stop or pause a running MIPS program.  See stopSimulation() above.
@@ -441,7 +574,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                // Get next instruction in preparation for next iteration.
             
                try {
-                  statement = Globals.memory.getStatement(RegisterFile.getProgramCounter());
+                  statement = Globals.memory.fetchStatement(RegisterFile.getProgramCounter());
                } 
                    catch (AddressErrorException e) {
                      ErrorList el = new ErrorList();
@@ -475,6 +608,159 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
             return new Boolean(done); // true;  // execution completed
          }
+
+      	/**
+      	 *  Turbo mode version of the run loop in construct(), used for runs with no GUI and no
+      	 *  breakpoints.  Settings that construct() tests on every instruction are tested
+      	 *  once here, instructions are fetched from the decoded instruction cache without
+      	 *  notifying observers, and no lock is taken since nothing else accesses MIPS memory
+      	 *  and registers during a headless run.  Stop requests and external interrupts are
+      	 *  tested every TURBO_CHECK_INTERVAL instructions.
+      	 *
+      	 *  @param statement the first statement to execute, already fetched
+      	 *  @param decoded the decoded instruction cache of Globals.memory
+      	 *  @param engine basic block engine to use, or null if blocks may not be used
+      	 *  @param pageCounts page access counts of Globals.memory, or null if not counting;
+      	 *  fetches after the first are counted here since they do not go through Memory
+      	 *  @return  boolean value true if execution done, false otherwise
+      	 */
+          private Object runTurbo(ProgramStatement statement, DecodedInstructionCache decoded, BasicBlockEngine engine,
+                                  PageAccessCounts pageCounts) {
+            boolean delayedBranching = Globals.getSettings().getDelayedBranchingEnabled();
+            long executed = 0;
+            int countdown = TURBO_CHECK_INTERVAL;
+            int pc = 0;
+            BasicBlockEngine.Block block = null;
+            SimulationCode code;
+            while (statement != null) {
+               pc = RegisterFile.getProgramCounter();
+               RegisterFile.incrementPC();
+               block = null;
+               try {
+                  if (--countdown <= 0) {
+                     countdown = TURBO_CHECK_INTERVAL;
+                     if (stop == true) {
+                        RegisterFile.setProgramCounter(pc); // instruction has not been executed
+                        executedCount = executed;
+                        this.constructReturnReason = PAUSE_OR_STOP;
+                        this.done = false;
+                        Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                        return new Boolean(done);
+                     }
+                     if (Simulator.externalInterruptingDevice != NO_DEVICE) {
+                        int deviceInterruptCode = externalInterruptingDevice;
+                        Simulator.externalInterruptingDevice = NO_DEVICE;
+                        throw new ProcessingException(statement, "External Interrupt", deviceInterruptCode);
+                     }
+                  }
+                  block = (engine == null) ? null : engine.getHotBlock(pc);
+                  if (block != null) {
+                     int blockExecuted = block.execute();
+                     executed += blockExecuted;
+                     if (pageCounts != null) {
+                        pageCounts.countFetches(pc + Instruction.INSTRUCTION_LENGTH, blockExecuted - 1);
+                     }
+                  } 
+                  else {
+                     code = decoded.getSimulationCode(pc);
+                     if (code == null) { // not in decoded cache (kernel text, data segment or undefined)
+                        BasicInstruction instruction = (BasicInstruction)statement.getInstruction();
+                        if (instruction == null) {
+                           throw new ProcessingException(statement,
+                               "undefined instruction ("+Binary.intToHexString(statement.getBinaryStatement())+")",
+                               Exceptions.RESERVED_INSTRUCTION_EXCEPTION);
+                        }
+                        code = instruction.getSimulationCode();
+                     }
+                     code.simulate(statement);
+                     executed++;
+                  }
+               } 
+                   catch (ProcessingException pe) {
+                     // The program counter has been incremented past every instruction started,
+                     // including the one that raised the exception.
+                     if (block == null) {
+                        executed++;
+                     } 
+                     else {
+                        executed += (RegisterFile.getProgramCounter() - pc) >> 2;
+                        if (pageCounts != null) {
+                           pageCounts.countFetches(pc + Instruction.INSTRUCTION_LENGTH, ((RegisterFile.getProgramCounter() - pc) >> 2) - 1);
+                        }
+                     }
+                     executedCount = executed;
+                     if (pe.errors() == null) {
+                        this.constructReturnReason = NORMAL_TERMINATION;
+                        this.done = true;
+                        SystemIO.resetFiles(); // close any files opened in MIPS program
+                        Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                        return new Boolean(done); // execution completed without error.
+                     }
+                     ProgramStatement exceptionHandler = null;
+                     try {
+                        exceptionHandler = Globals.memory.getStatementNoNotify(Memory.exceptionHandlerAddress);
+                     } 
+                         catch (AddressErrorException aee) { } // will not occur with this well-known addres
+                     if (exceptionHandler == null) {
+                        this.constructReturnReason = EXCEPTION;
+                        this.pe = pe;
+                        this.done = true;
+                        SystemIO.resetFiles(); // close any files opened in MIPS program
+                        Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                        return new Boolean(done);
+                     }
+                     RegisterFile.setProgramCounter(Memory.exceptionHandlerAddress);
+                  }
+               if (delayedBranching) {
+                  if (DelayedBranch.isTriggered()) {
+                     RegisterFile.setProgramCounter(DelayedBranch.getBranchTargetAddress());
+                     DelayedBranch.clear();
+                  } 
+                  else if (DelayedBranch.isRegistered()) {
+                     DelayedBranch.trigger();
+                  }
+               }
+               if (maxSteps > 0 && executed >= maxSteps) {
+                  executedCount = executed;
+                  this.constructReturnReason = MAX_STEPS;
+                  this.done = false;
+                  Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                  return new Boolean(done);
+               }
+               pc = RegisterFile.getProgramCounter();
+               if (pageCounts != null) {
+                  pageCounts.countFetch(pc);
+               }
+               statement = decoded.getStatement(pc);
+               if (statement == null) {
+                  try {
+                     statement = Globals.memory.getStatementNoNotify(pc);
+                     decoded.put(pc, statement);
+                  } 
+                      catch (AddressErrorException e) {
+                        executedCount = executed;
+                        ErrorList el = new ErrorList();
+                        el.add(new ErrorMessage((MIPSprogram)null,0,0,"invalid program counter value: "+Binary.intToHexString(pc)));
+                        this.pe = new ProcessingException(el,e);
+                        Coprocessor0.updateRegister(Coprocessor0.EPC, pc); // see comment in construct()
+                        this.constructReturnReason = EXCEPTION;
+                        this.done = true;
+                        SystemIO.resetFiles(); // close any files opened in MIPS program
+                        Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+                        return new Boolean(done);
+                     }
+               }
+            }
+            if (DelayedBranch.isTriggered() || DelayedBranch.isRegistered()) {
+               DelayedBranch.clear();
+            }
+            executedCount = executed;
+            this.constructReturnReason = CLIFF_TERMINATION;
+            this.done = true;
+            SystemIO.resetFiles(); // close any files opened in MIPS program
+            Simulator.getInstance().notifyObserversOfExecutionStop(maxSteps, pc);
+            return new Boolean(done); // true;  // execution completed
+         }
          
       	
       	/**
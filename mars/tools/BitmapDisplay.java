@@ -5,6 +5,7 @@
    import java.awt.*;
    import java.awt.event.*;
    import java.util.*;
+   import mars.Globals;
    import mars.tools.*;
    import mars.mips.hardware.*;
 
@@ -462,10 +463,25 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return new Grid(rows,columns);
       }
    	
-   	 // Given memory address, update color for the corresponding grid element.
+   	 // Given memory address, update color for the corresponding grid element.  A notice
+   	 // of a longer range (from a syscall writing a buffer) updates the element of each 
+   	 // word in it, with the word read from memory.
        private void updateColorForAddress(MemoryAccessNotice notice) {
          int address = notice.getAddress();
          int value   = notice.getValue();
+         if (notice.getLength() > Memory.WORD_LENGTH_BYTES) {
+            int last = address + notice.getLength() - 1;
+            for (address &= ~(Memory.WORD_LENGTH_BYTES - 1); address <= last; address += Memory.WORD_LENGTH_BYTES) {
+               try {
+                  updateColorForAddress(new MemoryAccessNotice(AccessNotice.WRITE, address, 
+                                           Globals.memory.getWordNoNotify(address)));
+               } 
+                   catch (AddressErrorException e) {
+                     return;
+                  }
+            }
+            return;
+         }
          int offset = (address - baseAddress)/Memory.WORD_LENGTH_BYTES;
          try {
             theGrid.setElement(offset / theGrid.getColumns(), offset % theGrid.getColumns(), value);
@@ -0,0 +1,113 @@
+   package mars.util;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+
+/**
+ * Buffered reader of the ints, longs and strings written by ChannelOutput.
+ */
+
+    public class ChannelInput {
+      private static final int BUFFER_SIZE = 64 * 1024;
+
+      private ReadableByteChannel channel;
+      private ByteBuffer buffer;
+
+   	/**
+   	 * Create a reader for the given channel.
+   	 * @param channel channel to read from
+   	 */
+       public ChannelInput(ReadableByteChannel channel) {
+         this.channel = channel;
+         this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+         this.buffer.flip(); // empty
+      }
+
+   	/**
+   	 * Read an int.
+   	 * @return the value read
+   	 * @throws IOException if the channel cannot be read or is at end of stream
+   	 */
+       public int readInt() throws IOException {
+         require(4);
+         return buffer.getInt();
+      }
+
+   	/**
+   	 * Read a long.
+   	 * @return the value read
+   	 * @throws IOException if the channel cannot be read or is at end of stream
+   	 */
+       public long readLong() throws IOException {
+         require(8);
+         return buffer.getLong();
+      }
+
+   	/**
+   	 * Read values into part of an int array.
+   	 * @param values array to hold the values read
+   	 * @param offset index at which to store the first value
+   	 * @param length number of values to read
+   	 * @throws IOException if the channel cannot be read or is at end of stream
+   	 */
+       public void readInts(int[] values, int offset, int length) throws IOException {
+         while (length > 0) {
+            require(4);
+            int count = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().get(values, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+            length -= count;
+         }
+      }
+
+   	/**
+   	 * Read an int array written with its length.
+   	 * @return the values read
+   	 * @throws IOException if the channel cannot be read or is at end of stream
+   	 */
+       public int[] readInts() throws IOException {
+         int length = readInt();
+         if (length < 0) {
+            throw new IOException("invalid array length " + length);
+         }
+         int[] values = new int[length];
+         readInts(values, 0, length);
+         return values;
+      }
+
+   	/**
+   	 * Read a string written by ChannelOutput.writeString().
+   	 * @return the string read, may be null
+   	 * @throws IOException if the channel cannot be read or is at end of stream
+   	 */
+       public String readString() throws IOException {
+         int length = readInt();
+         if (length < 0) {
+            return null;
+         }
+         byte[] bytes = new byte[length];
+         int offset = 0;
+         while (offset < length) {
+            require(1);
+            int count = Math.min(length - offset, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            offset += count;
+         }
+         return new String(bytes, "UTF-8");
+      }
+
+      // Make sure at least the given number of bytes (at most 8) are in the buffer.
+       private void require(int bytes) throws IOException {
+         if (buffer.remaining() >= bytes) {
+            return;
+         }
+         buffer.compact();
+         while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+               throw new EOFException("unexpected end of data");
+            }
+         }
+         buffer.flip();
+      }
+   }
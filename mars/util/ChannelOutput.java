@@ -0,0 +1,117 @@
+   package mars.util;
+   import java.io.*;
+   import java.nio.*;
+   import java.nio.channels.*;
+
+/**
+ * Buffered writer of big-endian ints, longs and strings to an NIO channel.  Arrays
+ * of ints are copied into the buffer in bulk, so large blocks of memory are written
+ * without per-word overhead.  Used for checkpoint files; see ChannelInput.
+ */
+
+    public class ChannelOutput {
+      private static final int BUFFER_SIZE = 64 * 1024;
+
+      private WritableByteChannel channel;
+      private ByteBuffer buffer;
+
+   	/**
+   	 * Create a writer for the given channel.
+   	 * @param channel channel to write to
+   	 */
+       public ChannelOutput(WritableByteChannel channel) {
+         this.channel = channel;
+         this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      }
+
+   	/**
+   	 * Write an int.
+   	 * @param value the value to write
+   	 * @throws IOException if the channel cannot be written
+   	 */
+       public void writeInt(int value) throws IOException {
+         if (buffer.remaining() < 4) {
+            flush();
+         }
+         buffer.putInt(value);
+      }
+
+   	/**
+   	 * Write a long.
+   	 * @param value the value to write
+   	 * @throws IOException if the channel cannot be written
+   	 */
+       public void writeLong(long value) throws IOException {
+         if (buffer.remaining() < 8) {
+            flush();
+         }
+         buffer.putLong(value);
+      }
+
+   	/**
+   	 * Write part of an int array.  The length is not written.
+   	 * @param values array holding the values to write
+   	 * @param offset index of first value to write
+   	 * @param length number of values to write
+   	 * @throws IOException if the channel cannot be written
+   	 */
+       public void writeInts(int[] values, int offset, int length) throws IOException {
+         while (length > 0) {
+            if (buffer.remaining() < 4) {
+               flush();
+            }
+            int count = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, offset, count);
+            buffer.position(buffer.position() + count * 4);
+            offset += count;
+            length -= count;
+         }
+      }
+
+   	/**
+   	 * Write an int array preceded by its length.
+   	 * @param values the values to write
+   	 * @throws IOException if the channel cannot be written
+   	 */
+       public void writeInts(int[] values) throws IOException {
+         writeInt(values.length);
+         writeInts(values, 0, values.length);
+      }
+
+   	/**
+   	 * Write a string as UTF-8 preceded by its length in bytes.  A null string is
+   	 * written as length -1.
+   	 * @param value the string to write, may be null
+   	 * @throws IOException if the channel cannot be written
+   	 */
+       public void writeString(String value) throws IOException {
+         if (value == null) {
+            writeInt(-1);
+            return;
+         }
+         byte[] bytes = value.getBytes("UTF-8");
+         writeInt(bytes.length);
+         int offset = 0;
+         while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+               flush();
+            }
+            int count = Math.min(bytes.length - offset, buffer.remaining());
+            buffer.put(bytes, offset, count);
+            offset += count;
+         }
+      }
+
+   	/**
+   	 * Write any buffered data to the channel.  Must be called once everything
+   	 * has been written.
+   	 * @throws IOException if the channel cannot be written
+   	 */
+       public void flush() throws IOException {
+         buffer.flip();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+         buffer.clear();
+      }
+   }
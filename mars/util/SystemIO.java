@@ -318,10 +318,10 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
             
             // Oct. 9 2005 Ken Vollmar  Force the write statement to write exactly
             // the number of bytes requested, even though those bytes include many ZERO values.
-            for (int ii = 0; ii < lengthRequested; ii++)
-            {
-               outputStream.write(myBuffer[ii]); 
-            }
+            // That was done a byte at a time, which for a file is one system call per byte.
+            // write(byte[],int,int) does write every byte, zeros included, so it is used again
+            // with the same (non-negative) length.
+            outputStream.write(myBuffer, 0, Math.max(lengthRequested, 0)); 
             outputStream.flush();// DPS 7-Jan-2013
          } 
              catch (IOException e)
@@ -491,6 +491,147 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
          return fileErrorString;
       }
    
+    /**
+     * Returns the file descriptor table and input reader currently in use, for saving
+     * by a SimulationContext.
+     * @return State holding the current table (not a copy).
+     */
+       public static State getState()
+      {
+         return new State(FileIOData.fileNames, FileIOData.fileFlags, FileIOData.streams, inputReader);
+      }
+   
+    /**
+     * Installs a file descriptor table and input reader, replacing those currently in use.
+     * Used when switching between SimulationContexts.
+     * @param state State previously obtained from getState() or created with new State().
+     */
+       public static void setState(State state)
+      {
+         FileIOData.fileNames = state.fileNames;
+         FileIOData.fileFlags = state.fileFlags;
+         FileIOData.streams = state.streams;
+         inputReader = state.inputReader;
+      }
+   
+    /**
+     * A file descriptor table along with the reader used for keyboard (standard) input.
+     * A new State has only the standard I/O channels open.
+     */
+       public static final class State
+      {
+         private String[] fileNames;
+         private int[] fileFlags;
+         private Object[] streams;
+         private BufferedReader inputReader;
+      
+          public State()
+         {
+            this(new String[SYSCALL_MAXFILES], new int[SYSCALL_MAXFILES], new Object[SYSCALL_MAXFILES], null);
+            fileNames[STDIN]  = "STDIN";
+            fileNames[STDOUT] = "STDOUT";
+            fileNames[STDERR] = "STDERR";
+            fileFlags[STDIN]  = SystemIO.O_RDONLY;
+            fileFlags[STDOUT] = SystemIO.O_WRONLY;
+            fileFlags[STDERR] = SystemIO.O_WRONLY;
+            streams[STDIN]  = System.in;
+            streams[STDOUT] = System.out;
+            streams[STDERR] = System.err;
+         }
+      
+          private State(String[] fileNames, int[] fileFlags, Object[] streams, BufferedReader inputReader)
+         {
+            this.fileNames = fileNames;
+            this.fileFlags = fileFlags;
+            this.streams = streams;
+            this.inputReader = inputReader;
+         }
+      
+       /**
+        * Write the file descriptor table to a checkpoint: the name and flags of each open
+        * file and, for files on disk, the current position.
+        * @param out destination of the checkpoint data
+        * @throws IOException if the data cannot be written or a file position cannot be read
+        */
+          public void writeCheckpoint(ChannelOutput out) throws IOException
+         {
+            out.writeInt(SYSCALL_MAXFILES);
+            for (int fd = 0; fd < SYSCALL_MAXFILES; fd++)
+            {
+               long position = -1;
+               if (streams[fd] instanceof FileInputStream && fd > STDERR)
+                  position = ((FileInputStream) streams[fd]).getChannel().position();
+               else if (streams[fd] instanceof FileOutputStream && fd > STDERR)
+                  position = ((FileOutputStream) streams[fd]).getChannel().position();
+               out.writeString(fileNames[fd]);
+               out.writeInt(fileFlags[fd]);
+               out.writeLong(position);
+            }
+         }
+      
+       /**
+        * Create a file descriptor table from a checkpoint written by writeCheckpoint().
+        * Standard I/O is connected as in a new State.  Files that were open for reading are
+        * reopened at the same position; files open for writing are reopened for appending.
+        * @param in source of the checkpoint data
+        * @return State holding the reopened files
+        * @throws IOException if the data cannot be read or a file cannot be reopened
+        */
+          public static State readCheckpoint(ChannelInput in) throws IOException
+         {
+            State state = new State();
+            int count = in.readInt();
+            if (count != SYSCALL_MAXFILES)
+               throw new IOException("checkpoint has " + count + " file descriptors, expected " + SYSCALL_MAXFILES);
+            try
+            {
+               for (int fd = 0; fd < SYSCALL_MAXFILES; fd++)
+               {
+                  String name = in.readString();
+                  int flags = in.readInt();
+                  long position = in.readLong();
+                  if (fd <= STDERR || name == null)
+                     continue;
+                  if (flags == O_RDONLY)
+                  {
+                     FileInputStream inputStream = new FileInputStream(name);
+                     state.streams[fd] = inputStream;
+                     if (position > 0)
+                        inputStream.getChannel().position(position);
+                  }
+                  else
+                  {
+                     state.streams[fd] = new FileOutputStream(name, true);
+                  }
+                  state.fileNames[fd] = name;
+                  state.fileFlags[fd] = flags;
+               }
+            }
+                catch (IOException e)
+               {
+                  state.close();
+                  throw e;
+               }
+            return state;
+         }
+      
+         // Close the disk files of this table.
+          private void close()
+         {
+            for (int fd = STDERR + 1; fd < SYSCALL_MAXFILES; fd++)
+            {
+               try
+               {
+                  if (streams[fd] instanceof Closeable)
+                     ((Closeable) streams[fd]).close();
+               }
+                   catch (IOException e)
+                  {
+                  }
+            }
+         }
+      }
+   
       ///////////////////////////////////////////////////////////////////////
       // Private method to simply return the BufferedReader used for
    	// keyboard input, redirected input, or piped input.
@@ -1,6 +1,7 @@
    package mars.venus;
    import mars.*;
    import mars.util.*;
+   import mars.assembler.*;
    import mars.mips.hardware.*;
    import java.util.*;
    import java.io.*;
@@ -44,6 +45,8 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
       private static ArrayList MIPSprogramsToAssemble;
       private static boolean extendedAssemblerEnabled;
       private static boolean warningsAreErrors;
+   	// Source files as last assembled, so that only lines edited since are lexed again.
+      private static SourceCache sources = new SourceCache();
    	// Threshold for adding filename to printed message of files being assembled.
       private static final int LINE_LENGTH_LIMIT = 60;
    	 
@@ -92,7 +95,7 @@ WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
                    Globals.getSettings().getExceptionHandler().length() > 0) {
                   exceptionHandler = Globals.getSettings().getExceptionHandler();
                }
-               MIPSprogramsToAssemble = Globals.program.prepareFilesForAssembly(filesToAssemble, FileStatus.getFile().getPath(), exceptionHandler);					
+               MIPSprogramsToAssemble = Globals.program.prepareFilesForAssembly(filesToAssemble, FileStatus.getFile().getPath(), exceptionHandler, sources);					
                mainUI.messagesPane.postMarsMessage(buildFileNameList(name+": assembling ", MIPSprogramsToAssemble));
                // added logic to receive any warnings and output them.... DPS 11/28/06
                ErrorList warnings = Globals.program.assemble(MIPSprogramsToAssemble, extendedAssemblerEnabled,